@@ -10,17 +10,26 @@
  */
 package com.ibm.wiotp.sdk;
 
+import java.io.File;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttSecurityException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.eclipse.paho.client.mqttv3.util.Debug;
@@ -29,6 +38,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.ibm.wiotp.sdk.codecs.MessageCodec;
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
+import com.ibm.wiotp.sdk.exceptions.MessageDiscardedException;
+import com.ibm.wiotp.sdk.outbound.DiscardReason;
+import com.ibm.wiotp.sdk.outbound.InflightWindow;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.outbound.OutboundQueue;
+import com.ibm.wiotp.sdk.outbound.OutboundQueueCallback;
+import com.ibm.wiotp.sdk.outbound.OverflowPolicy;
+import com.ibm.wiotp.sdk.outbound.Priority;
+import com.ibm.wiotp.sdk.persistence.MappedFilePersistence;
 
 /**
  * A client that handles connections with the IBM Watson IoT Platform. <br>
@@ -76,7 +96,17 @@ public abstract class AbstractClient {
 
 	// Supported only for DM ManagedClient
 	protected MqttClient mqttClient = null;
-	protected MemoryPersistence persistence = null;
+	protected MqttClientPersistence persistence = null;
+
+	protected OutboundQueue outboundQueue = null;
+	protected InflightWindow inflightWindow = null;
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	/* Timestamps published messages */
+	protected volatile Clock clock = Clock.systemUTC();
+
+	/* Outbound priority by event ID (or command ID, for applications) */
+	private final Map<String, Priority> priorities = new ConcurrentHashMap<String, Priority>();
 
 	/**
 	 * Note that this class does not have a default constructor <br>
@@ -156,6 +186,24 @@ public abstract class AbstractClient {
 		}
 	}
 
+	/**
+	 * Create the persistence used by the MQTT client for in-flight QoS 1 and 2
+	 * messages, as selected by the persistence option: "memory" (the default)
+	 * or "mmap" for a memory-mapped file under persistenceDir that survives a
+	 * restart of the process.
+	 * 
+	 * @return The MQTT client persistence
+	 */
+	protected MqttClientPersistence createPersistence() {
+		if ("mmap".equals(config.getPersistence())) {
+			String dir = config.getPersistenceDir() != null ? config.getPersistenceDir()
+					: System.getProperty("user.dir");
+			return new MappedFilePersistence(new File(dir), MappedFilePersistence.DEFAULT_FILE_SIZE,
+					config.getPersistenceSyncInterval());
+		}
+		return new MemoryPersistence();
+	}
+
 	/**
 	 * configureMqtt() is called when the User does not provide an Organization
 	 * value and intends to connect to Watson IoT Platform using the QUICKSTART
@@ -173,16 +221,379 @@ public abstract class AbstractClient {
 		mqttCallback = callback;
 
 		try {
-			persistence = new MemoryPersistence();
+			persistence = createPersistence();
 			mqttAsyncClient = new MqttAsyncClient(config.getMqttServerURI(), config.getClientId(), persistence);
 			mqttAsyncClient.setCallback(mqttCallback);
-			DisconnectedBufferOptions disconnectedOpts = new DisconnectedBufferOptions();
-			disconnectedOpts.setBufferEnabled(true);
-			disconnectedOpts.setBufferSize(DEFAULT_DISCONNECTED_BUFFER_SIZE);
-			mqttAsyncClient.setBufferOpts(disconnectedOpts);
 		} catch (MqttException e) {
 			e.printStackTrace();
 		}
+
+		/*
+		 * Messages published while disconnected are held in our own outbound queue
+		 * rather than Paho's disconnected buffer, so that the overflow policy and
+		 * message expiry can be applied.
+		 */
+		int queueSize = config.getOutboundQueueSize() > 0 ? config.getOutboundQueueSize()
+				: DEFAULT_DISCONNECTED_BUFFER_SIZE;
+		outboundQueue = new OutboundQueue(queueSize, OverflowPolicy.fromConfig(config.getOutboundQueuePolicy()),
+				config.getOutboundQueueTimeout());
+		inflightWindow = new InflightWindow(config.getMinInflight(), config.getMaxInflight(),
+				config.isAdaptiveInflight());
+	}
+
+	/**
+	 * Whether the data of an event is taken in by the client rather than
+	 * published, e.g. added to an aggregation window or held back by a
+	 * deadband. Called by {@link EventPublisher} before encoding; the base
+	 * client takes nothing in.
+	 * 
+	 * @param topic the fully resolved MQTT topic
+	 * @param data  the data to publish
+	 * @return Whether the data must not be published
+	 */
+	protected boolean absorbEvent(String topic, Object data) {
+		return false;
+	}
+
+	/**
+	 * Encode data for publishing through the pooled payload buffer of the
+	 * calling thread, so codecs that write directly to a buffer need no
+	 * intermediate copies. The MQTT client keeps a reference to the payload
+	 * until the message has been sent, so an exactly sized copy is returned.
+	 * 
+	 * @param codec     the codec for the class of the data
+	 * @param data      the data to encode
+	 * @param timestamp the time that the message was generated, in milliseconds
+	 *                  since the epoch
+	 * @return The encoded payload
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected byte[] encode(MessageCodec codec, Object data, long timestamp) {
+		PayloadBuffer buffer = PayloadBuffer.pooled();
+		codec.encode(data, timestamp, buffer);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Hand an already encoded payload to the MQTT client. <br>
+	 * All of the publish methods of the derived clients, and
+	 * {@link EventPublisher}, funnel through this method.
+	 * 
+	 * @param topic   the fully resolved MQTT topic
+	 * @param payload the encoded message payload
+	 * @param qos     Quality of Service, in int - can have values 0,1,2
+	 * @return Whether the send was successful.
+	 */
+	protected boolean publishMessage(String topic, byte[] payload, int qos) {
+		return publishMessage(topic, payload, qos, Priority.NORMAL);
+	}
+
+	/**
+	 * Hand an already encoded payload to the MQTT client, in the given lane of
+	 * the outbound queue
+	 * 
+	 * @param topic    the fully resolved MQTT topic
+	 * @param payload  the encoded message payload
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane the message waits in if it can not be sent
+	 *                 straight away
+	 * @return Whether the send was successful.
+	 */
+	protected boolean publishMessage(String topic, byte[] payload, int qos, Priority priority) {
+		if (outboundQueue.getPolicy() != OverflowPolicy.REJECT) {
+			return submit(newOutboundMessage(topic, payload, qos, priority, null));
+		}
+		// Only a full queue is reported by exception, a client error is still a false return
+		RejectionListener rejection = new RejectionListener();
+		boolean accepted = submit(newOutboundMessage(topic, payload, qos, priority, rejection));
+		if (!accepted && rejection.discarded != null) {
+			throw rejection.discarded;
+		}
+		return accepted;
+	}
+
+	/*
+	 * Records whether the outbound queue refused a message, as opposed to the
+	 * MQTT client failing to send it
+	 */
+	private static class RejectionListener implements IMqttActionListener {
+		volatile MessageDiscardedException discarded;
+
+		@Override
+		public void onSuccess(IMqttToken asyncActionToken) {
+		}
+
+		@Override
+		public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+			if (exception instanceof MessageDiscardedException
+					&& ((MessageDiscardedException) exception).getReason() == DiscardReason.OVERFLOW) {
+				discarded = (MessageDiscardedException) exception;
+			}
+		}
+	}
+
+	/**
+	 * Hand an already encoded payload to the MQTT client without waiting for
+	 * it to be delivered. <br>
+	 * The returned future completes when the MQTT client reports the outcome of
+	 * the publish: for QoS 1 and 2 that is when the broker has acknowledged the
+	 * message, for QoS 0 when it has been written to the network.
+	 * 
+	 * @param topic   the fully resolved MQTT topic
+	 * @param payload the encoded message payload
+	 * @param qos     Quality of Service, in int - can have values 0,1,2
+	 * @return Future completed with the token of the delivered message
+	 */
+	protected CompletableFuture<IMqttToken> publishMessageAsync(String topic, byte[] payload, int qos) {
+		return publishMessageAsync(topic, payload, qos, Priority.NORMAL);
+	}
+
+	/**
+	 * Hand an already encoded payload to the MQTT client without waiting for
+	 * it to be delivered, in the given lane of the outbound queue
+	 * 
+	 * @param topic    the fully resolved MQTT topic
+	 * @param payload  the encoded message payload
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane the message waits in if it can not be sent
+	 *                 straight away
+	 * @return Future completed with the token of the delivered message
+	 */
+	protected CompletableFuture<IMqttToken> publishMessageAsync(String topic, byte[] payload, int qos,
+			Priority priority) {
+		final CompletableFuture<IMqttToken> future = new CompletableFuture<IMqttToken>();
+		submit(newOutboundMessage(topic, payload, qos, priority, new IMqttActionListener() {
+			@Override
+			public void onSuccess(IMqttToken asyncActionToken) {
+				future.complete(asyncActionToken);
+			}
+
+			@Override
+			public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+				future.completeExceptionally(exception);
+			}
+		}));
+		return future;
+	}
+
+	/**
+	 * Submit an encoded batch to the MQTT client back-to-back. <br>
+	 * Messages that do not fit in the in-flight window are held in the outbound
+	 * queue rather than failing the rest of the batch, in the lane set for their
+	 * event ID. Entries with a null topic
+	 * have already been failed by the caller (e.g. no codec available) and are
+	 * skipped.
+	 * 
+	 * @param batch    the aggregate completion for the batch
+	 * @param topics   the resolved topic of each event in the batch
+	 * @param payloads the encoded payload of each event in the batch
+	 */
+	protected void submitBatch(BatchPublishResult batch, String[] topics, byte[][] payloads) {
+		for (int i = 0; i < topics.length; i++) {
+			if (topics[i] != null) {
+				OutboundEvent event = batch.getEvents().get(i);
+				submit(newOutboundMessage(topics[i], payloads[i], event.getQos(), getPriority(event.getEventId()),
+						batch.listener(i)));
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Submitted batch of " + topics.length + " messages");
+		}
+	}
+
+	private OutboundMessage newOutboundMessage(String topic, byte[] payload, int qos, Priority priority,
+			IMqttActionListener listener) {
+		MqttMessage msg = new MqttMessage(payload);
+		msg.setQos(qos);
+		msg.setRetained(false);
+
+		long expiry = 0;
+		if (config.getMessageTtl() > 0) {
+			expiry = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getMessageTtl());
+		}
+		return new OutboundMessage(topic, msg, listener, expiry, priority);
+	}
+
+	/**
+	 * Send a message straight away if the client is connected and nothing is
+	 * waiting ahead of it, otherwise add it to the outbound queue.
+	 * 
+	 * @param message the message to publish
+	 * @return Whether the message was sent or queued
+	 */
+	protected boolean submit(OutboundMessage message) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Publishing message to " + message.getTopic());
+		}
+
+		if (mqttAsyncClient.isConnected() && outboundQueue.isEmpty()) {
+			long slot = acquireSlot(message);
+			if (slot != InflightWindow.NO_SLOT) {
+				try {
+					send(message, slot);
+					return true;
+				} catch (MqttException e) {
+					if (!isTransient(e)) {
+						LOG.warn("Unable to publish message to " + message.getTopic(), e);
+						message.fail(e);
+						return false;
+					}
+					// Otherwise hold on to the message until it can be sent
+				}
+			}
+		}
+
+		boolean accepted = outboundQueue.offer(message);
+		if (accepted) {
+			drainOutboundQueue();
+		}
+		return accepted;
+	}
+
+	/**
+	 * Hand as many queued messages to the MQTT client as the in-flight window
+	 * allows. <br>
+	 * This is called whenever the connection is (re)established and whenever a
+	 * publish completes, freeing a slot in the in-flight window.
+	 */
+	protected void drainOutboundQueue() {
+		boolean windowFull;
+		boolean blocked;
+		do {
+			if (!draining.compareAndSet(false, true)) {
+				// Another thread is already draining the queue
+				return;
+			}
+			windowFull = false;
+			blocked = false;
+			try {
+				OutboundMessage message;
+				while (mqttAsyncClient.isConnected() && (message = outboundQueue.poll()) != null) {
+					long slot = acquireSlot(message);
+					if (slot == InflightWindow.NO_SLOT) {
+						outboundQueue.pushBack(message);
+						windowFull = true;
+						break;
+					}
+					try {
+						send(message, slot);
+					} catch (MqttException e) {
+						if (isTransient(e)) {
+							// Try again when the connection is back or a publish completes
+							outboundQueue.pushBack(message);
+							blocked = true;
+							break;
+						}
+						LOG.warn("Unable to publish message to " + message.getTopic(), e);
+						message.fail(e);
+					}
+				}
+			} finally {
+				draining.set(false);
+			}
+			// Re-check in case a message was queued, or a slot freed up, while we were
+			// finishing up
+		} while (!blocked && mqttAsyncClient.isConnected() && !outboundQueue.isEmpty()
+				&& (!windowFull || inflightWindow.hasCapacity()));
+	}
+
+	/*
+	 * Take a slot in the in-flight window for a message that will be
+	 * acknowledged. QoS 0 messages are not acknowledged and do not need one.
+	 */
+	private long acquireSlot(OutboundMessage message) {
+		if (message.getMessage().getQos() == 0) {
+			return 0;
+		}
+		return inflightWindow.tryAcquire();
+	}
+
+	/*
+	 * Publish a message that holds a slot in the in-flight window, returning the
+	 * slot when the publish completes and using its round trip time to resize
+	 * the window
+	 */
+	private void send(final OutboundMessage message, final long slot) throws MqttException {
+		if (message.getMessage().getQos() == 0) {
+			mqttAsyncClient.publish(message.getTopic(), message.getMessage(), null, message.getListener());
+			return;
+		}
+
+		final long start = System.nanoTime();
+		try {
+			mqttAsyncClient.publish(message.getTopic(), message.getMessage(), null, new IMqttActionListener() {
+				@Override
+				public void onSuccess(IMqttToken asyncActionToken) {
+					inflightWindow.release(slot, System.nanoTime() - start, true);
+					if (message.getListener() != null) {
+						message.getListener().onSuccess(asyncActionToken);
+					}
+					drainOutboundQueue();
+				}
+
+				@Override
+				public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+					inflightWindow.release(slot, System.nanoTime() - start, false);
+					if (message.getListener() != null) {
+						message.getListener().onFailure(asyncActionToken, exception);
+					}
+					drainOutboundQueue();
+				}
+			});
+		} catch (MqttException e) {
+			inflightWindow.cancel(slot);
+			if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+				inflightWindow.congested();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Start a new in-flight window and send whatever has been queued, once the
+	 * connection has been (re)established
+	 */
+	protected void resumeOutbound() {
+		inflightWindow.reset();
+		drainOutboundQueue();
+	}
+
+	/*
+	 * Whether a publish failed because of the current state of the connection
+	 * rather than the message itself
+	 */
+	private boolean isTransient(MqttException e) {
+		switch (e.getReasonCode()) {
+		case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+		case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+		case MqttException.REASON_CODE_CONNECTION_LOST:
+		case MqttException.REASON_CODE_MAX_INFLIGHT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Record that an entry of a batch could not be submitted
+	 * 
+	 * @param batch the aggregate completion for the batch
+	 * @param index position of the failed event in the batch
+	 * @param cause the reason for the failure
+	 */
+	protected void failBatchEntry(BatchPublishResult batch, int index, Throwable cause) {
+		batch.complete(index, cause);
+	}
+
+	/**
+	 * Report an entry of a batch as successful without sending it, because its
+	 * data was taken in by the client, see {@link #absorbEvent(String, Object)}
+	 * 
+	 * @param batch the aggregate completion for the batch
+	 * @param index position of the entry in the batch
+	 */
+	protected void skipBatchEntry(BatchPublishResult batch, int index) {
+		batch.complete(index, null);
 	}
 
 	/**
@@ -248,6 +659,32 @@ public abstract class AbstractClient {
 		}
 	}
 
+	/**
+	 * Set the clock that timestamps published messages, the system clock by
+	 * default. The time is handed to codecs in milliseconds since the epoch. A
+	 * device client also uses it to time the silence of deadbands and to align
+	 * the aggregation windows set after it.
+	 * 
+	 * @param clock the clock
+	 */
+	public void setClock(Clock clock) {
+		if (clock == null) {
+			throw new NullPointerException("Clock can not be null");
+		}
+		this.clock = clock;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * @return The current size of the in-flight window
+	 */
+	public int getInflightWindow() {
+		return inflightWindow.getWindow();
+	}
+
 	/**
 	 * Determine whether this device is currently connected to the IBM Watson
 	 * Internet of Things Platform.
@@ -279,6 +716,62 @@ public abstract class AbstractClient {
 		return "[" + config.getClientId() + "] Connected = " + String.valueOf(isConnected());
 	}
 
+	/**
+	 * Set the callback notified when the outbound queue changes writability or
+	 * discards a message
+	 * 
+	 * @param callback the callback, or null to remove it
+	 */
+	public void setOutboundQueueCallback(OutboundQueueCallback callback) {
+		outboundQueue.setCallback(callback);
+	}
+
+	/**
+	 * @return Number of messages waiting in the outbound queue
+	 */
+	public int getOutboundQueueOccupancy() {
+		return outboundQueue.getOccupancy();
+	}
+
+	/**
+	 * Set the outbound priority of an event (or, for applications, a command).
+	 * <br>
+	 * While the in-flight window is full or the client is disconnected, messages
+	 * in higher lanes are sent first, and messages in lower lanes are discarded
+	 * first when the outbound queue overflows. Publishes default to
+	 * {@link Priority#NORMAL}.
+	 * 
+	 * @param id       object of String which denotes the event or command
+	 * @param priority the lane of the messages, or null for the default
+	 */
+	public void setPriority(String id, Priority priority) {
+		if (priority == null || priority == Priority.NORMAL) {
+			priorities.remove(id);
+		} else {
+			priorities.put(id, priority);
+		}
+	}
+
+	/**
+	 * @param id object of String which denotes the event or command
+	 * @return The outbound priority of the event or command
+	 */
+	public Priority getPriority(String id) {
+		Priority priority = priorities.get(id);
+		return priority == null ? Priority.NORMAL : priority;
+	}
+
+	/**
+	 * Whether producers should keep publishing. This turns false when the
+	 * outbound queue reaches its high watermark, and back to true once it has
+	 * drained to its low watermark.
+	 * 
+	 * @return Whether the outbound queue is writable
+	 */
+	public boolean isWritable() {
+		return outboundQueue.isWritable();
+	}
+
 	public Debug getPahoDebug() {
 		return this.mqttAsyncClient.getDebug();
 	}
@@ -31,4 +31,24 @@ public interface AbstractConfig {
 
 	public boolean isCleanStart();
 
+	public int getOutboundQueueSize();
+
+	public String getOutboundQueuePolicy();
+
+	public int getOutboundQueueTimeout();
+
+	public int getMessageTtl();
+
+	public String getPersistence();
+
+	public String getPersistenceDir();
+
+	public int getPersistenceSyncInterval();
+
+	public int getMaxInflight();
+
+	public int getMinInflight();
+
+	public boolean isAdaptiveInflight();
+
 }
@@ -0,0 +1,149 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+
+/**
+ * The aggregate completion of a batch of events submitted with one of the
+ * publishEvents() methods. <br>
+ *
+ * Each message in the batch completes independently, once the MQTT client
+ * reports that it has been delivered (for QoS 1 and 2) or written to the
+ * network (for QoS 0). The outcome of every message can be inspected by its
+ * position in the batch once {@link #waitForCompletion(long)} returns true.
+ */
+public class BatchPublishResult {
+
+	private final List<OutboundEvent> events;
+	private final Throwable[] failures;
+	private final boolean[] completed;
+
+	private int completedCount = 0;
+	private int failureCount = 0;
+
+	public BatchPublishResult(List<OutboundEvent> events) {
+		this.events = events;
+		this.failures = new Throwable[events.size()];
+		this.completed = new boolean[events.size()];
+	}
+
+	/**
+	 * Listener that records the outcome of the message at the given position
+	 *
+	 * @param index position of the message in the batch
+	 * @return Action listener to pass to the MQTT client publish
+	 */
+	IMqttActionListener listener(final int index) {
+		return new IMqttActionListener() {
+			@Override
+			public void onSuccess(IMqttToken token) {
+				complete(index, null);
+			}
+
+			@Override
+			public void onFailure(IMqttToken token, Throwable cause) {
+				complete(index, cause);
+			}
+		};
+	}
+
+	synchronized void complete(int index, Throwable cause) {
+		if (completed[index]) {
+			return;
+		}
+		completed[index] = true;
+		completedCount++;
+		if (cause != null) {
+			failures[index] = cause;
+			failureCount++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Block until every message in the batch has completed
+	 *
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return Whether the whole batch completed within the timeout
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean waitForCompletion(long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (completedCount < completed.length) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	public synchronized boolean isComplete() {
+		return completedCount == completed.length;
+	}
+
+	public int size() {
+		return completed.length;
+	}
+
+	public synchronized int getSuccessCount() {
+		return completedCount - failureCount;
+	}
+
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @param index position of the message in the batch
+	 * @return Whether the message has completed without error
+	 */
+	public synchronized boolean isSuccess(int index) {
+		return completed[index] && failures[index] == null;
+	}
+
+	/**
+	 * @param index position of the message in the batch
+	 * @return The cause of the failure, or null if the message did not fail
+	 */
+	public synchronized Throwable getFailure(int index) {
+		return failures[index];
+	}
+
+	/**
+	 * @return The events in the batch that have failed so far
+	 */
+	public synchronized List<OutboundEvent> getFailedEvents() {
+		List<OutboundEvent> failed = new ArrayList<OutboundEvent>();
+		for (int i = 0; i < failures.length; i++) {
+			if (failures[i] != null) {
+				failed.add(events.get(i));
+			}
+		}
+		return failed;
+	}
+
+	public List<OutboundEvent> getEvents() {
+		return events;
+	}
+
+	public String toString() {
+		return "BatchPublishResult [size=" + size() + ", succeeded=" + getSuccessCount() + ", failed="
+				+ getFailureCount() + "]";
+	}
+}
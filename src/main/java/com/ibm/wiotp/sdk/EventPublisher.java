@@ -0,0 +1,117 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+
+import com.ibm.wiotp.sdk.codecs.MessageCodec;
+import com.ibm.wiotp.sdk.outbound.Priority;
+
+/**
+ * A publish handle bound to a single topic and codec. <br>
+ *
+ * The topic string and the codec are resolved once, when the handle is
+ * obtained from the client, so each call to {@link #publish(Object)} only has
+ * to encode the data and hand it to the MQTT client. Handles are obtained from
+ * {@link com.ibm.wiotp.sdk.device.DeviceClient#getEventPublisher},
+ * {@link com.ibm.wiotp.sdk.gateway.GatewayClient#getDeviceEventPublisher},
+ * {@link com.ibm.wiotp.sdk.app.ApplicationClient#getEventPublisher} and
+ * {@link com.ibm.wiotp.sdk.app.ApplicationClient#getCommandPublisher}.
+ *
+ * @param <T> the class of the data published through this handle
+ */
+public class EventPublisher<T> {
+
+	private final AbstractClient client;
+	private final String topic;
+	private final MessageCodec<T> codec;
+	private final int qos;
+	private final Priority priority;
+
+	/**
+	 * @param client the client that owns the MQTT connection
+	 * @param topic  the fully resolved MQTT topic
+	 * @param codec  the codec used to encode the data
+	 * @param qos    Quality of Service, in int - can have values 0,1,2
+	 */
+	public EventPublisher(AbstractClient client, String topic, MessageCodec<T> codec, int qos) {
+		this(client, topic, codec, qos, Priority.NORMAL);
+	}
+
+	/**
+	 * @param client   the client that owns the MQTT connection
+	 * @param topic    the fully resolved MQTT topic
+	 * @param codec    the codec used to encode the data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane of the outbound queue messages wait in
+	 */
+	public EventPublisher(AbstractClient client, String topic, MessageCodec<T> codec, int qos, Priority priority) {
+		this.client = client;
+		this.topic = topic;
+		this.codec = codec;
+		this.qos = qos;
+		this.priority = priority;
+	}
+
+	/**
+	 * Publish data to the topic of this handle. Data that the client summarises
+	 * or reports by exception is handled as by the client's own publish methods.
+	 *
+	 * @param data Payload data
+	 * @return Whether the send was successful.
+	 */
+	public boolean publish(T data) {
+		if (data == null) {
+			throw new NullPointerException("Data object for event publish can not be null");
+		}
+		if (client.absorbEvent(topic, data)) {
+			return true;
+		}
+		return client.publishMessage(topic, client.encode(codec, data, client.clock.millis()), qos, priority);
+	}
+
+	/**
+	 * Publish data to the topic of this handle without blocking
+	 *
+	 * @param data Payload data
+	 * @return Future completed when the MQTT client reports the message delivered,
+	 *         or straight away with a null token if the client took the data in
+	 *         rather than publishing it
+	 */
+	public CompletableFuture<IMqttToken> publishAsync(T data) {
+		if (data == null) {
+			throw new NullPointerException("Data object for event publish can not be null");
+		}
+		if (client.absorbEvent(topic, data)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return client.publishMessageAsync(topic, client.encode(codec, data, client.clock.millis()), qos, priority);
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public MessageCodec<T> getCodec() {
+		return codec;
+	}
+
+	public int getQos() {
+		return qos;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+}
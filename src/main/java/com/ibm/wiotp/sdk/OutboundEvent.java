@@ -0,0 +1,81 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+/**
+ * An event waiting to be published as part of a batch. <br>
+ * Devices only need to set the event ID, applications and gateways publishing
+ * on the behalf of a device also set the device type and ID.
+ */
+public class OutboundEvent {
+
+	private String typeId;
+	private String deviceId;
+	private String eventId;
+	private Object data;
+	private int qos;
+
+	/**
+	 * An event published by the client itself
+	 *
+	 * @param eventId object of String which denotes event
+	 * @param data    Payload data
+	 * @param qos     Quality of Service, in int - can have values 0,1,2
+	 */
+	public OutboundEvent(String eventId, Object data, int qos) {
+		this(null, null, eventId, data, qos);
+	}
+
+	/**
+	 * An event published on the behalf of a device
+	 *
+	 * @param typeId   object of String which denotes deviceType
+	 * @param deviceId object of String which denotes deviceId
+	 * @param eventId  object of String which denotes event
+	 * @param data     Payload data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 */
+	public OutboundEvent(String typeId, String deviceId, String eventId, Object data, int qos) {
+		this.typeId = typeId;
+		this.deviceId = deviceId;
+		this.eventId = eventId;
+		this.data = data;
+		this.qos = qos;
+	}
+
+	public String getTypeId() {
+		return typeId;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public String getEventId() {
+		return eventId;
+	}
+
+	public Object getData() {
+		return data;
+	}
+
+	public int getQos() {
+		return qos;
+	}
+
+	public String toString() {
+		if (typeId != null) {
+			return "OutboundEvent [" + typeId + ":" + deviceId + "] " + eventId;
+		} else {
+			return "OutboundEvent " + eventId;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded table of canonical topic segments, so that the device types,
+ * device IDs, event IDs and formats of inbound messages share one String
+ * instance per distinct value rather than one per message. <br>
+ *
+ * The table is a fixed array of slots in pairs, looked up by a hash of the
+ * segment without copying it out of the topic; a segment is only copied when
+ * it is not in either slot of its pair, and then replaces the less recently
+ * added of the two. Lookups take no locks, and the memory used never grows
+ * past the capacity, at the cost of evicting values that share a pair with
+ * newer ones.
+ */
+public class SegmentCache {
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity the number of segments held, rounded up to a power of two
+	 */
+	public SegmentCache(int capacity) {
+		if (capacity < 2 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 2 and 2^30: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.slots = new AtomicReferenceArray<String>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * The canonical instance of part of a string
+	 *
+	 * @param s     the string, usually a topic
+	 * @param start the start of the segment
+	 * @param end   the end of the segment, exclusive
+	 * @return A string equal to s.substring(start, end)
+	 */
+	public String intern(String s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		// Spread the high bits down, as the low bits of short keys vary little
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		int first = h & mask & ~1;
+
+		int length = end - start;
+		String candidate = slots.get(first);
+		if (candidate != null && candidate.length() == length && s.regionMatches(start, candidate, 0, length)) {
+			hits.increment();
+			return candidate;
+		}
+		String other = slots.get(first + 1);
+		if (other != null && other.length() == length && s.regionMatches(start, other, 0, length)) {
+			hits.increment();
+			return other;
+		}
+
+		misses.increment();
+		String segment = s.substring(start, end);
+		// Racing writers may each store their own copy, which only costs a later miss
+		if (candidate != null) {
+			slots.set(first + 1, candidate);
+		}
+		slots.set(first, segment);
+		return segment;
+	}
+
+	/**
+	 * The canonical instance of a string
+	 *
+	 * @param s the string, or null
+	 * @return A string equal to s, or null
+	 */
+	public String intern(String s) {
+		return s == null ? null : intern(s, 0, s.length());
+	}
+
+	/**
+	 * @return The number of segments found in the table
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of segments copied into the table
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The fraction of lookups found in the table, 0 before any lookup
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return The number of segments the table holds
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+}
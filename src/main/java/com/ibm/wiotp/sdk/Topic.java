@@ -0,0 +1,268 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+/**
+ * An MQTT topic of the Watson IoT Platform, classified by kind. <br>
+ *
+ * {@link #parse(String)} makes a single pass over the topic, matching the
+ * fixed segments in place and recording where each variable segment starts and
+ * ends; a variable segment is only copied out of the topic when its getter is
+ * called. Variable segments must be non-empty and can not contain '/'.
+ *
+ * <p>
+ * Once an application client has been created, segments are copied through a
+ * {@link SegmentCache} shared by all topics, so the IDs of messages from the
+ * same device are the same String instance. Device and gateway clients, which
+ * only parse their own command topics, do not allocate the cache. The cache can
+ * be set, replaced or turned off with {@link #setSegmentCache(SegmentCache)}.
+ * </p>
+ */
+public final class Topic {
+
+	public enum Kind {
+		/** iot-2/type/{typeId}/id/{deviceId}/evt/{eventId}/fmt/{format} */
+		DEVICE_EVENT,
+		/** iot-2/type/{typeId}/id/{deviceId}/cmd/{commandId}/fmt/{format} */
+		DEVICE_COMMAND,
+		/** iot-2/type/{typeId}/id/{deviceId}/mon */
+		DEVICE_STATUS,
+		/** iot-2/app/{appId}/mon */
+		APP_STATUS,
+		/** iot-2/evt/{eventId}/fmt/{format}, as published by a device */
+		EVENT,
+		/** iot-2/cmd/{commandId}/fmt/{format}, as received by a device */
+		COMMAND
+	}
+
+	private static final String PREFIX = "iot-2/";
+	private static final int DEFAULT_SEGMENT_CACHE_SIZE = 1 << 18;
+
+	private static volatile SegmentCache segments = null;
+	/* Whether the cache has been set explicitly, which the default never overrides */
+	private static boolean segmentCacheSet = false;
+
+	private final String topic;
+	private final Kind kind;
+	/* Bounds of the type (or application) ID, device ID, event (or command) ID and format, -1 when absent */
+	private final int typeStart;
+	private final int typeEnd;
+	private final int deviceStart;
+	private final int deviceEnd;
+	private final int idStart;
+	private final int idEnd;
+	private final int formatStart;
+
+	private Topic(String topic, Kind kind, int typeStart, int typeEnd, int deviceStart, int deviceEnd, int idStart,
+			int idEnd, int formatStart) {
+		this.topic = topic;
+		this.kind = kind;
+		this.typeStart = typeStart;
+		this.typeEnd = typeEnd;
+		this.deviceStart = deviceStart;
+		this.deviceEnd = deviceEnd;
+		this.idStart = idStart;
+		this.idEnd = idEnd;
+		this.formatStart = formatStart;
+	}
+
+	/**
+	 * Classify a topic
+	 *
+	 * @param topic the MQTT topic
+	 * @return The parsed topic, or null if it is not a topic of the Watson IoT
+	 *         Platform that the clients handle
+	 */
+	public static Topic parse(String topic) {
+		if (!topic.startsWith(PREFIX)) {
+			return null;
+		}
+		int start = PREFIX.length();
+
+		if (topic.startsWith("type/", start)) {
+			int typeStart = start + 5;
+			int typeEnd = segmentEnd(topic, typeStart);
+			if (typeEnd < 0 || !topic.startsWith("/id/", typeEnd)) {
+				return null;
+			}
+			int deviceStart = typeEnd + 4;
+			int deviceEnd = segmentEnd(topic, deviceStart);
+			if (deviceEnd < 0) {
+				return null;
+			}
+			if (topic.length() == deviceEnd + 4 && topic.startsWith("/mon", deviceEnd)) {
+				return new Topic(topic, Kind.DEVICE_STATUS, typeStart, typeEnd, deviceStart, deviceEnd, -1, -1, -1);
+			}
+			Kind kind;
+			if (topic.startsWith("/evt/", deviceEnd)) {
+				kind = Kind.DEVICE_EVENT;
+			} else if (topic.startsWith("/cmd/", deviceEnd)) {
+				kind = Kind.DEVICE_COMMAND;
+			} else {
+				return null;
+			}
+			int idStart = deviceEnd + 5;
+			int idEnd = segmentEnd(topic, idStart);
+			int formatStart = formatStart(topic, idEnd);
+			if (formatStart < 0) {
+				return null;
+			}
+			return new Topic(topic, kind, typeStart, typeEnd, deviceStart, deviceEnd, idStart, idEnd, formatStart);
+		}
+
+		if (topic.startsWith("app/", start)) {
+			int appStart = start + 4;
+			int appEnd = segmentEnd(topic, appStart);
+			if (appEnd < 0 || topic.length() != appEnd + 4 || !topic.startsWith("/mon", appEnd)) {
+				return null;
+			}
+			return new Topic(topic, Kind.APP_STATUS, appStart, appEnd, -1, -1, -1, -1, -1);
+		}
+
+		Kind kind;
+		if (topic.startsWith("evt/", start)) {
+			kind = Kind.EVENT;
+		} else if (topic.startsWith("cmd/", start)) {
+			kind = Kind.COMMAND;
+		} else {
+			return null;
+		}
+		int idStart = start + 4;
+		int idEnd = segmentEnd(topic, idStart);
+		int formatStart = formatStart(topic, idEnd);
+		if (formatStart < 0) {
+			return null;
+		}
+		return new Topic(topic, kind, -1, -1, -1, -1, idStart, idEnd, formatStart);
+	}
+
+	/*
+	 * The index of the '/' that ends a non-empty segment, or -1
+	 */
+	private static int segmentEnd(String topic, int start) {
+		int end = topic.indexOf('/', start);
+		return end > start ? end : -1;
+	}
+
+	/*
+	 * The start of the format following "/fmt/" at the end of a topic, or -1
+	 */
+	private static int formatStart(String topic, int idEnd) {
+		if (idEnd < 0 || !topic.startsWith("/fmt/", idEnd)) {
+			return -1;
+		}
+		int formatStart = idEnd + 5;
+		if (formatStart == topic.length() || topic.indexOf('/', formatStart) >= 0) {
+			return -1;
+		}
+		return formatStart;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The device type, or null if the topic has none
+	 */
+	public String getTypeId() {
+		return kind == Kind.APP_STATUS ? null : segment(typeStart, typeEnd);
+	}
+
+	/**
+	 * @return The device ID, or null if the topic has none
+	 */
+	public String getDeviceId() {
+		return segment(deviceStart, deviceEnd);
+	}
+
+	/**
+	 * @return The application ID of an application status topic, otherwise null
+	 */
+	public String getAppId() {
+		return kind == Kind.APP_STATUS ? segment(typeStart, typeEnd) : null;
+	}
+
+	/**
+	 * @return The event or command ID, or null if the topic has none
+	 */
+	public String getId() {
+		return segment(idStart, idEnd);
+	}
+
+	/**
+	 * @return The format, or null if the topic has none
+	 */
+	public String getFormat() {
+		return segment(formatStart, topic.length());
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	/*
+	 * The bounds of the topic without the "iot-2/" prefix and "/fmt/" suffix,
+	 * which is what topic filters are matched against
+	 */
+	int pathStart() {
+		return PREFIX.length();
+	}
+
+	int pathEnd() {
+		return formatStart < 0 ? topic.length() : formatStart - 5;
+	}
+
+	private String segment(int start, int end) {
+		if (start < 0) {
+			return null;
+		}
+		SegmentCache cache = segments;
+		return cache == null ? topic.substring(start, end) : cache.intern(topic, start, end);
+	}
+
+	/**
+	 * @return The cache the segments of topics are copied through, or null if
+	 *         they are not cached
+	 */
+	public static SegmentCache getSegmentCache() {
+		return segments;
+	}
+
+	/**
+	 * Replace the cache the segments of topics are copied through, e.g. with a
+	 * larger one when there are many more than 100,000 devices
+	 *
+	 * @param cache the new cache, or null to copy every segment
+	 */
+	public static synchronized void setSegmentCache(SegmentCache cache) {
+		segments = cache;
+		segmentCacheSet = true;
+	}
+
+	/**
+	 * Create the default cache of 2^18 segments, the first time this is called
+	 * and unless a cache has been set with
+	 * {@link #setSegmentCache(SegmentCache)}
+	 */
+	public static synchronized void useDefaultSegmentCache() {
+		if (!segmentCacheSet) {
+			segments = new SegmentCache(DEFAULT_SEGMENT_CACHE_SIZE);
+			segmentCacheSet = true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return topic;
+	}
+
+}
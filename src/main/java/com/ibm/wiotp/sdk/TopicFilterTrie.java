@@ -0,0 +1,324 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values registered by MQTT-style topic filter, held in a trie with one level
+ * per topic segment. <br>
+ *
+ * A filter segment of "+" matches any single segment and a final "#" matches
+ * any number of remaining segments, including none. Matching a topic walks
+ * the trie once per segment, following the literal child and any wildcard
+ * children, so it takes time proportional to the depth of the topic rather
+ * than to the number of registered filters. Literal children are looked up by
+ * a hash of the segment computed in place, so matching does not copy the
+ * segments out of the topic. Registration is synchronized, matching is not and
+ * can run alongside it. Removing the last value of a filter also removes the
+ * nodes that no other filter uses.
+ *
+ * @param <V> the class of the registered values
+ */
+public class TopicFilterTrie<V> {
+
+	private final Node<V> root = new Node<V>(null, null);
+	private volatile int size = 0;
+	private int nodes = 1;
+
+	/**
+	 * Register a value under a topic filter
+	 *
+	 * @param filter the topic filter, e.g. "type/pump/id/+/evt/alarm"
+	 * @param value  the value to register
+	 * @throws IllegalArgumentException If the filter is not valid
+	 */
+	public synchronized void add(String filter, V value) {
+		validate(filter);
+		Node<V> node = root;
+		int start = 0;
+		while (true) {
+			int end = filter.indexOf('/', start);
+			int segmentEnd = end < 0 ? filter.length() : end;
+			Node<V> child = node.find(filter, start, segmentEnd);
+			if (child == null) {
+				child = node.add(filter.substring(start, segmentEnd));
+				nodes++;
+			}
+			node = child;
+			if (end < 0) {
+				break;
+			}
+			start = end + 1;
+		}
+		node.values.add(value);
+		size++;
+	}
+
+	/**
+	 * Remove a value registered under a topic filter
+	 *
+	 * @param filter the topic filter the value was registered under
+	 * @param value  the value to remove
+	 * @return Whether the value was registered
+	 */
+	public synchronized boolean remove(String filter, V value) {
+		Node<V> node = root;
+		int start = 0;
+		while (node != null) {
+			int end = filter.indexOf('/', start);
+			node = node.find(filter, start, end < 0 ? filter.length() : end);
+			if (end < 0) {
+				break;
+			}
+			start = end + 1;
+		}
+		if (node == null || !node.values.remove(value)) {
+			return false;
+		}
+		size--;
+		// Prune the nodes left without values or children
+		while (node != root && node.values.isEmpty() && node.isLeaf()) {
+			node.parent.remove(node);
+			nodes--;
+			node = node.parent;
+		}
+		return true;
+	}
+
+	/**
+	 * Collect the values of every filter that matches a topic
+	 *
+	 * @param topic   the topic, with segments separated by '/'
+	 * @param matches the collection to add the matching values to
+	 */
+	public void match(String topic, Collection<? super V> matches) {
+		match(topic, 0, topic.length(), matches);
+	}
+
+	/**
+	 * Collect the values of every filter that matches a topic of the Watson IoT
+	 * Platform. Filters are matched against the topic without its "iot-2/"
+	 * prefix and "/fmt/{format}" suffix, e.g. "type/pump/id/p1/evt/alarm".
+	 *
+	 * @param topic   the parsed topic
+	 * @param matches the collection to add the matching values to
+	 */
+	public void match(Topic topic, Collection<? super V> matches) {
+		match(topic.getTopic(), topic.pathStart(), topic.pathEnd(), matches);
+	}
+
+	/**
+	 * Collect the values of every filter that matches part of a topic
+	 *
+	 * @param topic   the string holding the topic
+	 * @param start   the index of the first character of the topic
+	 * @param end     the index after the last character of the topic
+	 * @param matches the collection to add the matching values to
+	 */
+	public void match(String topic, int start, int end, Collection<? super V> matches) {
+		if (size > 0) {
+			match(root, topic, start, end, matches);
+		}
+	}
+
+	private static <V> void match(Node<V> node, String topic, int start, int end, Collection<? super V> matches) {
+		Node<V> hash = node.hash;
+		if (hash != null) {
+			matches.addAll(hash.values);
+		}
+		if (start > end) {
+			// Every segment has been consumed
+			matches.addAll(node.values);
+			return;
+		}
+
+		int slash = topic.indexOf('/', start);
+		int segmentEnd = slash < 0 || slash > end ? end : slash;
+		Node<V> literal = node.literal(topic, start, segmentEnd);
+		if (literal != null) {
+			match(literal, topic, segmentEnd + 1, end, matches);
+		}
+		Node<V> plus = node.plus;
+		if (plus != null) {
+			match(plus, topic, segmentEnd + 1, end, matches);
+		}
+	}
+
+	/**
+	 * @return The number of registered values
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return The number of nodes in the trie, including the root
+	 */
+	public synchronized int nodeCount() {
+		return nodes;
+	}
+
+	private static void validate(String filter) {
+		String[] segments = filter.split("/", -1);
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			if ((segment.contains("+") || segment.contains("#")) && segment.length() != 1) {
+				throw new IllegalArgumentException("Wildcards must be a whole segment of topic filter: " + filter);
+			}
+			if (segment.equals("#") && i != segments.length - 1) {
+				throw new IllegalArgumentException("'#' must be the last segment of topic filter: " + filter);
+			}
+		}
+	}
+
+	/*
+	 * The same hash as String.hashCode(), of part of a string
+	 */
+	private static int hash(String s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h;
+	}
+
+	private static int spread(int h) {
+		return h ^ h >>> 16;
+	}
+
+	/*
+	 * A node of the trie. The wildcard children are held in their own fields and
+	 * the literal children in an open-addressed table, which is at most half full
+	 * so every probe ends at an empty slot. Children are only added and removed
+	 * under the lock of the trie; a slot is filled in place, while removing a
+	 * child or growing the table publishes a new one, so lookups never see a
+	 * partly built table.
+	 */
+	private static class Node<V> {
+		private final Node<V> parent;
+		private final String segment;
+		private final int segmentHash;
+		private final List<V> values = new CopyOnWriteArrayList<V>();
+		private volatile Node<V> plus;
+		private volatile Node<V> hash;
+		private volatile AtomicReferenceArray<Node<V>> children;
+		private int childCount;
+
+		Node(Node<V> parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+			this.segmentHash = segment == null ? 0 : segment.hashCode();
+		}
+
+		Node<V> find(String filter, int start, int end) {
+			if (end - start == 1) {
+				char c = filter.charAt(start);
+				if (c == '+') {
+					return plus;
+				} else if (c == '#') {
+					return hash;
+				}
+			}
+			return literal(filter, start, end);
+		}
+
+		Node<V> literal(String topic, int start, int end) {
+			AtomicReferenceArray<Node<V>> table = children;
+			if (table == null) {
+				return null;
+			}
+			int length = end - start;
+			int h = hash(topic, start, end);
+			int mask = table.length() - 1;
+			for (int i = spread(h) & mask;; i = (i + 1) & mask) {
+				Node<V> child = table.get(i);
+				if (child == null) {
+					return null;
+				}
+				if (child.segmentHash == h && child.segment.length() == length
+						&& topic.regionMatches(start, child.segment, 0, length)) {
+					return child;
+				}
+			}
+		}
+
+		Node<V> add(String segment) {
+			Node<V> child = new Node<V>(this, segment);
+			if (segment.equals("+")) {
+				plus = child;
+			} else if (segment.equals("#")) {
+				hash = child;
+			} else {
+				AtomicReferenceArray<Node<V>> table = children;
+				if (table == null || (childCount + 1) * 2 > table.length()) {
+					// Fill the new table before publishing it
+					AtomicReferenceArray<Node<V>> grown = rebuild(table == null ? 2 : table.length() * 2, null);
+					insert(grown, child);
+					children = grown;
+				} else {
+					insert(table, child);
+				}
+				childCount++;
+			}
+			return child;
+		}
+
+		void remove(Node<V> child) {
+			if (child == plus) {
+				plus = null;
+			} else if (child == hash) {
+				hash = null;
+			} else {
+				childCount--;
+				children = childCount == 0 ? null : rebuild(children.length(), child);
+			}
+		}
+
+		boolean isLeaf() {
+			return childCount == 0 && plus == null && hash == null;
+		}
+
+		/*
+		 * A table of the given capacity holding every literal child except one
+		 */
+		private AtomicReferenceArray<Node<V>> rebuild(int capacity, Node<V> except) {
+			AtomicReferenceArray<Node<V>> table = new AtomicReferenceArray<Node<V>>(capacity);
+			AtomicReferenceArray<Node<V>> old = children;
+			if (old != null) {
+				for (int i = 0; i < old.length(); i++) {
+					Node<V> child = old.get(i);
+					if (child != null && child != except) {
+						insert(table, child);
+					}
+				}
+			}
+			return table;
+		}
+
+		private static <V> void insert(AtomicReferenceArray<Node<V>> table, Node<V> child) {
+			int mask = table.length() - 1;
+			int i = spread(child.segmentHash) & mask;
+			while (table.get(i) != null) {
+				i = (i + 1) & mask;
+			}
+			table.set(i, child);
+		}
+	}
+
+}
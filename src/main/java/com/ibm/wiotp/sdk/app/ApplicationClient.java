@@ -11,25 +11,40 @@
 package com.ibm.wiotp.sdk.app;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.joda.time.DateTime;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ibm.wiotp.sdk.AbstractClient;
-import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.EventPublisher;
+import com.ibm.wiotp.sdk.OutboundEvent;
+import com.ibm.wiotp.sdk.SegmentCache;
+import com.ibm.wiotp.sdk.Topic;
+import com.ibm.wiotp.sdk.TopicFilterTrie;
 import com.ibm.wiotp.sdk.app.callbacks.CommandCallback;
+import com.ibm.wiotp.sdk.app.callbacks.EventBatchCallback;
+import com.ibm.wiotp.sdk.app.callbacks.EventBatcher;
 import com.ibm.wiotp.sdk.app.callbacks.EventCallback;
 import com.ibm.wiotp.sdk.app.callbacks.StatusCallback;
 import com.ibm.wiotp.sdk.app.config.ApplicationConfig;
@@ -37,7 +52,17 @@ import com.ibm.wiotp.sdk.app.messages.ApplicationStatus;
 import com.ibm.wiotp.sdk.app.messages.Command;
 import com.ibm.wiotp.sdk.app.messages.DeviceStatus;
 import com.ibm.wiotp.sdk.app.messages.Event;
+import com.ibm.wiotp.sdk.app.messages.Status;
 import com.ibm.wiotp.sdk.codecs.MessageCodec;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+import com.ibm.wiotp.sdk.inbound.BufferedPublisher;
+import com.ibm.wiotp.sdk.inbound.Dispatcher;
+import com.ibm.wiotp.sdk.inbound.DuplicateFilter;
+import com.ibm.wiotp.sdk.inbound.KeyedDispatcher;
+import com.ibm.wiotp.sdk.inbound.StripedDispatcher;
+import com.ibm.wiotp.sdk.inbound.VirtualThreads;
+import com.ibm.wiotp.sdk.outbound.EventPacker;
+import com.ibm.wiotp.sdk.outbound.Priority;
 
 /**
  * A client, used by application, that handles connections with the IBM Watson
@@ -49,10 +74,10 @@ import com.ibm.wiotp.sdk.codecs.MessageCodec;
 public class ApplicationClient extends AbstractClient implements MqttCallbackExtended {
 	private static final Logger LOG = LoggerFactory.getLogger(ApplicationClient.class);
 
-	private static final Pattern DEVICE_EVENT_PATTERN = Pattern.compile("iot-2/type/(.+)/id/(.+)/evt/(.+)/fmt/(.+)");
-	private static final Pattern DEVICE_STATUS_PATTERN = Pattern.compile("iot-2/type/(.+)/id/(.+)/mon");
-	private static final Pattern APP_STATUS_PATTERN = Pattern.compile("iot-2/app/(.+)/mon");
-	private static final Pattern DEVICE_COMMAND_PATTERN = Pattern.compile("iot-2/type/(.+)/id/(.+)/cmd/(.+)/fmt/(.+)");
+	private static final long DISPATCH_SHUTDOWN_TIMEOUT = 10000;
+
+	/* How long stream subscribers with a full buffer are waited for by default, well within the keep-alive interval */
+	private static final long DEFAULT_STREAM_MAX_WAIT = 1000;
 
 	private StatusCallback statusCallback = null;
 
@@ -63,10 +88,36 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 	@SuppressWarnings("rawtypes")
 	private Map<String, MessageCodec> messageCodecsByFormat = new HashMap<String, MessageCodec>();
 
+	/* Read by the dispatch threads while callbacks may still be registered */
+	@SuppressWarnings("rawtypes")
+	private Map<Class, CommandCallback> commandCallbacks = new ConcurrentHashMap<Class, CommandCallback>();
+	@SuppressWarnings("rawtypes")
+	private Map<Class, EventCallback> eventCallbacks = new ConcurrentHashMap<Class, EventCallback>();
+
+	/* Callbacks registered by topic filter, which take precedence over those registered by class */
 	@SuppressWarnings("rawtypes")
-	private Map<Class, CommandCallback> commandCallbacks = new HashMap<Class, CommandCallback>();
+	private final TopicFilterTrie<CommandCallback> commandFilters = new TopicFilterTrie<CommandCallback>();
 	@SuppressWarnings("rawtypes")
-	private Map<Class, EventCallback> eventCallbacks = new HashMap<Class, EventCallback>();
+	private final TopicFilterTrie<EventCallback> eventFilters = new TopicFilterTrie<EventCallback>();
+
+	/*
+	 * Device types of the gateways whose packed events are unpacked, as each
+	 * packed event names its own device and is only trusted from a known gateway
+	 */
+	private final Set<String> unpackingTypes = new CopyOnWriteArraySet<String>();
+
+	/* Processes inbound messages off the MQTT callback thread, null to process them on it */
+	private final Dispatcher dispatcher;
+
+	/* Suppresses QoS 1 and 2 redeliveries of events and commands, null when not configured */
+	private final DuplicateFilter duplicateFilter;
+
+	/* Publishers of inbound messages, completed when the client is closed */
+	private final List<BufferedPublisher<?>> streams = new CopyOnWriteArrayList<BufferedPublisher<?>>();
+
+	/* Batching event callbacks, flushed when the client is closed, and the timer that ends their linger */
+	private final List<EventBatcher<?>> batchers = new CopyOnWriteArrayList<EventBatcher<?>>();
+	private Timer batchTimer = null;
 
 	public ApplicationClient() throws Exception {
 		this(ApplicationConfig.generateFromEnv());
@@ -86,6 +137,24 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 	 */
 	public ApplicationClient(ApplicationConfig config) throws Exception {
 		super(config);
+		// Applications see the same device IDs over and over, so share their strings
+		Topic.useDefaultSegmentCache();
+		if (config.isDispatchVirtualThreads() && VirtualThreads.isAvailable()) {
+			dispatcher = new KeyedDispatcher(VirtualThreads.factory(), config.getDispatchQueueSize());
+		} else if (config.getDispatchThreads() > 0) {
+			dispatcher = new StripedDispatcher(config.getDispatchThreads(), config.getDispatchQueueSize());
+		} else {
+			dispatcher = null;
+		}
+		if (config.isDispatchVirtualThreads() && !VirtualThreads.isAvailable()) {
+			LOG.warn("Virtual threads need Java 21 or later, not dispatching on them");
+		}
+		if (config.getDedupWindow() > 0) {
+			duplicateFilter = new DuplicateFilter(config.getDedupWindow(), config.getDedupCapacity(),
+					config.getDedupFalsePositiveRate(), config.getDedupSequenceField());
+		} else {
+			duplicateFilter = null;
+		}
 		configureMqttClient(this);
 	}
 
@@ -102,8 +171,26 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 	 * 
 	 * @return Whether the send was successful.
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean publishEvent(String typeId, String deviceId, String eventId, Object data, int qos) {
+		return publishEvent(typeId, deviceId, eventId, data, qos, getPriority(eventId));
+	}
+
+	/**
+	 * Publish event, on the behalf of a device, to the IBM Watson IoT Platform,
+	 * in the given lane of the outbound queue.
+	 * 
+	 * @param typeId   object of String which denotes deviceType
+	 * @param deviceId object of String which denotes deviceId
+	 * @param eventId  object of String which denotes event
+	 * @param data     Payload data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane of the outbound queue
+	 * 
+	 * @return Whether the send was successful.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean publishEvent(String typeId, String deviceId, String eventId, Object data, int qos,
+			Priority priority) {
 		if (data == null) {
 			throw new NullPointerException("Data object for event publish can not be null");
 		}
@@ -118,26 +205,119 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 			return false;
 		}
 
-		byte[] payload = codec.encode(data, new DateTime());
-		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/"
-				+ codec.getMessageFormat();
-		LOG.debug("Publishing event to " + topic);
+		byte[] payload = encode(codec, data, clock.millis());
+		return publishMessage("iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/"
+				+ codec.getMessageFormat(), payload, qos, priority);
+	}
 
-		MqttMessage msg = new MqttMessage(payload);
-		msg.setQos(qos);
-		msg.setRetained(false);
+	public boolean publishEvent(String typeId, String deviceId, String eventId, Object data) {
+		return publishEvent(typeId, deviceId, eventId, data, 0);
+	}
 
-		try {
-			mqttAsyncClient.publish(topic, msg);
-		} catch (MqttException e) {
-			e.printStackTrace();
-			return false;
+	/**
+	 * Publish event, on the behalf of a device, to the IBM Watson IoT Platform
+	 * without blocking. <br>
+	 * The returned future completes once the MQTT client reports the outcome of
+	 * the publish, for QoS 1 and 2 that is when the broker has acknowledged it.
+	 * 
+	 * @param typeId   object of String which denotes deviceType
+	 * @param deviceId object of String which denotes deviceId
+	 * @param eventId  object of String which denotes event
+	 * @param data     Payload data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * 
+	 * @return Future completed with the delivery token, or completed
+	 *         exceptionally if the event could not be published
+	 */
+	public CompletableFuture<IMqttToken> publishEventAsync(String typeId, String deviceId, String eventId,
+			Object data, int qos) {
+		return publishAsync(typeId, deviceId, "/evt/", eventId, data, qos);
+	}
+
+	public CompletableFuture<IMqttToken> publishEventAsync(String typeId, String deviceId, String eventId,
+			Object data) {
+		return publishEventAsync(typeId, deviceId, eventId, data, 0);
+	}
+
+	/**
+	 * Publish command to the IBM Watson IoT Platform without blocking. <br>
+	 * The returned future completes once the MQTT client reports the outcome of
+	 * the publish, for QoS 1 and 2 that is when the broker has acknowledged it.
+	 * 
+	 * @param typeId    object of String which denotes deviceType
+	 * @param deviceId  object of String which denotes deviceId
+	 * @param commandId object of String which denotes command
+	 * @param data      Payload data
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * 
+	 * @return Future completed with the delivery token, or completed
+	 *         exceptionally if the command could not be published
+	 */
+	public CompletableFuture<IMqttToken> publishCommandAsync(String typeId, String deviceId, String commandId,
+			Object data, int qos) {
+		return publishAsync(typeId, deviceId, "/cmd/", commandId, data, qos);
+	}
+
+	public CompletableFuture<IMqttToken> publishCommandAsync(String typeId, String deviceId, String commandId,
+			Object data) {
+		return publishCommandAsync(typeId, deviceId, commandId, data, 1);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private CompletableFuture<IMqttToken> publishAsync(String typeId, String deviceId, String kind, String id,
+			Object data, int qos) {
+		if (data == null) {
+			throw new NullPointerException("Data object for event publish can not be null");
+		}
+
+		// Find the codec for the data class
+		MessageCodec codec = messageCodecs.get(data.getClass());
+
+		// Check that a codec is registered
+		if (codec == null) {
+			LOG.warn("Unable to encode data of class " + data.getClass().getName());
+			CompletableFuture<IMqttToken> future = new CompletableFuture<IMqttToken>();
+			future.completeExceptionally(
+					new IllegalArgumentException("Unable to encode data of class " + data.getClass().getName()));
+			return future;
 		}
-		return true;
+
+		byte[] payload = encode(codec, data, clock.millis());
+		return publishMessageAsync("iot-2/type/" + typeId + "/id/" + deviceId + kind + id + "/fmt/"
+				+ codec.getMessageFormat(), payload, qos, getPriority(id));
 	}
 
-	public boolean publishEvent(String typeId, String deviceId, String eventId, Object data) {
-		return publishEvent(typeId, deviceId, eventId, data, 0);
+	/**
+	 * Publish a batch of events, on the behalf of devices, to the IBM Watson IoT
+	 * Platform. <br>
+	 * The whole batch is encoded before any of it is submitted, and the messages
+	 * are then handed to the MQTT client back-to-back. Events that cannot be
+	 * encoded are reported as failures in the returned result.
+	 * 
+	 * @param events the events to publish, each must have a type and device ID
+	 * @return The aggregate completion of the batch
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BatchPublishResult publishEvents(Collection<OutboundEvent> events) {
+		BatchPublishResult batch = new BatchPublishResult(new ArrayList<OutboundEvent>(events));
+		String[] topics = new String[batch.size()];
+		byte[][] payloads = new byte[batch.size()][];
+		long now = clock.millis();
+
+		int i = 0;
+		for (OutboundEvent event : batch.getEvents()) {
+			MessageCodec codec = event.getData() == null ? null : messageCodecs.get(event.getData().getClass());
+			if (codec == null) {
+				failBatchEntry(batch, i++, new IllegalArgumentException("Unable to encode " + event));
+				continue;
+			}
+			payloads[i] = encode(codec, event.getData(), now);
+			topics[i++] = "iot-2/type/" + event.getTypeId() + "/id/" + event.getDeviceId() + "/evt/"
+					+ event.getEventId() + "/fmt/" + codec.getMessageFormat();
+		}
+
+		submitBatch(batch, topics, payloads);
+		return batch;
 	}
 
 	/**
@@ -152,8 +332,26 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 	 * 
 	 * @return Whether the send was successful.
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean publishCommand(String typeId, String deviceId, String commandId, Object data, int qos) {
+		return publishCommand(typeId, deviceId, commandId, data, qos, getPriority(commandId));
+	}
+
+	/**
+	 * Publish command to the IBM Watson IoT Platform, in the given lane of the
+	 * outbound queue.
+	 * 
+	 * @param typeId    object of String which denotes deviceType
+	 * @param deviceId  object of String which denotes deviceId
+	 * @param commandId object of String which denotes command
+	 * @param data      Payload data
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * @param priority  the lane of the outbound queue
+	 * 
+	 * @return Whether the send was successful.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean publishCommand(String typeId, String deviceId, String commandId, Object data, int qos,
+			Priority priority) {
 		if (data == null) {
 			throw new NullPointerException("Data object for event publish can not be null");
 		}
@@ -168,26 +366,65 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 			return false;
 		}
 
-		byte[] payload = codec.encode(data, new DateTime());
-		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/cmd/" + commandId + "/fmt/"
-				+ codec.getMessageFormat();
-		LOG.debug("Publishing command to " + topic);
+		byte[] payload = encode(codec, data, clock.millis());
+		return publishMessage("iot-2/type/" + typeId + "/id/" + deviceId + "/cmd/" + commandId + "/fmt/"
+				+ codec.getMessageFormat(), payload, qos, priority);
+	}
 
-		MqttMessage msg = new MqttMessage(payload);
-		msg.setQos(qos);
-		msg.setRetained(false);
+	public boolean publishCommand(String typeId, String deviceId, String commandId, Object data) {
+		return publishCommand(typeId, deviceId, commandId, data, 1);
+	}
 
-		try {
-			mqttAsyncClient.publish(topic, msg);
-		} catch (MqttException e) {
-			e.printStackTrace();
-			return false;
+	/**
+	 * Obtain a publish handle for events, on the behalf of a device. <br>
+	 * The topic and codec are resolved once, so repeated publishes through the
+	 * handle avoid the per-call lookup done by publishEvent().
+	 * 
+	 * @param typeId    object of String which denotes deviceType
+	 * @param deviceId  object of String which denotes deviceId
+	 * @param eventId   object of String which denotes event
+	 * @param dataClass the class of the data that will be published
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * @param <T>       the class of the data that will be published
+	 * @return The publish handle, or null if no codec is registered for the class
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> EventPublisher<T> getEventPublisher(String typeId, String deviceId, String eventId,
+			Class<T> dataClass, int qos) {
+		MessageCodec<T> codec = messageCodecs.get(dataClass);
+		if (codec == null) {
+			LOG.warn("Unable to encode event data of class " + dataClass.getName());
+			return null;
 		}
-		return true;
+		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/"
+				+ codec.getMessageFormat();
+		return new EventPublisher<T>(this, topic, codec, qos, getPriority(eventId));
 	}
 
-	public boolean publishCommand(String typeId, String deviceId, String commandId, Object data) {
-		return publishCommand(typeId, deviceId, commandId, data, 1);
+	/**
+	 * Obtain a publish handle for commands. <br>
+	 * The topic and codec are resolved once, so repeated publishes through the
+	 * handle avoid the per-call lookup done by publishCommand().
+	 * 
+	 * @param typeId    object of String which denotes deviceType
+	 * @param deviceId  object of String which denotes deviceId
+	 * @param commandId object of String which denotes command
+	 * @param dataClass the class of the data that will be published
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * @param <T>       the class of the data that will be published
+	 * @return The publish handle, or null if no codec is registered for the class
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> EventPublisher<T> getCommandPublisher(String typeId, String deviceId, String commandId,
+			Class<T> dataClass, int qos) {
+		MessageCodec<T> codec = messageCodecs.get(dataClass);
+		if (codec == null) {
+			LOG.warn("Unable to encode command data of class " + dataClass.getName());
+			return null;
+		}
+		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/cmd/" + commandId + "/fmt/"
+				+ codec.getMessageFormat();
+		return new EventPublisher<T>(this, topic, codec, qos, getPriority(commandId));
 	}
 
 	/**
@@ -408,54 +645,161 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 			}
 
 		}
+		resumeOutbound();
 	}
 
+	/**
+	 * A slot in the in-flight window has been freed, so send anything that is
+	 * waiting in the outbound queue
+	 */
 	public void deliveryComplete(IMqttDeliveryToken token) {
+		drainOutboundQueue();
 	}
 
+	/*
+	 * Decode an event and hand it to the callbacks registered for a topic filter
+	 * that matches it, or if there are none to the callback registered for its
+	 * class. The parsed topic is null for events unpacked from a gateway pack,
+	 * and the gateway null for events published on their own.
+	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public void messageArrived(String topic, MqttMessage msg) {
-		if (!eventCallbacks.isEmpty()) {
-			/*
-			 * Only check whether the message is a device event if a callback has been
-			 * defined for events, otherwise it is a waste of time as without a callback
-			 * there is nothing to process the generated event.
-			 */
-			Matcher matcher = DEVICE_EVENT_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String type = matcher.group(1);
-				String id = matcher.group(2);
-				String event = matcher.group(3);
-				String format = matcher.group(4);
-
-				MessageCodec codec = messageCodecsByFormat.get(format);
-				if (codec == null) {
-					LOG.warn("Unable to decode event of format " + format);
-					// We don't throw an exception, as doing so will cause the underlying MQTT Paho
-					// client to disconnect.
-					return;
-				}
-				MessageInterface message = codec.decode(msg);
-				Event evt = new Event(type, id, event, format, message);
+	private void processEvent(Topic parsed, String type, String id, String event, String format, MqttMessage msg,
+			Topic gateway) {
+		MessageCodec codec = messageCodecsByFormat.get(format);
+		if (codec == null) {
+			LOG.warn("Unable to decode event of format " + format);
+			// We don't throw an exception, as doing so will cause the underlying MQTT Paho
+			// client to disconnect.
+			return;
+		}
+		Event evt = gateway == null ? new Event(type, id, event, format, codec, msg)
+				: new Event(type, id, event, format, codec, msg, gateway.getTypeId(), gateway.getDeviceId());
 
-				LOG.debug("Event received: " + evt.toString());
+		LOG.debug("Event received: " + evt.toString());
 
-				EventCallback callback = eventCallbacks.get(codec.getMessageClass());
-				if (callback != null) {
-					callback.processEvent(evt);
-				}
+		if (!eventFilters.isEmpty()) {
+			List<EventCallback> matches = new ArrayList<EventCallback>();
+			if (parsed != null) {
+				eventFilters.match(parsed, matches);
+			} else {
+				eventFilters.match("type/" + type + "/id/" + id + "/evt/" + event, matches);
+			}
+			if (dispatch(matches, codec.getMessageClass(), evt)) {
 				return;
 			}
 		}
 
-		if (!commandCallbacks.isEmpty()) {
-			Matcher matcher = DEVICE_COMMAND_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String type = matcher.group(1);
-				String id = matcher.group(2);
-				String command = matcher.group(3);
-				String format = matcher.group(4);
+		EventCallback callback = eventCallbacks.get(codec.getMessageClass());
+		if (callback != null) {
+			callback.processEvent(evt);
+		}
+	}
 
+	/*
+	 * Hand an event to the matching callbacks for its class, returning whether
+	 * there were any
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static boolean dispatch(List<EventCallback> matches, Class messageClass, Event evt) {
+		boolean dispatched = false;
+		for (EventCallback callback : matches) {
+			if (callback.getMessageClass() == messageClass) {
+				callback.processEvent(evt);
+				dispatched = true;
+			}
+		}
+		return dispatched;
+	}
+
+	/*
+	 * Fan the device events packed by a gateway back out, each as if it had been
+	 * published on its own by the device it names
+	 */
+	private void unpackEvents(Topic gateway, MqttMessage msg) {
+		List<EventPacker.Entry> entries;
+		try {
+			entries = EventPacker.unpack(msg.getPayload());
+		} catch (MalformedMessageException e) {
+			LOG.warn("Unable to unpack packed events", e);
+			return;
+		}
+		SegmentCache cache = Topic.getSegmentCache();
+		for (EventPacker.Entry entry : entries) {
+			MqttMessage unpacked = new MqttMessage(entry.getPayload());
+			unpacked.setQos(msg.getQos());
+			if (cache == null) {
+				processEvent(null, entry.getTypeId(), entry.getDeviceId(), entry.getEventId(), entry.getFormat(),
+						unpacked, gateway);
+			} else {
+				processEvent(null, cache.intern(entry.getTypeId()), cache.intern(entry.getDeviceId()),
+						cache.intern(entry.getEventId()), cache.intern(entry.getFormat()), unpacked, gateway);
+			}
+		}
+	}
+
+	public void messageArrived(String topic, final MqttMessage msg) {
+		final Topic parsed = Topic.parse(topic);
+		if (parsed == null) {
+			return;
+		}
+		// QoS 0 messages are never redelivered, and statuses are idempotent
+		if (duplicateFilter != null && msg.getQos() > 0
+				&& (parsed.getKind() == Topic.Kind.DEVICE_EVENT || parsed.getKind() == Topic.Kind.DEVICE_COMMAND)
+				&& duplicateFilter.isDuplicate(topic, msg.getPayload(), msg.isDuplicate(),
+						System.currentTimeMillis())) {
+			LOG.debug("Suppressed duplicate message on " + topic);
+			return;
+		}
+		if (dispatcher == null) {
+			processMessage(parsed, msg);
+			return;
+		}
+
+		String key = parsed.getKind() == Topic.Kind.APP_STATUS ? parsed.getAppId() : parsed.getDeviceId();
+		try {
+			dispatcher.execute(key, new Runnable() {
+				@Override
+				public void run() {
+					processMessage(parsed, msg);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while dispatching message on " + topic);
+		}
+	}
+
+	/*
+	 * Decode a message and hand it to the registered callbacks, on the MQTT
+	 * callback thread or on the dispatch thread of its device
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void processMessage(Topic parsed, MqttMessage msg) {
+		switch (parsed.getKind()) {
+		case DEVICE_EVENT:
+			/*
+			 * Only decode the device event if a callback has been defined for events,
+			 * otherwise it is a waste of time as without a callback there is nothing to
+			 * process the generated event.
+			 */
+			if (!eventCallbacks.isEmpty() || !eventFilters.isEmpty()) {
+				String format = parsed.getFormat();
+				if (EventPacker.FORMAT.equals(format) && !messageCodecsByFormat.containsKey(format)) {
+					if (unpackingTypes.contains(parsed.getTypeId())) {
+						unpackEvents(parsed, msg);
+					} else {
+						LOG.warn("Ignoring packed events from " + parsed.getTypeId() + ":" + parsed.getDeviceId()
+								+ ", which is not of a gateway type set for unpacking");
+					}
+				} else {
+					processEvent(parsed, parsed.getTypeId(), parsed.getDeviceId(), parsed.getId(), format, msg, null);
+				}
+			}
+			break;
+
+		case DEVICE_COMMAND:
+			if (!commandCallbacks.isEmpty() || !commandFilters.isEmpty()) {
+				String format = parsed.getFormat();
 				MessageCodec codec = messageCodecsByFormat.get(format);
 				if (codec == null) {
 					LOG.warn("Unable to decode command of format " + format);
@@ -463,52 +807,131 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 					// client to disconnect.
 					return;
 				}
-				MessageInterface message = codec.decode(msg);
-				Command cmd = new Command(type, id, command, format, message);
+				Command cmd = new Command(parsed.getTypeId(), parsed.getDeviceId(), parsed.getId(), format, codec,
+						msg);
 
 				LOG.debug("Command received: " + cmd.toString());
 
+				if (!commandFilters.isEmpty()) {
+					List<CommandCallback> matches = new ArrayList<CommandCallback>();
+					commandFilters.match(parsed, matches);
+					boolean dispatched = false;
+					for (CommandCallback callback : matches) {
+						if (callback.getMessageClass() == codec.getMessageClass()) {
+							callback.processCommand(cmd);
+							dispatched = true;
+						}
+					}
+					if (dispatched) {
+						return;
+					}
+				}
+
 				CommandCallback callback = commandCallbacks.get(codec.getMessageClass());
 				if (callback != null) {
 					callback.processCommand(cmd);
 				}
-				return;
 			}
+			break;
 
-		}
-
-		if (statusCallback != null) {
+		case DEVICE_STATUS:
 			/*
-			 * Only check whether the message is a status event if a callback has been
-			 * defined for status events, otherwise it is a waste of time as without a
-			 * callback there is nothing to process the generated event.
+			 * Only decode the status event if a callback has been defined for status
+			 * events, otherwise it is a waste of time as without a callback there is
+			 * nothing to process the generated event.
 			 */
-			Matcher matcher = DEVICE_STATUS_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String type = matcher.group(1);
-				String id = matcher.group(2);
+			if (statusCallback != null) {
 				try {
-					DeviceStatus status = new DeviceStatus(type, id, msg);
-					LOG.debug("Device status received: " + status.toString());
+					DeviceStatus status = new DeviceStatus(parsed.getTypeId(), parsed.getDeviceId(), msg,
+							clock.millis());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Device status received: " + status.toString());
+					}
 					statusCallback.processDeviceStatus(status);
 				} catch (UnsupportedEncodingException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
 			}
+			break;
 
-			matcher = APP_STATUS_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String id = matcher.group(1);
+		case APP_STATUS:
+			if (statusCallback != null) {
 				try {
-					ApplicationStatus status = new ApplicationStatus(id, msg);
-					LOG.debug("Application status received: " + status.toString());
+					ApplicationStatus status = new ApplicationStatus(parsed.getAppId(), msg, clock.millis());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Application status received: " + status.toString());
+					}
 					statusCallback.processApplicationStatus(status);
 				} catch (UnsupportedEncodingException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
 			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * The number of inbound messages waiting to be processed. Messages are only
+	 * queued when the client is configured with dispatch threads, with at most
+	 * dispatchQueueSize messages waiting per thread, or with virtual thread
+	 * dispatch, with at most dispatchQueueSize messages waiting or being
+	 * processed; otherwise they are processed on the MQTT callback thread as they
+	 * arrive.
+	 * 
+	 * @return The number of messages waiting across all dispatch threads
+	 */
+	public int getDispatchQueueDepth() {
+		return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+	}
+
+	/**
+	 * The number of QoS 1 and 2 events and commands suppressed as duplicates.
+	 * Duplicates are only suppressed when the client is configured with a
+	 * dedupWindow. With a dedupSequenceField, a message is suppressed if its
+	 * sequence number was seen within the window; otherwise only if its topic
+	 * and payload were seen within the window and the broker flagged it as a
+	 * redelivery, so a device repeating a reading does not lose it.
+	 * 
+	 * @return The number of suppressed duplicates
+	 */
+	public long getDuplicatesSuppressed() {
+		return duplicateFilter == null ? 0 : duplicateFilter.getDuplicates();
+	}
+
+	/**
+	 * Close the MQTT client, stop the dispatch threads once they have processed
+	 * the messages already queued, then complete the publishers of inbound
+	 * messages and hand over the last event batches
+	 */
+	@Override
+	public void close() throws MqttException {
+		super.close();
+		if (dispatcher != null) {
+			try {
+				if (!dispatcher.shutdown(DISPATCH_SHUTDOWN_TIMEOUT)) {
+					LOG.warn("Dispatch threads still busy after " + DISPATCH_SHUTDOWN_TIMEOUT + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Completing also releases a dispatch thread still waiting on a subscriber
+		for (BufferedPublisher<?> stream : streams) {
+			stream.complete();
+		}
+		synchronized (this) {
+			if (batchTimer != null) {
+				batchTimer.cancel();
+				batchTimer = null;
+			}
+		}
+		for (EventBatcher<?> batcher : batchers) {
+			batcher.flush();
 		}
 	}
 
@@ -528,8 +951,389 @@ public class ApplicationClient extends AbstractClient implements MqttCallbackExt
 		this.eventCallbacks.put(callback.getMessageClass(), callback);
 	}
 
+	/**
+	 * Register a callback for the commands whose topic matches an MQTT-style
+	 * topic filter. <br>
+	 * The filter is matched against the topic without its "iot-2/" prefix and
+	 * "/fmt/{format}" suffix, e.g. "type/pump/id/+/cmd/reboot"; "+" matches any
+	 * one segment and a final "#" any number of segments. A command is handed to
+	 * every matching callback for the class it decodes to, and only to the
+	 * callback registered for its class if none matched.
+	 * 
+	 * @param topicFilter the topic filter
+	 * @param callback    the callback
+	 */
+	@SuppressWarnings("rawtypes")
+	public void registerCommandCallback(String topicFilter, CommandCallback callback) {
+		commandFilters.add(topicFilter, callback);
+	}
+
+	/**
+	 * Register a callback for the events whose topic matches an MQTT-style topic
+	 * filter. <br>
+	 * The filter is matched against the topic without its "iot-2/" prefix and
+	 * "/fmt/{format}" suffix, e.g. "type/pump/id/+/evt/alarm"; "+" matches any
+	 * one segment and a final "#" any number of segments. An event is handed to
+	 * every matching callback for the class it decodes to, and only to the
+	 * callback registered for its class if none matched. Matching takes time
+	 * proportional to the depth of the topic, however many filters are
+	 * registered.
+	 * 
+	 * @param topicFilter the topic filter
+	 * @param callback    the callback
+	 */
+	@SuppressWarnings("rawtypes")
+	public void registerEventCallback(String topicFilter, EventCallback callback) {
+		eventFilters.add(topicFilter, callback);
+	}
+
+	/**
+	 * @param topicFilter the topic filter the callback was registered for
+	 * @param callback    the callback
+	 * @return Whether the callback was registered for the filter
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean unregisterCommandCallback(String topicFilter, CommandCallback callback) {
+		return commandFilters.remove(topicFilter, callback);
+	}
+
+	/**
+	 * @param topicFilter the topic filter the callback was registered for
+	 * @param callback    the callback
+	 * @return Whether the callback was registered for the filter
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean unregisterEventCallback(String topicFilter, EventCallback callback) {
+		return eventFilters.remove(topicFilter, callback);
+	}
+
+	/**
+	 * Unpack the events packed by gateways of a device type, or stop unpacking
+	 * them. Each packed event names the device it came from, so events are only
+	 * unpacked from gateways of the types set here, and delivered with the
+	 * gateway that packed them; packed events from any other device are ignored.
+	 * No gateway types are unpacked until set.
+	 * 
+	 * @param gatewayTypeId object of String which denotes the gateway device type
+	 * @param unpacking     whether to unpack the events packed by gateways of the
+	 *                      type
+	 */
+	public void setUnpacking(String gatewayTypeId, boolean unpacking) {
+		if (unpacking) {
+			unpackingTypes.add(gatewayTypeId);
+		} else {
+			unpackingTypes.remove(gatewayTypeId);
+		}
+	}
+
 	public void setStatusCallback(StatusCallback callback) {
 		this.statusCallback = callback;
 	}
 
+	/**
+	 * Register a callback for the events that decode to its class, to be given
+	 * them in batches. <br>
+	 * A batch is handed over once it holds maxEvents events, or once its first
+	 * event has waited lingerMillis, so a sink can bulk-insert each batch. The
+	 * batching callback takes the place of the callback registered for the
+	 * class; the last batch is handed over when the client is closed.
+	 * 
+	 * @param callback     the callback
+	 * @param maxEvents    the largest batch, e.g. 1000
+	 * @param lingerMillis how long the first event of a batch waits for the
+	 *                     batch to fill, in milliseconds, e.g. 50
+	 */
+	public <T> void registerEventBatchCallback(EventBatchCallback<T> callback, int maxEvents, long lingerMillis) {
+		registerEventCallback(newBatcher(callback, maxEvents, lingerMillis));
+	}
+
+	/**
+	 * Register a callback for the events whose topic matches a topic filter, as
+	 * for {@link #registerEventCallback(String, EventCallback)}, to be given them
+	 * in batches as for
+	 * {@link #registerEventBatchCallback(EventBatchCallback, int, long)}.
+	 * 
+	 * @param topicFilter  the topic filter
+	 * @param callback     the callback
+	 * @param maxEvents    the largest batch
+	 * @param lingerMillis how long the first event of a batch waits for the
+	 *                     batch to fill, in milliseconds
+	 */
+	public <T> void registerEventBatchCallback(String topicFilter, EventBatchCallback<T> callback, int maxEvents,
+			long lingerMillis) {
+		registerEventCallback(topicFilter, newBatcher(callback, maxEvents, lingerMillis));
+	}
+
+	private synchronized <T> EventBatcher<T> newBatcher(EventBatchCallback<T> callback, int maxEvents,
+			long lingerMillis) {
+		if (batchTimer == null) {
+			batchTimer = new Timer("wiotp-batching", true);
+		}
+		EventBatcher<T> batcher = new EventBatcher<T>(callback, maxEvents, lingerMillis, batchTimer);
+		batchers.add(batcher);
+		return batcher;
+	}
+
+	/**
+	 * A Reactive Streams publisher of the events that decode to a class, that
+	 * drops events for a subscriber that has not requested more for a second,
+	 * see {@link #eventStream(Class, int, long)}.
+	 * 
+	 * @param messageClass the class events decode to
+	 * @param bufferSize   the number of events buffered for each subscriber
+	 * @param <T>          the class events decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Event<T>> eventStream(Class<T> messageClass, int bufferSize) {
+		return eventStream(messageClass, bufferSize, DEFAULT_STREAM_MAX_WAIT);
+	}
+
+	/**
+	 * A Reactive Streams publisher of the events that decode to a class. <br>
+	 * Subscribers are sent events as they request them, with up to bufferSize
+	 * events buffered for each. While a subscriber's buffer is full, the
+	 * processing of inbound messages waits for it to request more, which holds
+	 * up the consumption of messages from the MQTT client. With a maxWaitMillis
+	 * of 0 it waits for as long as it takes, so no event is lost, but a
+	 * subscriber stalled for longer than the keep-alive interval stalls the MQTT
+	 * client's receiving thread for as long and the connection is dropped.
+	 * Otherwise, if the subscriber still has not requested more after
+	 * maxWaitMillis, the event is dropped for it, and later events are dropped
+	 * for it without waiting until it catches up. Dropped events are counted by
+	 * {@link #getStreamDrops()}. The publisher takes the place of the callback
+	 * registered for the class, and completes when the client is closed, once
+	 * the events already received have been offered to it.
+	 * 
+	 * @param messageClass  the class events decode to
+	 * @param bufferSize    the number of events buffered for each subscriber
+	 * @param maxWaitMillis longest time in milliseconds to wait for a subscriber
+	 *                      with a full buffer before dropping events for it, 0
+	 *                      to wait for as long as it takes
+	 * @param <T>           the class events decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Event<T>> eventStream(Class<T> messageClass, int bufferSize, long maxWaitMillis) {
+		BufferedPublisher<Event<T>> publisher = newStream(bufferSize, maxWaitMillis);
+		registerEventCallback(new EventStreamCallback<T>(messageClass, publisher));
+		return publisher;
+	}
+
+	/**
+	 * A Reactive Streams publisher of the events whose topic matches a topic
+	 * filter, that drops events for a subscriber that has not requested more
+	 * for a second, see {@link #eventStream(String, Class, int, long)}.
+	 * 
+	 * @param topicFilter  the topic filter
+	 * @param messageClass the class events decode to
+	 * @param bufferSize   the number of events buffered for each subscriber
+	 * @param <T>          the class events decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Event<T>> eventStream(String topicFilter, Class<T> messageClass, int bufferSize) {
+		return eventStream(topicFilter, messageClass, bufferSize, DEFAULT_STREAM_MAX_WAIT);
+	}
+
+	/**
+	 * A Reactive Streams publisher of the events whose topic matches a topic
+	 * filter, as for {@link #registerEventCallback(String, EventCallback)}, and
+	 * that decode to a class. Demand, buffering and dropping are as for
+	 * {@link #eventStream(Class, int, long)}.
+	 * 
+	 * @param topicFilter   the topic filter
+	 * @param messageClass  the class events decode to
+	 * @param bufferSize    the number of events buffered for each subscriber
+	 * @param maxWaitMillis longest time in milliseconds to wait for a subscriber
+	 *                      with a full buffer before dropping events for it, 0
+	 *                      to wait for as long as it takes
+	 * @param <T>           the class events decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Event<T>> eventStream(String topicFilter, Class<T> messageClass, int bufferSize,
+			long maxWaitMillis) {
+		BufferedPublisher<Event<T>> publisher = newStream(bufferSize, maxWaitMillis);
+		registerEventCallback(topicFilter, new EventStreamCallback<T>(messageClass, publisher));
+		return publisher;
+	}
+
+	/**
+	 * A Reactive Streams publisher of the commands that decode to a class, that
+	 * drops commands for a subscriber that has not requested more for a second,
+	 * see {@link #commandStream(Class, int, long)}.
+	 * 
+	 * @param messageClass the class commands decode to
+	 * @param bufferSize   the number of commands buffered for each subscriber
+	 * @param <T>          the class commands decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Command<T>> commandStream(Class<T> messageClass, int bufferSize) {
+		return commandStream(messageClass, bufferSize, DEFAULT_STREAM_MAX_WAIT);
+	}
+
+	/**
+	 * A Reactive Streams publisher of the commands that decode to a class.
+	 * Demand, buffering and dropping are as for
+	 * {@link #eventStream(Class, int, long)}.
+	 * 
+	 * @param messageClass  the class commands decode to
+	 * @param bufferSize    the number of commands buffered for each subscriber
+	 * @param maxWaitMillis longest time in milliseconds to wait for a subscriber
+	 *                      with a full buffer before dropping commands for it, 0
+	 *                      to wait for as long as it takes
+	 * @param <T>           the class commands decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Command<T>> commandStream(Class<T> messageClass, int bufferSize, long maxWaitMillis) {
+		BufferedPublisher<Command<T>> publisher = newStream(bufferSize, maxWaitMillis);
+		registerCommandCallback(new CommandStreamCallback<T>(messageClass, publisher));
+		return publisher;
+	}
+
+	/**
+	 * A Reactive Streams publisher of the commands whose topic matches a topic
+	 * filter, that drops commands for a subscriber that has not requested more
+	 * for a second, see {@link #commandStream(String, Class, int, long)}.
+	 * 
+	 * @param topicFilter  the topic filter
+	 * @param messageClass the class commands decode to
+	 * @param bufferSize   the number of commands buffered for each subscriber
+	 * @param <T>          the class commands decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Command<T>> commandStream(String topicFilter, Class<T> messageClass, int bufferSize) {
+		return commandStream(topicFilter, messageClass, bufferSize, DEFAULT_STREAM_MAX_WAIT);
+	}
+
+	/**
+	 * A Reactive Streams publisher of the commands whose topic matches a topic
+	 * filter, as for {@link #registerCommandCallback(String, CommandCallback)},
+	 * and that decode to a class. Demand, buffering and dropping are as for
+	 * {@link #eventStream(Class, int, long)}.
+	 * 
+	 * @param topicFilter   the topic filter
+	 * @param messageClass  the class commands decode to
+	 * @param bufferSize    the number of commands buffered for each subscriber
+	 * @param maxWaitMillis longest time in milliseconds to wait for a subscriber
+	 *                      with a full buffer before dropping commands for it, 0
+	 *                      to wait for as long as it takes
+	 * @param <T>           the class commands decode to
+	 * @return The publisher
+	 */
+	public <T> Publisher<Command<T>> commandStream(String topicFilter, Class<T> messageClass, int bufferSize,
+			long maxWaitMillis) {
+		BufferedPublisher<Command<T>> publisher = newStream(bufferSize, maxWaitMillis);
+		registerCommandCallback(topicFilter, new CommandStreamCallback<T>(messageClass, publisher));
+		return publisher;
+	}
+
+	/**
+	 * A Reactive Streams publisher of device and application statuses, that
+	 * drops statuses for a subscriber that has not requested more for a second,
+	 * see {@link #statusStream(int, long)}.
+	 * 
+	 * @param bufferSize the number of statuses buffered for each subscriber
+	 * @return The publisher
+	 */
+	public Publisher<Status> statusStream(int bufferSize) {
+		return statusStream(bufferSize, DEFAULT_STREAM_MAX_WAIT);
+	}
+
+	/**
+	 * A Reactive Streams publisher of device and application statuses. Demand,
+	 * buffering and dropping are as for {@link #eventStream(Class, int, long)}.
+	 * The publisher takes the place of the status callback.
+	 * 
+	 * @param bufferSize    the number of statuses buffered for each subscriber
+	 * @param maxWaitMillis longest time in milliseconds to wait for a subscriber
+	 *                      with a full buffer before dropping statuses for it, 0
+	 *                      to wait for as long as it takes
+	 * @return The publisher
+	 */
+	public Publisher<Status> statusStream(int bufferSize, long maxWaitMillis) {
+		final BufferedPublisher<Status> publisher = newStream(bufferSize, maxWaitMillis);
+		setStatusCallback(new StatusCallback() {
+			@Override
+			public void processApplicationStatus(ApplicationStatus status) {
+				offer(publisher, status);
+			}
+
+			@Override
+			public void processDeviceStatus(DeviceStatus status) {
+				offer(publisher, status);
+			}
+		});
+		return publisher;
+	}
+
+	/**
+	 * The number of messages the publishers returned by
+	 * {@link #eventStream(Class, int, long)},
+	 * {@link #commandStream(Class, int, long)} and
+	 * {@link #statusStream(int, long)} dropped for subscribers that did not keep
+	 * up
+	 * 
+	 * @return The number of dropped messages
+	 */
+	public long getStreamDrops() {
+		long drops = 0;
+		for (BufferedPublisher<?> stream : streams) {
+			drops += stream.getDropped();
+		}
+		return drops;
+	}
+
+	private <T> BufferedPublisher<T> newStream(int bufferSize, long maxWaitMillis) {
+		BufferedPublisher<T> publisher = new BufferedPublisher<T>(bufferSize, maxWaitMillis);
+		streams.add(publisher);
+		return publisher;
+	}
+
+	private static <T> void offer(BufferedPublisher<T> publisher, T item) {
+		try {
+			publisher.offer(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while waiting for subscribers to request more messages");
+		}
+	}
+
+	private static class EventStreamCallback<T> implements EventCallback<T> {
+		private final Class<T> messageClass;
+		private final BufferedPublisher<Event<T>> publisher;
+
+		EventStreamCallback(Class<T> messageClass, BufferedPublisher<Event<T>> publisher) {
+			this.messageClass = messageClass;
+			this.publisher = publisher;
+		}
+
+		@Override
+		public void processEvent(Event<T> evt) {
+			offer(publisher, evt);
+		}
+
+		@Override
+		public Class<T> getMessageClass() {
+			return messageClass;
+		}
+	}
+
+	private static class CommandStreamCallback<T> implements CommandCallback<T> {
+		private final Class<T> messageClass;
+		private final BufferedPublisher<Command<T>> publisher;
+
+		CommandStreamCallback(Class<T> messageClass, BufferedPublisher<Command<T>> publisher) {
+			this.messageClass = messageClass;
+			this.publisher = publisher;
+		}
+
+		@Override
+		public void processCommand(Command<T> cmd) {
+			offer(publisher, cmd);
+		}
+
+		@Override
+		public Class<T> getMessageClass() {
+			return messageClass;
+		}
+	}
+
 }
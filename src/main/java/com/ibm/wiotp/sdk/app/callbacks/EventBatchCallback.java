@@ -0,0 +1,33 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.app.callbacks;
+
+import java.util.List;
+
+import com.ibm.wiotp.sdk.app.messages.Event;
+
+/**
+ * An interface to receive events in batches, grouped by count or by how long
+ * the first event of the batch has waited
+ *
+ */
+public interface EventBatchCallback<T> {
+
+	/**
+	 * This method processes a batch of events
+	 * 
+	 * @param events the events, in the order they arrived; the list can not be
+	 *               modified and can be kept after the method returns
+	 */
+	public void processEvents(List<Event<T>> events);
+
+	public Class<T> getMessageClass();
+}
@@ -0,0 +1,114 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.app.callbacks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.wiotp.sdk.app.messages.Event;
+
+/**
+ * An event callback that groups events into batches for an
+ * {@link EventBatchCallback}. <br>
+ *
+ * A batch is handed over once it holds maxEvents events, or once its first
+ * event has waited lingerMillis, whichever comes first. Batches are handed
+ * over one at a time and in order, from the thread that delivered the last
+ * event or from the timer thread; while a batch is being processed, further
+ * events wait.
+ */
+public class EventBatcher<T> implements EventCallback<T> {
+	private static final Logger LOG = LoggerFactory.getLogger(EventBatcher.class);
+
+	private final EventBatchCallback<T> callback;
+	private final int maxEvents;
+	private final long lingerMillis;
+	private final Timer timer;
+
+	private List<Event<T>> batch;
+	/* Counts the batches handed over, so a linger task knows if its batch is gone */
+	private long generation = 0;
+
+	/**
+	 * @param callback     the callback that processes the batches
+	 * @param maxEvents    the largest batch
+	 * @param lingerMillis how long the first event of a batch waits for the
+	 *                     batch to fill, in milliseconds
+	 * @param timer        the timer that hands over batches that have waited
+	 *                     long enough
+	 */
+	public EventBatcher(EventBatchCallback<T> callback, int maxEvents, long lingerMillis, Timer timer) {
+		this.callback = callback;
+		this.maxEvents = Math.max(1, maxEvents);
+		this.lingerMillis = lingerMillis;
+		this.timer = timer;
+		this.batch = new ArrayList<Event<T>>(Math.min(this.maxEvents, 1024));
+	}
+
+	@Override
+	public synchronized void processEvent(Event<T> evt) {
+		batch.add(evt);
+		if (batch.size() >= maxEvents) {
+			flush();
+		} else if (batch.size() == 1) {
+			final long current = generation;
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					flush(current);
+				}
+			}, lingerMillis);
+		}
+	}
+
+	private synchronized void flush(long batchGeneration) {
+		if (batchGeneration == generation) {
+			flush();
+		}
+	}
+
+	/**
+	 * Hand over the current batch now, if it holds any events
+	 */
+	public synchronized void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Event<T>> events = Collections.unmodifiableList(batch);
+		batch = new ArrayList<Event<T>>(Math.min(maxEvents, 1024));
+		generation++;
+		try {
+			callback.processEvents(events);
+		} catch (RuntimeException e) {
+			// Thrown on the timer thread this would stop every batcher sharing the timer
+			LOG.warn("Event batch callback failed", e);
+		}
+	}
+
+	/**
+	 * @return The number of events in the current batch
+	 */
+	public synchronized int getCount() {
+		return batch.size();
+	}
+
+	@Override
+	public Class<T> getMessageClass() {
+		return callback.getMessageClass();
+	}
+
+}
@@ -76,7 +76,7 @@ public class ApplicationConfig implements AbstractConfig {
 
 		connectOptions.setCleanSession(this.options.mqtt.cleanStart);
 		connectOptions.setKeepAliveInterval(this.options.mqtt.keepAlive);
-		connectOptions.setMaxInflight(DEFAULT_MAX_INFLIGHT_MESSAGES);
+		connectOptions.setMaxInflight(getMaxInflight());
 		connectOptions.setAutomaticReconnect(true);
 
 		SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
@@ -153,4 +153,82 @@ public class ApplicationConfig implements AbstractConfig {
 		return "https://" + getOrgId() + "." + options.domain + "/api/v0002";
 	}
 
+	@Override
+	public int getOutboundQueueSize() {
+		return options.mqtt.outboundQueueSize;
+	}
+
+	@Override
+	public String getOutboundQueuePolicy() {
+		return options.mqtt.outboundQueuePolicy;
+	}
+
+	@Override
+	public int getOutboundQueueTimeout() {
+		return options.mqtt.outboundQueueTimeout;
+	}
+
+	@Override
+	public int getMessageTtl() {
+		return options.mqtt.messageTtl;
+	}
+
+	@Override
+	public String getPersistence() {
+		return options.mqtt.persistence;
+	}
+
+	@Override
+	public String getPersistenceDir() {
+		return options.mqtt.persistenceDir;
+	}
+
+	@Override
+	public int getPersistenceSyncInterval() {
+		return options.mqtt.persistenceSyncInterval;
+	}
+
+	@Override
+	public int getMaxInflight() {
+		return options.mqtt.maxInflight;
+	}
+
+	@Override
+	public int getMinInflight() {
+		return options.mqtt.minInflight;
+	}
+
+	@Override
+	public boolean isAdaptiveInflight() {
+		return options.mqtt.adaptiveInflight;
+	}
+
+	public int getDispatchThreads() {
+		return options.mqtt.dispatchThreads;
+	}
+
+	public int getDispatchQueueSize() {
+		return options.mqtt.dispatchQueueSize;
+	}
+
+	public boolean isDispatchVirtualThreads() {
+		return options.mqtt.dispatchVirtualThreads;
+	}
+
+	public int getDedupWindow() {
+		return options.mqtt.dedupWindow;
+	}
+
+	public int getDedupCapacity() {
+		return options.mqtt.dedupCapacity;
+	}
+
+	public double getDedupFalsePositiveRate() {
+		return options.mqtt.dedupFalsePositiveRate;
+	}
+
+	public String getDedupSequenceField() {
+		return options.mqtt.dedupSequenceField;
+	}
+
 }
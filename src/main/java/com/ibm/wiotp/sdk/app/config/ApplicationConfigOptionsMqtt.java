@@ -2,6 +2,8 @@ package com.ibm.wiotp.sdk.app.config;
 
 import java.util.Map;
 
+import com.ibm.wiotp.sdk.AbstractConfig;
+
 public class ApplicationConfigOptionsMqtt {
 	public int port;
 	public String transport = "tcp"; // or "websockets"
@@ -10,6 +12,23 @@ public class ApplicationConfigOptionsMqtt {
 	public int sessionExpiry;
 	public int keepAlive;
 	public boolean sharedSubscription;
+	public int outboundQueueSize;
+	public String outboundQueuePolicy; // "block", "dropOldest", "dropNewest" or "reject"
+	public int outboundQueueTimeout; // milliseconds, used by the "block" policy
+	public int messageTtl; // seconds, 0 means queued messages never expire
+	public String persistence; // "memory" or "mmap"
+	public String persistenceDir; // used by "mmap", defaults to the working directory
+	public int persistenceSyncInterval; // milliseconds, 0 means sync on every change
+	public int maxInflight; // upper bound of the in-flight window
+	public int minInflight; // lower bound of the in-flight window
+	public boolean adaptiveInflight; // size the window from acknowledgement latency, off by default
+	public int dispatchThreads; // 0 means process inbound messages on the MQTT callback thread
+	public int dispatchQueueSize; // messages each dispatch thread can have waiting
+	public boolean dispatchVirtualThreads; // on Java 21+, a virtual thread per device with messages to process
+	public int dedupWindow; // milliseconds to suppress QoS 1 and 2 duplicates for, 0 means no suppression
+	public int dedupCapacity; // messages expected per window
+	public double dedupFalsePositiveRate; // chance of taking a new message for a duplicate
+	public String dedupSequenceField; // JSON field to key on instead of the payload hash
 
 	public ApplicationConfigOptionsMqtt() {
 		port = 8883;
@@ -19,6 +38,23 @@ public class ApplicationConfigOptionsMqtt {
 		sessionExpiry = 60;
 		keepAlive = 60;
 		sharedSubscription = false;
+		outboundQueueSize = 5000;
+		outboundQueuePolicy = "dropNewest";
+		outboundQueueTimeout = 10000;
+		messageTtl = 0;
+		persistence = "memory";
+		persistenceDir = null;
+		persistenceSyncInterval = 100;
+		maxInflight = AbstractConfig.DEFAULT_MAX_INFLIGHT_MESSAGES;
+		minInflight = 1;
+		adaptiveInflight = false;
+		dispatchThreads = 0;
+		dispatchQueueSize = 1000;
+		dispatchVirtualThreads = false;
+		dedupWindow = 0;
+		dedupCapacity = 100000;
+		dedupFalsePositiveRate = 0.001;
+		dedupSequenceField = null;
 	}
 
 	public ApplicationConfigOptionsMqtt(int port, String transport, String caFile, boolean cleanStart,
@@ -30,6 +66,23 @@ public class ApplicationConfigOptionsMqtt {
 		this.sessionExpiry = sessionExpiry;
 		this.keepAlive = keepAlive;
 		this.sharedSubscription = sharedSubscription;
+		this.outboundQueueSize = 5000;
+		this.outboundQueuePolicy = "dropNewest";
+		this.outboundQueueTimeout = 10000;
+		this.messageTtl = 0;
+		this.persistence = "memory";
+		this.persistenceDir = null;
+		this.persistenceSyncInterval = 100;
+		this.maxInflight = AbstractConfig.DEFAULT_MAX_INFLIGHT_MESSAGES;
+		this.minInflight = 1;
+		this.adaptiveInflight = false;
+		this.dispatchThreads = 0;
+		this.dispatchQueueSize = 1000;
+		this.dispatchVirtualThreads = false;
+		this.dedupWindow = 0;
+		this.dedupCapacity = 100000;
+		this.dedupFalsePositiveRate = 0.001;
+		this.dedupSequenceField = null;
 	}
 
 	public static ApplicationConfigOptionsMqtt generateFromEnv() {
@@ -57,6 +110,60 @@ public class ApplicationConfigOptionsMqtt {
 		if (System.getenv("WIOTP_OPTIONS_MQTT_SHAREDSUBSCRIPTION") != null)
 			mqtt.sharedSubscription = Boolean.parseBoolean(System.getenv("WIOTP_OPTIONS_MQTT_SHAREDSUBSCRIPTION"));
 
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUESIZE") != null)
+			mqtt.outboundQueueSize = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUESIZE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUEPOLICY") != null)
+			mqtt.outboundQueuePolicy = System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUEPOLICY");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUETIMEOUT") != null)
+			mqtt.outboundQueueTimeout = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUETIMEOUT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MESSAGETTL") != null)
+			mqtt.messageTtl = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MESSAGETTL"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCE") != null)
+			mqtt.persistence = System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCE");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCEDIR") != null)
+			mqtt.persistenceDir = System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCEDIR");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCESYNCINTERVAL") != null)
+			mqtt.persistenceSyncInterval = Integer
+					.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCESYNCINTERVAL"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MAXINFLIGHT") != null)
+			mqtt.maxInflight = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MAXINFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MININFLIGHT") != null)
+			mqtt.minInflight = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MININFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_ADAPTIVEINFLIGHT") != null)
+			mqtt.adaptiveInflight = Boolean.parseBoolean(System.getenv("WIOTP_OPTIONS_MQTT_ADAPTIVEINFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHTHREADS") != null)
+			mqtt.dispatchThreads = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHTHREADS"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHQUEUESIZE") != null)
+			mqtt.dispatchQueueSize = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHQUEUESIZE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHVIRTUALTHREADS") != null)
+			mqtt.dispatchVirtualThreads = Boolean
+					.parseBoolean(System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHVIRTUALTHREADS"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DEDUPWINDOW") != null)
+			mqtt.dedupWindow = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_DEDUPWINDOW"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DEDUPCAPACITY") != null)
+			mqtt.dedupCapacity = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_DEDUPCAPACITY"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DEDUPFALSEPOSITIVERATE") != null)
+			mqtt.dedupFalsePositiveRate = Double
+					.parseDouble(System.getenv("WIOTP_OPTIONS_MQTT_DEDUPFALSEPOSITIVERATE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DEDUPSEQUENCEFIELD") != null)
+			mqtt.dedupSequenceField = System.getenv("WIOTP_OPTIONS_MQTT_DEDUPSEQUENCEFIELD");
+
 		return mqtt;
 	}
 
@@ -85,6 +192,57 @@ public class ApplicationConfigOptionsMqtt {
 		if (yamlMqtt.get("sharedSubscription") != null)
 			mqtt.sharedSubscription = Boolean.parseBoolean((String) yamlMqtt.get("sharedSubscription"));
 
+		if (yamlMqtt.get("outboundQueueSize") != null)
+			mqtt.outboundQueueSize = Integer.parseInt((String) yamlMqtt.get("outboundQueueSize"));
+
+		if (yamlMqtt.get("outboundQueuePolicy") != null)
+			mqtt.outboundQueuePolicy = (String) yamlMqtt.get("outboundQueuePolicy");
+
+		if (yamlMqtt.get("outboundQueueTimeout") != null)
+			mqtt.outboundQueueTimeout = Integer.parseInt((String) yamlMqtt.get("outboundQueueTimeout"));
+
+		if (yamlMqtt.get("messageTtl") != null)
+			mqtt.messageTtl = Integer.parseInt((String) yamlMqtt.get("messageTtl"));
+
+		if (yamlMqtt.get("persistence") != null)
+			mqtt.persistence = (String) yamlMqtt.get("persistence");
+
+		if (yamlMqtt.get("persistenceDir") != null)
+			mqtt.persistenceDir = (String) yamlMqtt.get("persistenceDir");
+
+		if (yamlMqtt.get("persistenceSyncInterval") != null)
+			mqtt.persistenceSyncInterval = Integer.parseInt((String) yamlMqtt.get("persistenceSyncInterval"));
+
+		if (yamlMqtt.get("maxInflight") != null)
+			mqtt.maxInflight = Integer.parseInt((String) yamlMqtt.get("maxInflight"));
+
+		if (yamlMqtt.get("minInflight") != null)
+			mqtt.minInflight = Integer.parseInt((String) yamlMqtt.get("minInflight"));
+
+		if (yamlMqtt.get("adaptiveInflight") != null)
+			mqtt.adaptiveInflight = Boolean.parseBoolean((String) yamlMqtt.get("adaptiveInflight"));
+
+		if (yamlMqtt.get("dispatchThreads") != null)
+			mqtt.dispatchThreads = Integer.parseInt((String) yamlMqtt.get("dispatchThreads"));
+
+		if (yamlMqtt.get("dispatchQueueSize") != null)
+			mqtt.dispatchQueueSize = Integer.parseInt((String) yamlMqtt.get("dispatchQueueSize"));
+
+		if (yamlMqtt.get("dispatchVirtualThreads") != null)
+			mqtt.dispatchVirtualThreads = Boolean.parseBoolean((String) yamlMqtt.get("dispatchVirtualThreads"));
+
+		if (yamlMqtt.get("dedupWindow") != null)
+			mqtt.dedupWindow = Integer.parseInt((String) yamlMqtt.get("dedupWindow"));
+
+		if (yamlMqtt.get("dedupCapacity") != null)
+			mqtt.dedupCapacity = Integer.parseInt((String) yamlMqtt.get("dedupCapacity"));
+
+		if (yamlMqtt.get("dedupFalsePositiveRate") != null)
+			mqtt.dedupFalsePositiveRate = Double.parseDouble((String) yamlMqtt.get("dedupFalsePositiveRate"));
+
+		if (yamlMqtt.get("dedupSequenceField") != null)
+			mqtt.dedupSequenceField = (String) yamlMqtt.get("dedupSequenceField");
+
 		return mqtt;
 	}
-}
\ No newline at end of file
+}
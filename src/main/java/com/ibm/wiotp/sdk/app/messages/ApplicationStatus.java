@@ -36,6 +36,20 @@ public class ApplicationStatus extends Status {
 		this.id = id;
 	}
 
+	/**
+	 * Maintains the status of application
+	 * 
+	 * @param id          An object of the class String which denotes the appId
+	 * @param msg         An object of the class MqttMessage
+	 * @param arrivalTime the time the status arrived, in milliseconds since the
+	 *                    epoch, used if the status does not include its time
+	 * @throws UnsupportedEncodingException When the encoding format is not UTF-8
+	 */
+	public ApplicationStatus(String id, MqttMessage msg, long arrivalTime) throws UnsupportedEncodingException {
+		super(msg, arrivalTime);
+		this.id = id;
+	}
+
 	public String getId() {
 		return id;
 	}
@@ -10,9 +10,12 @@
  */
 package com.ibm.wiotp.sdk.app.messages;
 
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.joda.time.DateTime;
 
 import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.codecs.LazyMessage;
+import com.ibm.wiotp.sdk.codecs.MessageCodec;
 
 public class Command<T> implements CommandInterface<T> {
 
@@ -42,6 +45,22 @@ public class Command<T> implements CommandInterface<T> {
 		this.message = message;
 	}
 
+	/**
+	 * Create a command whose payload is only decoded when its data or timestamp
+	 * is first asked for
+	 * 
+	 * @param typeId    Object of String which denotes command type
+	 * @param deviceId  Object of String which denotes command id
+	 * @param commandId Object of String which denotes actual command type
+	 * @param format    Object of String which denotes command format, say json
+	 * @param codec     the codec that decodes the payload
+	 * @param msg       the received MQTT message
+	 */
+	public Command(String typeId, String deviceId, String commandId, String format, MessageCodec<T> codec,
+			MqttMessage msg) {
+		this(typeId, deviceId, commandId, format, new LazyMessage<T>(codec, msg));
+	}
+
 	/**
 	 * Returns the device type
 	 * 
@@ -45,4 +45,20 @@ public class DeviceStatus extends Status {
 		this.deviceId = deviceId;
 	}
 
+	/**
+	 * 
+	 * @param typeId      String of device type
+	 * @param deviceId    String of device id
+	 * @param msg         the mqtt message
+	 * @param arrivalTime the time the status arrived, in milliseconds since the
+	 *                    epoch, used if the status does not include its time
+	 * @throws UnsupportedEncodingException When encoding is not UTF-8
+	 */
+	public DeviceStatus(String typeId, String deviceId, MqttMessage msg, long arrivalTime)
+			throws UnsupportedEncodingException {
+		super(msg, arrivalTime);
+		this.deviceType = typeId;
+		this.deviceId = deviceId;
+	}
+
 }
@@ -10,9 +10,12 @@
  */
 package com.ibm.wiotp.sdk.app.messages;
 
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.joda.time.DateTime;
 
 import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.codecs.LazyMessage;
+import com.ibm.wiotp.sdk.codecs.MessageCodec;
 
 /**
  * This class inherits from Message and denotes the device event <br>
@@ -26,6 +29,8 @@ public class Event<T> implements EventInterface<T> {
 	private String eventId;
 	private String format;
 	private MessageInterface<T> message;
+	private String gatewayTypeId;
+	private String gatewayId;
 
 	/**
 	 * 
@@ -43,6 +48,44 @@ public class Event<T> implements EventInterface<T> {
 		this.format = format;
 	}
 
+	/**
+	 * Create an event whose payload is only decoded when its data or timestamp
+	 * is first asked for
+	 * 
+	 * @param typeId   object of String which denotes event type
+	 * @param deviceId object of String which denotes the event id
+	 * @param eventId  object of String which denotes the event
+	 * @param format   Format (encoding) of the event
+	 * @param codec    the codec that decodes the payload
+	 * @param msg      the received MQTT message
+	 */
+	public Event(String typeId, String deviceId, String eventId, String format, MessageCodec<T> codec,
+			MqttMessage msg) {
+		this(typeId, deviceId, eventId, format, new LazyMessage<T>(codec, msg));
+	}
+
+	/**
+	 * Create an event unpacked from the events packed by a gateway, whose
+	 * payload is only decoded when its data or timestamp is first asked for
+	 * 
+	 * @param typeId        object of String which denotes event type
+	 * @param deviceId      object of String which denotes the event id
+	 * @param eventId       object of String which denotes the event
+	 * @param format        Format (encoding) of the event
+	 * @param codec         the codec that decodes the payload
+	 * @param msg           the MQTT message holding the unpacked payload
+	 * @param gatewayTypeId object of String which denotes the device type of the
+	 *                      gateway that packed the event
+	 * @param gatewayId     object of String which denotes the device id of the
+	 *                      gateway that packed the event
+	 */
+	public Event(String typeId, String deviceId, String eventId, String format, MessageCodec<T> codec,
+			MqttMessage msg, String gatewayTypeId, String gatewayId) {
+		this(typeId, deviceId, eventId, format, codec, msg);
+		this.gatewayTypeId = gatewayTypeId;
+		this.gatewayId = gatewayId;
+	}
+
 	/**
 	 * Returns the device type
 	 * 
@@ -74,6 +117,26 @@ public class Event<T> implements EventInterface<T> {
 		return format;
 	}
 
+	/**
+	 * Returns the device type of the gateway that packed the event
+	 * 
+	 * @return Returns the gateway device type, or null if the event was not
+	 *         unpacked from a gateway pack
+	 */
+	public String getGatewayTypeId() {
+		return gatewayTypeId;
+	}
+
+	/**
+	 * Returns the device id of the gateway that packed the event
+	 * 
+	 * @return Returns the gateway device id, or null if the event was not
+	 *         unpacked from a gateway pack
+	 */
+	public String getGatewayId() {
+		return gatewayId;
+	}
+
 	@Override
 	public T getData() {
 		return message.getData();
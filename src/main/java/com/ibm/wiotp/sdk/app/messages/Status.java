@@ -37,6 +37,9 @@ public abstract class Status {
 	private String action;
 	private String connectTime;
 	private int port = 0;
+	// "Time" is only parsed if asked for, otherwise the time of arrival is used
+	private String timeText;
+	private long timeMillis;
 	private DateTime time;
 
 	// Additional "Disconnect" status properties
@@ -76,10 +79,25 @@ public abstract class Status {
 		return port;
 	}
 
+	/**
+	 * @return The time of the status, or the time it arrived if the status did
+	 *         not include one
+	 */
 	public DateTime getTime() {
+		if (time == null) {
+			time = timeText != null ? DT_PARSER.parseDateTime(timeText) : new DateTime(timeMillis);
+		}
 		return time;
 	}
 
+	/**
+	 * @return The time of the status, or the time it arrived if the status did
+	 *         not include one, in milliseconds since the epoch
+	 */
+	public long getTimeMillis() {
+		return timeText != null ? getTime().getMillis() : timeMillis;
+	}
+
 	public int getWriteMsg() {
 		return writeMsg;
 	}
@@ -101,13 +119,23 @@ public abstract class Status {
 	}
 
 	/**
-	 * This class does not have a default constructor and has a single argument
-	 * constructor
+	 * This class does not have a default constructor. A status without a time
+	 * of its own is given the current system time.
 	 * 
 	 * @param msg The MQTT message
 	 * @throws UnsupportedEncodingException Failure when the Format is not UTF-8
 	 */
 	public Status(MqttMessage msg) throws UnsupportedEncodingException {
+		this(msg, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param msg         The MQTT message
+	 * @param arrivalTime the time the status arrived, in milliseconds since the
+	 *                    epoch, used if the status does not include its time
+	 * @throws UnsupportedEncodingException Failure when the Format is not UTF-8
+	 */
+	public Status(MqttMessage msg, long arrivalTime) throws UnsupportedEncodingException {
 		this.payload = new String(msg.getPayload(), "UTF8");
 
 		JsonObject payloadJson = JSON_PARSER.parse(payload).getAsJsonObject();
@@ -126,9 +154,9 @@ public abstract class Status {
 		else
 			clientId = new String();
 		if (payloadJson.has("Time"))
-			time = DT_PARSER.parseDateTime(payloadJson.get("Time").getAsString());
+			timeText = payloadJson.get("Time").getAsString();
 		else
-			time = new DateTime();
+			timeMillis = arrivalTime;
 		if (payloadJson.has("Action"))
 			action = payloadJson.get("Action").getAsString();
 		else
@@ -172,9 +200,9 @@ public abstract class Status {
 	 */
 	public String toString() {
 		if (action.equals("Disconnect")) {
-			return "Status [" + time.toString() + "] " + clientId + ":" + action + " (" + reason + ")";
+			return "Status [" + getTime().toString() + "] " + clientId + ":" + action + " (" + reason + ")";
 		} else {
-			return "Status [" + time.toString() + "] " + clientId + ":" + action;
+			return "Status [" + getTime().toString() + "] " + clientId + ":" + action;
 		}
 	}
 
@@ -6,13 +6,21 @@ import java.nio.charset.Charset;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.joda.time.DateTime;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
 
 public class JsonCodec implements MessageCodec<JsonObject> {
 	private final static JsonParser JSON_PARSER = new JsonParser();
+	/* Writes JSON trees exactly as JsonElement.toString() does */
+	private final static Gson JSON_WRITER = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+	/* Writes objects exactly as gson.toJsonTree(object).toString() does */
+	private final static Gson OBJECT_WRITER = new GsonBuilder().disableHtmlEscaping().create();
 
 	@Override
 	public byte[] encode(JsonObject data, DateTime timestamp) {
@@ -23,6 +31,37 @@ public class JsonCodec implements MessageCodec<JsonObject> {
 		}
 	}
 
+	@Override
+	public void encode(JsonObject data, DateTime timestamp, PayloadBuffer buffer) {
+		if (data != null) {
+			writeJson(data, buffer);
+		}
+	}
+
+	@Override
+	public void encode(JsonObject data, long timestamp, PayloadBuffer buffer) {
+		if (data != null) {
+			writeJson(data, buffer);
+		}
+	}
+
+	/**
+	 * Stream any object as UTF-8 JSON into a buffer, without building a JSON tree
+	 * or String first. JSON trees are written as by their toString(), other
+	 * objects as by Gson, with null fields omitted.
+	 * 
+	 * @param data   a JsonElement or an object Gson can serialise
+	 * @param buffer the buffer to append the JSON to
+	 */
+	public static void writeJson(Object data, PayloadBuffer buffer) {
+		JsonWriter writer = new JsonWriter(buffer.asWriter());
+		if (data instanceof JsonElement) {
+			JSON_WRITER.toJson((JsonElement) data, writer);
+		} else {
+			OBJECT_WRITER.toJson(data, data.getClass(), writer);
+		}
+	}
+
 	@Override
 	public JsonMessage decode(MqttMessage msg) throws MalformedMessageException {
 		JsonObject data;
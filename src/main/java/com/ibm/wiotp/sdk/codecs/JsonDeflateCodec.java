@@ -0,0 +1,227 @@
+package com.ibm.wiotp.sdk.codecs;
+
+import java.io.Closeable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.joda.time.DateTime;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+
+/**
+ * JSON codec that compresses the payload with deflate (zlib format), for large
+ * and repetitive JSON documents. <br>
+ * Messages use the format "json-deflate". A Deflater and an Inflater per
+ * processor are pooled and reused from one message to the next, and any more
+ * needed by concurrent threads are ended after use, so the native memory they
+ * hold is bounded; {@link #close()} ends the pooled ones. Scratch buffers are
+ * kept per thread, unless a large message made them grow past 1MB.
+ */
+public class JsonDeflateCodec implements MessageCodec<JsonObject>, Closeable {
+	private final static JsonParser JSON_PARSER = new JsonParser();
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/* Refuse to inflate payloads beyond this size */
+	private final static int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+	private final static int INITIAL_BUFFER_SIZE = 8 * 1024;
+	/* Scratch buffers that have grown beyond this are not kept for reuse */
+	private final static int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+	private final static int MAX_POOLED_ZLIB = Runtime.getRuntime().availableProcessors();
+	private final static JsonCodec JSON_CODEC = new JsonCodec();
+
+	private final int level;
+
+	private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(MAX_POOLED_ZLIB);
+	private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(MAX_POOLED_ZLIB);
+
+	private final ThreadLocal<PayloadBuffer> text = new ThreadLocal<PayloadBuffer>() {
+		@Override
+		protected PayloadBuffer initialValue() {
+			return new PayloadBuffer(INITIAL_BUFFER_SIZE);
+		}
+	};
+
+	private final ThreadLocal<byte[]> buffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_BUFFER_SIZE];
+		}
+	};
+
+	public JsonDeflateCodec() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level compression level, 0-9, or Deflater.DEFAULT_COMPRESSION
+	 */
+	public JsonDeflateCodec(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public byte[] encode(JsonObject data, DateTime timestamp) {
+		if (data == null) {
+			return new byte[0];
+		}
+
+		Deflater deflater = deflate(data);
+		byte[] out = buffer.get();
+		int length = 0;
+		try {
+			while (!deflater.finished()) {
+				if (length == out.length) {
+					out = grow(out);
+				}
+				length += deflater.deflate(out, length, out.length - length);
+			}
+			return Arrays.copyOf(out, length);
+		} finally {
+			release(deflater);
+		}
+	}
+
+	@Override
+	public void encode(JsonObject data, DateTime timestamp, PayloadBuffer sink) {
+		encode(data, 0L, sink);
+	}
+
+	@Override
+	public void encode(JsonObject data, long timestamp, PayloadBuffer sink) {
+		if (data == null) {
+			return;
+		}
+
+		Deflater deflater = deflate(data);
+		byte[] out = buffer.get();
+		try {
+			while (!deflater.finished()) {
+				sink.write(out, 0, deflater.deflate(out));
+			}
+		} finally {
+			release(deflater);
+		}
+	}
+
+	/*
+	 * Write the JSON text to the scratch text buffer of the current thread and
+	 * set it as the input of a deflater, which must be released once done with
+	 */
+	private Deflater deflate(JsonObject data) {
+		PayloadBuffer json = text.get();
+		json.reset();
+		JSON_CODEC.encode(data, null, json);
+
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+		deflater.setInput(json.array(), 0, json.size());
+		deflater.finish();
+		return deflater;
+	}
+
+	/*
+	 * Return a deflater to the pool, or free it if the pool is full, and drop
+	 * scratch buffers that grew too large to keep
+	 */
+	private void release(Deflater deflater) {
+		deflater.reset();
+		if (!deflaters.offer(deflater)) {
+			deflater.end();
+		}
+		if (text.get().array().length > MAX_POOLED_BUFFER_SIZE) {
+			text.remove();
+		}
+		if (buffer.get().length > MAX_POOLED_BUFFER_SIZE) {
+			buffer.remove();
+		}
+	}
+
+	@Override
+	public JsonMessage decode(MqttMessage msg) throws MalformedMessageException {
+		if (msg.getPayload().length == 0) {
+			return new JsonMessage(null, null);
+		}
+
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		inflater.setInput(msg.getPayload());
+
+		byte[] out = buffer.get();
+		int length = 0;
+		try {
+			while (!inflater.finished()) {
+				if (length == out.length) {
+					if (out.length >= MAX_INFLATED_SIZE) {
+						throw new MalformedMessageException("Inflated payload exceeds " + MAX_INFLATED_SIZE + " bytes");
+					}
+					out = grow(out);
+				}
+				int inflated = inflater.inflate(out, length, out.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new MalformedMessageException("Truncated deflate payload");
+				}
+				length += inflated;
+			}
+			return new JsonMessage(JSON_PARSER.parse(new String(out, 0, length, UTF8)).getAsJsonObject(), null);
+		} catch (DataFormatException | JsonParseException | IllegalStateException e) {
+			throw new MalformedMessageException("Unable to decode deflated JSON: " + e.toString());
+		} finally {
+			inflater.reset();
+			if (!inflaters.offer(inflater)) {
+				inflater.end();
+			}
+			if (buffer.get().length > MAX_POOLED_BUFFER_SIZE) {
+				buffer.remove();
+			}
+		}
+	}
+
+	/*
+	 * Double the scratch buffer of the current thread
+	 */
+	private byte[] grow(byte[] out) {
+		byte[] grown = Arrays.copyOf(out, out.length * 2);
+		buffer.set(grown);
+		return grown;
+	}
+
+	/**
+	 * Free the native memory of the pooled Deflaters and Inflaters. The codec
+	 * can still be used afterwards, pooling new ones as it goes.
+	 */
+	@Override
+	public void close() {
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			deflater.end();
+		}
+		Inflater inflater;
+		while ((inflater = inflaters.poll()) != null) {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public Class<JsonObject> getMessageClass() {
+		return JsonObject.class;
+	}
+
+	@Override
+	public String getMessageFormat() {
+		return "json-deflate";
+	}
+
+}
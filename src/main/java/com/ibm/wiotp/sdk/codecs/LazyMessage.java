@@ -0,0 +1,66 @@
+package com.ibm.wiotp.sdk.codecs;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.joda.time.DateTime;
+
+import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+
+/**
+ * A received message that is only decoded when its data or timestamp is
+ * first asked for, and then keeps the decoded message. <br>
+ *
+ * Handlers that route or filter on the topic alone never pay for parsing the
+ * payload. A payload that can not be decoded is reported by the first call to
+ * {@link #getData()} or {@link #getTimestamp()}, rather than when the message
+ * arrives.
+ */
+public class LazyMessage<T> implements MessageInterface<T> {
+
+	private final MessageCodec<T> codec;
+	private volatile MqttMessage msg;
+	private volatile MessageInterface<T> decoded = null;
+
+	public LazyMessage(MessageCodec<T> codec, MqttMessage msg) {
+		this.codec = codec;
+		this.msg = msg;
+	}
+
+	/**
+	 * @return The decoded message, decoding it on the first call
+	 * @throws MalformedMessageException If the payload can not be decoded
+	 */
+	public MessageInterface<T> decode() throws MalformedMessageException {
+		MessageInterface<T> message = decoded;
+		if (message == null) {
+			synchronized (this) {
+				message = decoded;
+				if (message == null) {
+					message = codec.decode(msg);
+					decoded = message;
+					// The payload is no longer needed
+					msg = null;
+				}
+			}
+		}
+		return message;
+	}
+
+	/**
+	 * @return Whether the message has been decoded
+	 */
+	public boolean isDecoded() {
+		return decoded != null;
+	}
+
+	@Override
+	public T getData() {
+		return decode().getData();
+	}
+
+	@Override
+	public DateTime getTimestamp() {
+		return decode().getTimestamp();
+	}
+
+}
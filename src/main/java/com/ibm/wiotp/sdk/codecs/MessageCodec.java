@@ -17,6 +17,37 @@ public interface MessageCodec<T> {
 	 */
 	public byte[] encode(T data, DateTime timestamp);
 
+	/**
+	 * Convert an Object into bytes written to a buffer supplied by the caller,
+	 * which may be pooled and reused for the next message. Codecs that can
+	 * write their output directly should override the default, which copies the
+	 * result of {@link #encode(Object, DateTime)}.
+	 * 
+	 * @param data      the Object to be encoded
+	 * @param timestamp the time that the message was generated
+	 * @param buffer    the buffer to append the encoded payload to
+	 */
+	public default void encode(T data, DateTime timestamp, PayloadBuffer buffer) {
+		byte[] payload = encode(data, timestamp);
+		buffer.write(payload, 0, payload.length);
+	}
+
+	/**
+	 * Convert an Object into bytes written to a buffer, with the time given in
+	 * milliseconds since the epoch. This is what the clients call when
+	 * publishing; the default creates a DateTime for
+	 * {@link #encode(Object, DateTime, PayloadBuffer)}, so codecs that ignore the
+	 * timestamp, or only need the milliseconds, should override it.
+	 * 
+	 * @param data      the Object to be encoded
+	 * @param timestamp the time that the message was generated, in milliseconds
+	 *                  since the epoch
+	 * @param buffer    the buffer to append the encoded payload to
+	 */
+	public default void encode(T data, long timestamp, PayloadBuffer buffer) {
+		encode(data, new DateTime(timestamp), buffer);
+	}
+
 	/**
 	 * Convert an MQTT message into an instance of com.ibm.wiotp.sdk.Message
 	 * 
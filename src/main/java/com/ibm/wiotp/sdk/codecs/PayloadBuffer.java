@@ -0,0 +1,233 @@
+package com.ibm.wiotp.sdk.codecs;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte sink that codecs encode message payloads into. <br>
+ *
+ * Text can be written as UTF-8 straight from characters, either with
+ * {@link #writeUtf8(CharSequence)} or through {@link #asWriter()}, so a codec
+ * does not need an intermediate String or byte array. The buffer is reset and
+ * reused between messages; {@link #pooled()} returns a buffer kept per thread
+ * for use by the publish path.
+ */
+public class PayloadBuffer extends OutputStream {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	/* Pooled buffers that have grown beyond this are not kept for reuse */
+	private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+	private static final ThreadLocal<PayloadBuffer> POOL = new ThreadLocal<PayloadBuffer>() {
+		@Override
+		protected PayloadBuffer initialValue() {
+			return new PayloadBuffer();
+		}
+	};
+
+	private byte[] buf;
+	private int count = 0;
+
+	/* High surrogate waiting for its pair, when writing characters */
+	private char pendingSurrogate = 0;
+
+	private final Writer writer = new Writer() {
+		@Override
+		public void write(int c) {
+			writeUtf8((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			ensureCapacity(count + len);
+			for (int i = off; i < off + len; i++) {
+				char c = cbuf[i];
+				if (c < 0x80 && pendingSurrogate == 0 && count < buf.length) {
+					buf[count++] = (byte) c;
+				} else {
+					writeUtf8(c);
+				}
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			ensureCapacity(count + len);
+			for (int i = off; i < off + len; i++) {
+				char c = str.charAt(i);
+				if (c < 0x80 && pendingSurrogate == 0 && count < buf.length) {
+					buf[count++] = (byte) c;
+				} else {
+					writeUtf8(c);
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	public PayloadBuffer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public PayloadBuffer(int capacity) {
+		buf = new byte[Math.max(16, capacity)];
+	}
+
+	/**
+	 * The buffer of the current thread, emptied and ready for a new payload.
+	 * It must not be used after the thread has started encoding another
+	 * payload.
+	 *
+	 * @return The pooled buffer of the current thread
+	 */
+	public static PayloadBuffer pooled() {
+		PayloadBuffer buffer = POOL.get();
+		if (buffer.buf.length > MAX_POOLED_CAPACITY) {
+			buffer = new PayloadBuffer();
+			POOL.set(buffer);
+		}
+		buffer.reset();
+		return buffer;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * Write a ByteBuffer's remaining bytes
+	 *
+	 * @param src the bytes to write
+	 */
+	public void write(ByteBuffer src) {
+		int len = src.remaining();
+		ensureCapacity(count + len);
+		src.get(buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * Write characters encoded as UTF-8
+	 *
+	 * @param chars the characters to write
+	 */
+	public void writeUtf8(CharSequence chars) {
+		int len = chars.length();
+		ensureCapacity(count + len);
+		for (int i = 0; i < len; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80 && pendingSurrogate == 0 && count < buf.length) {
+				buf[count++] = (byte) c;
+			} else {
+				writeUtf8(c);
+			}
+		}
+	}
+
+	private void writeUtf8(char c) {
+		if (pendingSurrogate != 0) {
+			char high = pendingSurrogate;
+			pendingSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				ensureCapacity(count + 4);
+				buf[count++] = (byte) (0xf0 | (codePoint >> 18));
+				buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+				return;
+			}
+			// Unpaired surrogate, replaced as String.getBytes() would
+			write('?');
+		}
+
+		if (c < 0x80) {
+			ensureCapacity(count + 1);
+			buf[count++] = (byte) c;
+		} else if (c < 0x800) {
+			ensureCapacity(count + 2);
+			buf[count++] = (byte) (0xc0 | (c >> 6));
+			buf[count++] = (byte) (0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c)) {
+			pendingSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			write('?');
+		} else {
+			ensureCapacity(count + 3);
+			buf[count++] = (byte) (0xe0 | (c >> 12));
+			buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			buf[count++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+
+	/**
+	 * @return A Writer that encodes characters as UTF-8 into this buffer
+	 */
+	public Writer asWriter() {
+		return writer;
+	}
+
+	/**
+	 * Empty the buffer, keeping its capacity
+	 */
+	public void reset() {
+		count = 0;
+		pendingSurrogate = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return A copy of the content, sized exactly
+	 */
+	public byte[] toByteArray() {
+		if (pendingSurrogate != 0) {
+			pendingSurrogate = 0;
+			write('?');
+		}
+		return Arrays.copyOf(buf, count);
+	}
+
+	/*
+	 * The backing array, for codecs in this package that hand the content to an
+	 * API taking an array
+	 */
+	byte[] array() {
+		return buf;
+	}
+
+	/**
+	 * @return A read-only view of the content, valid until the buffer is next
+	 *         written to or reset
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+		}
+	}
+
+}
@@ -19,6 +19,20 @@ public class Utf8Codec implements MessageCodec<String> {
 		}
 	}
 
+	@Override
+	public void encode(String data, DateTime timestamp, PayloadBuffer buffer) {
+		if (data != null) {
+			buffer.writeUtf8(data);
+		}
+	}
+
+	@Override
+	public void encode(String data, long timestamp, PayloadBuffer buffer) {
+		if (data != null) {
+			buffer.writeUtf8(data);
+		}
+	}
+
 	@Override
 	public Utf8Message decode(MqttMessage msg) throws MalformedMessageException {
 		String data;
@@ -10,9 +10,12 @@
  */
 package com.ibm.wiotp.sdk.device;
 
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.joda.time.DateTime;
 
 import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.codecs.LazyMessage;
+import com.ibm.wiotp.sdk.codecs.MessageCodec;
 
 /**
  * The objects of this class hold the command and the format of the command sent
@@ -47,6 +50,19 @@ public class Command<T> implements MessageInterface<T> {
 		this.message = message;
 	}
 
+	/**
+	 * Create a command whose payload is only decoded when its data or timestamp
+	 * is first asked for
+	 * 
+	 * @param command Actual command in the form of String passed
+	 * @param format  Format is a String which can contain values such as "json"
+	 * @param codec   the codec that decodes the payload
+	 * @param msg     the received MQTT message
+	 */
+	public Command(String command, String format, MessageCodec<T> codec, MqttMessage msg) {
+		this(command, format, new LazyMessage<T>(codec, msg));
+	}
+
 	/**
 	 * Returns the name of the command
 	 * 
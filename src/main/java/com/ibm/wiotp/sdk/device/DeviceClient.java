@@ -10,26 +10,50 @@
  */
 package com.ibm.wiotp.sdk.device;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.ibm.wiotp.sdk.AbstractClient;
-import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.EventPublisher;
+import com.ibm.wiotp.sdk.OutboundEvent;
+import com.ibm.wiotp.sdk.Topic;
 import com.ibm.wiotp.sdk.codecs.MessageCodec;
 import com.ibm.wiotp.sdk.device.config.DeviceConfig;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigOptionsMqtt;
+import com.ibm.wiotp.sdk.exceptions.MessageDiscardedException;
+import com.ibm.wiotp.sdk.inbound.Dispatcher;
+import com.ibm.wiotp.sdk.inbound.KeyedDispatcher;
+import com.ibm.wiotp.sdk.inbound.VirtualThreads;
+import com.ibm.wiotp.sdk.outbound.DeadbandFilter;
+import com.ibm.wiotp.sdk.outbound.DiscardReason;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.outbound.Priority;
+import com.ibm.wiotp.sdk.outbound.SegmentStore;
+import com.ibm.wiotp.sdk.outbound.WindowAggregator;
 
 /**
  * A client, used by device, that handles connections with the IBM Watson IoT
@@ -38,7 +62,13 @@ import com.ibm.wiotp.sdk.device.config.DeviceConfig;
  */
 public class DeviceClient extends AbstractClient implements MqttCallbackExtended {
 	private static final Logger LOG = LoggerFactory.getLogger(DeviceClient.class);
-	private static final Pattern COMMAND_PATTERN = Pattern.compile("iot-2/cmd/(.+)/fmt/(.+)");
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* How long the store forwarder waits for the outbound queue to drain */
+	private static final long STORE_FORWARD_BACKOFF = 100L;
+
+	private static final long DISPATCH_SHUTDOWN_TIMEOUT = 10000;
 
 	@SuppressWarnings("rawtypes")
 	protected Map<Class, MessageCodec> messageCodecs = new HashMap<Class, MessageCodec>();
@@ -48,6 +78,27 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 	@SuppressWarnings("rawtypes")
 	protected Map<Class, CommandCallback> commandCallbacks = new HashMap<Class, CommandCallback>();
 
+	/*
+	 * Optional on-disk store used for messages published while disconnected, and
+	 * the number of values to keep per event ID when forwarding the backlog
+	 */
+	private SegmentStore messageStore = null;
+	private Map<String, Integer> storeCompaction = new ConcurrentHashMap<String, Integer>();
+	private Thread storeForwarder = null;
+
+	/*
+	 * Events summarised over tumbling windows, by event ID, and the timer that
+	 * closes the windows
+	 */
+	private final Map<String, Aggregation> aggregations = new ConcurrentHashMap<String, Aggregation>();
+	private Timer aggregationTimer = null;
+
+	/* Events only published when their values change, by event ID */
+	private final Map<String, DeadbandFilter> deadbands = new ConcurrentHashMap<String, DeadbandFilter>();
+
+	/* Processes commands on virtual threads, null to process them on the MQTT callback thread */
+	private Dispatcher dispatcher = null;
+
 	public DeviceClient() throws Exception {
 		this(DeviceConfig.generateFromEnv());
 	}
@@ -65,6 +116,19 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 	public DeviceClient(DeviceConfig config) throws Exception {
 		super(config);
 		configureMqttClient(this);
+
+		DeviceConfigOptionsMqtt mqttOptions = config.options.mqtt;
+		if (mqttOptions.storeAndForwardDir != null) {
+			messageStore = new SegmentStore(new File(mqttOptions.storeAndForwardDir),
+					mqttOptions.storeAndForwardSegmentSize, mqttOptions.storeAndForwardMaxSegments);
+		}
+		if (mqttOptions.dispatchVirtualThreads) {
+			if (VirtualThreads.isAvailable()) {
+				dispatcher = new KeyedDispatcher(VirtualThreads.factory(), mqttOptions.dispatchQueueSize);
+			} else {
+				LOG.warn("Virtual threads need Java 21 or later, not dispatching on them");
+			}
+		}
 	}
 
 	/**
@@ -103,18 +167,45 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 
 	/**
 	 * Publish data to the IBM Watson IoT Platform.<br>
+	 * If the event is summarised over tumbling windows, see
+	 * {@link #setAggregation(String, long, int)}, the data is added to the current
+	 * window instead. If the event is reported by exception, see
+	 * {@link #setDeadband(String, double, double, long)}, data that has not
+	 * changed enough is not published. The event is published with the
+	 * priority set for its ID, see {@link #setPriority(String, Priority)}.
 	 * 
 	 * @param eventId object of String which denotes event
 	 * @param data    Payload data
 	 * @param qos     Quality of Service, in int - can have values 0,1,2
 	 * @return Whether the send was successful.
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public boolean publishEvent(String eventId, Object data, int qos) {
+		return publishEvent(eventId, data, qos, getPriority(eventId));
+	}
+
+	/**
+	 * Publish data to the IBM Watson IoT Platform, in the given lane of the
+	 * outbound queue. <br>
+	 * Messages in higher lanes are sent first while the client is disconnected
+	 * or the in-flight window is full, and messages in lower lanes are discarded
+	 * first if the queue overflows.
+	 * 
+	 * @param eventId  object of String which denotes event
+	 * @param data     Payload data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane of the outbound queue
+	 * @return Whether the send was successful.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public boolean publishEvent(String eventId, Object data, int qos, Priority priority) {
 		if (data == null) {
 			throw new NullPointerException("Data object for event publish can not be null");
 		}
 
+		if (absorb(null, null, eventId, data)) {
+			return true;
+		}
+
 		// Find the codec for the data class
 		MessageCodec codec = messageCodecs.get(data.getClass());
 
@@ -123,25 +214,495 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 			LOG.warn("Unable to encode event of class " + data.getClass().getName());
 			return false;
 		}
-		byte[] payload = codec.encode(data, new DateTime());
-		String topic = "iot-2/evt/" + eventId + "/fmt/" + codec.getMessageFormat();
-		LOG.debug("Publishing event to " + topic);
+		byte[] payload = encode(codec, data, clock.millis());
+		return publishMessage("iot-2/evt/" + eventId + "/fmt/" + codec.getMessageFormat(), payload, qos, priority);
+	}
 
-		MqttMessage msg = new MqttMessage(payload);
-		msg.setQos(qos);
-		msg.setRetained(false);
+	public boolean publishEvent(String eventId, Object data) {
+		return publishEvent(eventId, data, 0);
+	}
 
-		try {
-			mqttAsyncClient.publish(topic, msg);
-		} catch (MqttException e) {
-			e.printStackTrace();
+	/**
+	 * Publish data to the IBM Watson IoT Platform without blocking. <br>
+	 * The returned future completes once the MQTT client reports the outcome of
+	 * the publish, for QoS 1 and 2 that is when the broker has acknowledged it.
+	 * Data that is summarised or reported by exception is handled as by
+	 * {@link #publishEvent(String, Object, int)}, and the future completes
+	 * straight away with a null token.
+	 * 
+	 * @param eventId object of String which denotes event
+	 * @param data    Payload data
+	 * @param qos     Quality of Service, in int - can have values 0,1,2
+	 * @return Future completed with the delivery token, or completed
+	 *         exceptionally if the event could not be published
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public CompletableFuture<IMqttToken> publishEventAsync(String eventId, Object data, int qos) {
+		if (data == null) {
+			throw new NullPointerException("Data object for event publish can not be null");
+		}
+		if (absorb(null, null, eventId, data)) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// Find the codec for the data class
+		MessageCodec codec = messageCodecs.get(data.getClass());
+
+		// Check that a codec is registered
+		if (codec == null) {
+			LOG.warn("Unable to encode event of class " + data.getClass().getName());
+			CompletableFuture<IMqttToken> future = new CompletableFuture<IMqttToken>();
+			future.completeExceptionally(
+					new IllegalArgumentException("Unable to encode event of class " + data.getClass().getName()));
+			return future;
+		}
+		byte[] payload = encode(codec, data, clock.millis());
+		return publishMessageAsync("iot-2/evt/" + eventId + "/fmt/" + codec.getMessageFormat(), payload, qos,
+				getPriority(eventId));
+	}
+
+	public CompletableFuture<IMqttToken> publishEventAsync(String eventId, Object data) {
+		return publishEventAsync(eventId, data, 0);
+	}
+
+	/**
+	 * Publish a batch of events to the IBM Watson IoT Platform. <br>
+	 * The whole batch is encoded before any of it is submitted, and the
+	 * messages are then handed to the MQTT client back-to-back. Events that
+	 * cannot be encoded are reported as failures in the returned result. Data
+	 * that is summarised or reported by exception is handled as by
+	 * {@link #publishEvent(String, Object, int)}, and reported as successful.
+	 * 
+	 * @param events the events to publish
+	 * @return The aggregate completion of the batch
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BatchPublishResult publishEvents(Collection<OutboundEvent> events) {
+		BatchPublishResult batch = new BatchPublishResult(new ArrayList<OutboundEvent>(events));
+		String[] topics = new String[batch.size()];
+		byte[][] payloads = new byte[batch.size()][];
+		long now = clock.millis();
+
+		int i = 0;
+		for (OutboundEvent event : batch.getEvents()) {
+			if (event.getData() != null && absorb(null, null, event.getEventId(), event.getData())) {
+				skipBatchEntry(batch, i++);
+				continue;
+			}
+			MessageCodec codec = event.getData() == null ? null : messageCodecs.get(event.getData().getClass());
+			if (codec == null) {
+				failBatchEntry(batch, i++, new IllegalArgumentException("Unable to encode " + event));
+				continue;
+			}
+			payloads[i] = encode(codec, event.getData(), now);
+			topics[i++] = "iot-2/evt/" + event.getEventId() + "/fmt/" + codec.getMessageFormat();
+		}
+
+		submitBatch(batch, topics, payloads);
+		return batch;
+	}
+
+	/**
+	 * Summarise an event over tumbling windows instead of publishing every
+	 * sample. <br>
+	 * Once set, the numeric top-level properties of the data published for the
+	 * event, through any of the publish methods or an {@link EventPublisher},
+	 * and the values passed to {@link #addSample(String, String, double)}, are
+	 * collected rather than published. At the end of each window one JSON event is published
+	 * under the same event ID, holding the min, max, mean, count and last of
+	 * each value. Windows are aligned to the client's clock, see
+	 * {@link #setClock(java.time.Clock)}, and nothing is published for a window
+	 * without samples.
+	 * 
+	 * @param eventId      object of String which denotes event
+	 * @param windowMillis length of the window in milliseconds
+	 * @param qos          Quality of Service of the summaries, in int - can have
+	 *                     values 0,1,2
+	 */
+	public synchronized void setAggregation(String eventId, long windowMillis, int qos) {
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("Aggregation window must be positive");
+		}
+		removeAggregation(eventId);
+		if (aggregationTimer == null) {
+			aggregationTimer = new Timer("wiotp-aggregation", true);
+		}
+
+		final Aggregation aggregation = new Aggregation(eventId, qos);
+		aggregations.put(eventId, aggregation);
+		aggregationTimer.scheduleAtFixedRate(aggregation, windowMillis - clock.millis() % windowMillis,
+				windowMillis);
+	}
+
+	/**
+	 * Stop summarising an event, publishing the summary of the current window
+	 * 
+	 * @param eventId object of String which denotes event
+	 */
+	public synchronized void removeAggregation(String eventId) {
+		Aggregation aggregation = aggregations.remove(eventId);
+		if (aggregation != null) {
+			aggregation.cancel();
+			aggregation.run();
+		}
+	}
+
+	/**
+	 * Add a numeric sample of an event that is summarised over tumbling
+	 * windows, without going through a codec
+	 * 
+	 * @param eventId object of String which denotes event
+	 * @param name    the name of the value in the summary
+	 * @param value   the sampled value
+	 * @return Whether the event is being summarised and the sample was added
+	 */
+	public boolean addSample(String eventId, String name, double value) {
+		return aggregate(eventId, "iot-2/evt/" + eventId + "/fmt/json", name, value);
+	}
+
+	/**
+	 * Whether the data of an event is added to an aggregation window or held
+	 * back by a deadband, rather than published. The topic of the event is only
+	 * built if the event is summarised or reported by exception.
+	 * 
+	 * @param typeId   object of String which denotes the deviceType the event is
+	 *                 published on the behalf of, or null for the client's own
+	 *                 events
+	 * @param deviceId object of String which denotes the deviceId the event is
+	 *                 published on the behalf of, or null for the client's own
+	 *                 events
+	 * @param eventId  object of String which denotes event
+	 * @param data     the data, a JsonObject or an object gson can serialise
+	 * @return Whether the data must not be published
+	 */
+	protected boolean absorb(String typeId, String deviceId, String eventId, Object data) {
+		if (!aggregations.containsKey(eventId) && !deadbands.containsKey(eventId)) {
+			return false;
+		}
+		String path = typeId == null ? "iot-2/evt/" + eventId
+				: "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId;
+		return absorb(eventId, path, data);
+	}
+
+	/*
+	 * The path is the topic of the event without the "/fmt/" suffix, which
+	 * identifies the source of the data
+	 */
+	private boolean absorb(String eventId, String path, Object data) {
+		return aggregate(eventId, path + "/fmt/json", data) || suppress(eventId, path, data);
+	}
+
+	@Override
+	protected boolean absorbEvent(String topic, Object data) {
+		if (aggregations.isEmpty() && deadbands.isEmpty()) {
+			return false;
+		}
+		int format = topic.lastIndexOf("/fmt/");
+		String eventId = eventIdOf(topic);
+		if (format < 0 || eventId.isEmpty()) {
+			return false;
+		}
+		return absorb(eventId, topic.substring(0, format), data);
+	}
+
+	/**
+	 * Add a sample to the current window of its topic, if the event is being
+	 * summarised
+	 * 
+	 * @param eventId object of String which denotes event
+	 * @param topic   the topic the summary is published to
+	 * @param data    the sample, a JsonObject or an object gson can serialise
+	 * @return Whether the sample was consumed by the aggregation
+	 */
+	protected boolean aggregate(String eventId, String topic, Object data) {
+		Aggregation aggregation = aggregations.get(eventId);
+		if (aggregation == null) {
 			return false;
 		}
+		JsonElement sample = data instanceof JsonElement ? (JsonElement) data : gson.toJsonTree(data);
+		if (sample.isJsonObject()) {
+			aggregation.window(topic).add(sample.getAsJsonObject());
+		}
 		return true;
 	}
 
-	public boolean publishEvent(String eventId, Object data) {
-		return publishEvent(eventId, data, 0);
+	/**
+	 * Add a single named value to the current window of its topic, if the event
+	 * is being summarised
+	 * 
+	 * @param eventId object of String which denotes event
+	 * @param topic   the topic the summary is published to
+	 * @param name    the name of the value in the summary
+	 * @param value   the sampled value
+	 * @return Whether the sample was consumed by the aggregation
+	 */
+	protected boolean aggregate(String eventId, String topic, String name, double value) {
+		Aggregation aggregation = aggregations.get(eventId);
+		if (aggregation == null) {
+			return false;
+		}
+		aggregation.window(topic).add(name, value);
+		return true;
+	}
+
+	/*
+	 * The windows of one aggregated event, one per topic (a gateway publishes
+	 * the same event for many devices), closed by the aggregation timer
+	 */
+	private class Aggregation extends TimerTask {
+		private final String eventId;
+		private final int qos;
+		private final Map<String, WindowAggregator> windows = new ConcurrentHashMap<String, WindowAggregator>();
+
+		Aggregation(String eventId, int qos) {
+			this.eventId = eventId;
+			this.qos = qos;
+		}
+
+		WindowAggregator window(String topic) {
+			WindowAggregator window = windows.get(topic);
+			if (window == null) {
+				WindowAggregator created = new WindowAggregator();
+				window = windows.putIfAbsent(topic, created);
+				if (window == null) {
+					window = created;
+				}
+			}
+			return window;
+		}
+
+		@Override
+		public void run() {
+			for (Map.Entry<String, WindowAggregator> entry : windows.entrySet()) {
+				JsonObject summary = entry.getValue().drain();
+				if (summary != null) {
+					publishMessage(entry.getKey(), summary.toString().getBytes(UTF8), qos, getPriority(eventId));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Only publish an event when its values change (report by exception). <br>
+	 * Once set, every publish method, and every {@link EventPublisher}, skips
+	 * data for the event unless a numeric top-level property has changed by more
+	 * than the deadband since the last published data, or nothing has been
+	 * published for maxSilenceMillis. Skipped data is reported as successfully
+	 * published: the asynchronous methods complete with a null token.
+	 * 
+	 * @param eventId          object of String which denotes event
+	 * @param absolute         smallest absolute change that is published, or 0
+	 * @param percent          smallest change, as a percentage of the last
+	 *                         published value, that is published, or 0
+	 * @param maxSilenceMillis longest time without publishing the event, or 0 for
+	 *                         no limit
+	 */
+	public void setDeadband(String eventId, double absolute, double percent, long maxSilenceMillis) {
+		deadbands.put(eventId, new DeadbandFilter(absolute, percent, maxSilenceMillis));
+	}
+
+	/**
+	 * Publish every sample of an event again
+	 * 
+	 * @param eventId object of String which denotes event
+	 */
+	public void removeDeadband(String eventId) {
+		deadbands.remove(eventId);
+	}
+
+	/**
+	 * Whether data should be skipped because the event is reported by exception
+	 * and it has not changed enough
+	 * 
+	 * @param eventId object of String which denotes event
+	 * @param key     identifies the source of the data (the device, for a
+	 *                gateway) so each is compared with its own last value
+	 * @param data    the data, a JsonObject or an object gson can serialise
+	 * @return Whether the publish should be skipped
+	 */
+	protected boolean suppress(String eventId, String key, Object data) {
+		DeadbandFilter deadband = deadbands.get(eventId);
+		if (deadband == null) {
+			return false;
+		}
+		JsonElement sample = data instanceof JsonElement ? (JsonElement) data : gson.toJsonTree(data);
+		if (!sample.isJsonObject()) {
+			return false;
+		}
+		return !deadband.accept(key, sample.getAsJsonObject(), clock.millis());
+	}
+
+	/**
+	 * Keep only the most recent values of an event when forwarding messages that
+	 * were stored while disconnected. <br>
+	 * Only applies when store-and-forward is enabled with the
+	 * storeAndForwardDir option. Older values of the event are dropped from the
+	 * backlog (per device, for a gateway) instead of being sent to the platform.
+	 * 
+	 * @param eventId  object of String which denotes event
+	 * @param keepLast how many of the most recent values to forward, or 0 to
+	 *                 forward all of them
+	 */
+	public void setStoreCompaction(String eventId, int keepLast) {
+		if (keepLast > 0) {
+			storeCompaction.put(eventId, keepLast);
+		} else {
+			storeCompaction.remove(eventId);
+		}
+	}
+
+	/**
+	 * When store-and-forward is enabled, messages published while disconnected
+	 * are appended to the on-disk store instead of the in-memory outbound queue.
+	 * Listeners of stored messages are notified once the message is forwarded
+	 * and sent, or of failure if it is dropped from the store by compaction, its
+	 * time-to-live or the segment limit. A stored message is only removed from
+	 * the store once its publish completes, so messages still queued or in
+	 * flight when the client stops are forwarded again when it restarts.
+	 * {@link Priority#CRITICAL} messages are kept in the outbound queue instead,
+	 * which is sent ahead of the stored backlog on reconnect.
+	 */
+	@Override
+	protected boolean submit(OutboundMessage message) {
+		if (messageStore != null && !mqttAsyncClient.isConnected() && message.getPriority() != Priority.CRITICAL) {
+			try {
+				messageStore.append(message);
+				return true;
+			} catch (IOException e) {
+				LOG.warn("Unable to store message to " + message.getTopic() + ", queueing it in memory", e);
+			}
+		}
+		return super.submit(message);
+	}
+
+	/*
+	 * Start forwarding the stored backlog, unless that is already in progress
+	 */
+	private synchronized void startStoreForwarder() {
+		if (messageStore == null || messageStore.isEmpty() || (storeForwarder != null && storeForwarder.isAlive())) {
+			return;
+		}
+		storeForwarder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				forwardStoredMessages();
+			}
+		}, "wiotp-store-forward");
+		storeForwarder.setDaemon(true);
+		storeForwarder.start();
+	}
+
+	/*
+	 * Read the stored backlog in order and hand it to the normal publish path at
+	 * the configured rate, while the client stays connected. The backlog is read
+	 * more slowly if the outbound queue is under pressure, so live data is not
+	 * crowded out.
+	 */
+	private void forwardStoredMessages() {
+		int rate = ((DeviceConfig) config).options.mqtt.storeAndForwardDrainRate;
+		long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		long next = System.nanoTime();
+		int forwarded = 0;
+		int dropped = 0;
+
+		try {
+			Map<String, Integer> remaining = countCompactedMessages();
+			while (!disconnectRequested && mqttAsyncClient.isConnected()) {
+				if (!outboundQueue.isWritable()) {
+					Thread.sleep(STORE_FORWARD_BACKOFF);
+					continue;
+				}
+				OutboundMessage message = messageStore.read();
+				if (message == null) {
+					break;
+				}
+
+				Integer left = remaining.get(message.getTopic());
+				if (left != null) {
+					remaining.put(message.getTopic(), left - 1);
+					// Compaction may have been turned off for the event since the count
+					Integer keepLast = storeCompaction.get(eventIdOf(message.getTopic()));
+					if (keepLast != null && left > keepLast) {
+						// Enough newer values of this event are stored behind this one
+						message.fail(new MessageDiscardedException(message.getTopic(), DiscardReason.COMPACTED));
+						dropped++;
+						continue;
+					}
+				}
+				if (message.isExpired(System.currentTimeMillis())) {
+					message.fail(new MessageDiscardedException(message.getTopic(), DiscardReason.EXPIRED));
+					dropped++;
+					continue;
+				}
+
+				if (interval > 0) {
+					long wait = next - System.nanoTime();
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					next = Math.max(next, System.nanoTime() - interval) + interval;
+				}
+				super.submit(message);
+				forwarded++;
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to read stored messages", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOG.info("Forwarded " + forwarded + " stored messages, dropped " + dropped + " compacted or expired messages");
+	}
+
+	/*
+	 * Count the stored messages of each topic that is subject to compaction
+	 */
+	private Map<String, Integer> countCompactedMessages() throws IOException {
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		if (!storeCompaction.isEmpty()) {
+			messageStore.scanUnread(new SegmentStore.TopicVisitor() {
+				@Override
+				public void visit(String topic) {
+					if (storeCompaction.containsKey(eventIdOf(topic))) {
+						Integer count = counts.get(topic);
+						counts.put(topic, count == null ? 1 : count + 1);
+					}
+				}
+			});
+		}
+		return counts;
+	}
+
+	private static String eventIdOf(String topic) {
+		int start = topic.indexOf("/evt/");
+		if (start < 0) {
+			return "";
+		}
+		start += "/evt/".length();
+		int end = topic.indexOf('/', start);
+		return topic.substring(start, end < 0 ? topic.length() : end);
+	}
+
+	/**
+	 * Obtain a publish handle for an event. <br>
+	 * The topic and codec are resolved once, so repeated publishes through the
+	 * handle avoid the per-call lookup done by
+	 * {@link #publishEvent(String, Object, int)}.
+	 * 
+	 * @param eventId   object of String which denotes event
+	 * @param dataClass the class of the data that will be published
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * @param <T>       the class of the data that will be published
+	 * @return The publish handle, or null if no codec is registered for the class
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> EventPublisher<T> getEventPublisher(String eventId, Class<T> dataClass, int qos) {
+		MessageCodec<T> codec = messageCodecs.get(dataClass);
+		if (codec == null) {
+			LOG.warn("Unable to encode event of class " + dataClass.getName());
+			return null;
+		}
+		return new EventPublisher<T>(this, "iot-2/evt/" + eventId + "/fmt/" + codec.getMessageFormat(), codec, qos,
+				getPriority(eventId));
 	}
 
 	/**
@@ -158,41 +719,65 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 
 	}
 
+	/**
+	 * A slot in the in-flight window has been freed, so send anything that is
+	 * waiting in the outbound queue
+	 */
 	@Override
 	public void deliveryComplete(IMqttDeliveryToken token) {
+		drainOutboundQueue();
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public void messageArrived(String topic, MqttMessage msg) {
+	public void messageArrived(String topic, final MqttMessage msg) {
 		if (!commandCallbacks.isEmpty()) {
 			/*
 			 * Only check whether the message is a command if a callback has been defined,
 			 * otherwise it is a waste of time as without a callback there is nothing to
 			 * process the generated command.
 			 */
-			Matcher matcher = COMMAND_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String command = matcher.group(1);
-				String format = matcher.group(2);
-
-				MessageCodec codec = messageCodecsByFormat.get(format);
-				// Check that a codec is registered
-				if (codec == null) {
-					LOG.warn("Unable to decode command from format " + format);
+			final Topic parsed = Topic.parse(topic);
+			if (parsed != null && parsed.getKind() == Topic.Kind.COMMAND) {
+				if (dispatcher == null) {
+					processCommand(parsed, msg);
+					return;
 				}
-				MessageInterface message = codec.decode(msg);
-				Command cmd = new Command(command, format, message);
-
-				LOG.debug("Command received: " + cmd.toString());
-
-				CommandCallback callback = commandCallbacks.get(codec.getMessageClass());
-				if (callback != null) {
-					callback.processCommand(cmd);
+				// Commands with the same ID are processed in order, different commands at once
+				try {
+					dispatcher.execute(parsed.getId(), new Runnable() {
+						@Override
+						public void run() {
+							processCommand(parsed, msg);
+						}
+					});
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOG.warn("Interrupted while dispatching command " + parsed.getId());
 				}
 			}
 		}
 	}
 
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void processCommand(Topic parsed, MqttMessage msg) {
+		String command = parsed.getId();
+		String format = parsed.getFormat();
+
+		MessageCodec codec = messageCodecsByFormat.get(format);
+		// Check that a codec is registered
+		if (codec == null) {
+			LOG.warn("Unable to decode command from format " + format);
+			return;
+		}
+		Command cmd = new Command(command, format, codec, msg);
+
+		LOG.debug("Command received: " + cmd.toString());
+
+		CommandCallback callback = commandCallbacks.get(codec.getMessageClass());
+		if (callback != null) {
+			callback.processCommand(cmd);
+		}
+	}
+
 	@Override
 	public void connectComplete(boolean reconnect, String serverURI) {
 		if (reconnect) {
@@ -205,6 +790,42 @@ public class DeviceClient extends AbstractClient implements MqttCallbackExtended
 				}
 			}
 		}
+		resumeOutbound();
+		startStoreForwarder();
+	}
+
+	/**
+	 * Close and free all MQTT client resources, and the store-and-forward
+	 * store if one is in use
+	 * 
+	 * @throws MqttException Thrown if an error occurs
+	 */
+	@Override
+	public void close() throws MqttException {
+		disconnectRequested = true;
+		synchronized (this) {
+			if (aggregationTimer != null) {
+				aggregationTimer.cancel();
+				aggregationTimer = null;
+			}
+		}
+		super.close();
+		if (dispatcher != null) {
+			try {
+				if (!dispatcher.shutdown(DISPATCH_SHUTDOWN_TIMEOUT)) {
+					LOG.warn("Command callbacks still busy after " + DISPATCH_SHUTDOWN_TIMEOUT + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (messageStore != null) {
+			try {
+				messageStore.close();
+			} catch (IOException e) {
+				LOG.warn("Unable to close store-and-forward store", e);
+			}
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -83,7 +83,7 @@ public class DeviceConfig implements AbstractConfig {
 
 		connectOptions.setCleanSession(this.options.mqtt.cleanStart);
 		connectOptions.setKeepAliveInterval(this.options.mqtt.keepAlive);
-		connectOptions.setMaxInflight(DEFAULT_MAX_INFLIGHT_MESSAGES);
+		connectOptions.setMaxInflight(getMaxInflight());
 		connectOptions.setAutomaticReconnect(true);
 
 		if (!Arrays.asList(1883, 80).contains(options.mqtt.port)) {
@@ -156,4 +156,55 @@ public class DeviceConfig implements AbstractConfig {
 	public String getHttpApiBasePath() {
 		return "https://" + getOrgId() + "." + options.domain + "/api/v0002";
 	}
+
+	@Override
+	public int getOutboundQueueSize() {
+		return options.mqtt.outboundQueueSize;
+	}
+
+	@Override
+	public String getOutboundQueuePolicy() {
+		return options.mqtt.outboundQueuePolicy;
+	}
+
+	@Override
+	public int getOutboundQueueTimeout() {
+		return options.mqtt.outboundQueueTimeout;
+	}
+
+	@Override
+	public int getMessageTtl() {
+		return options.mqtt.messageTtl;
+	}
+
+	@Override
+	public String getPersistence() {
+		return options.mqtt.persistence;
+	}
+
+	@Override
+	public String getPersistenceDir() {
+		return options.mqtt.persistenceDir;
+	}
+
+	@Override
+	public int getPersistenceSyncInterval() {
+		return options.mqtt.persistenceSyncInterval;
+	}
+
+	@Override
+	public int getMaxInflight() {
+		return options.mqtt.maxInflight;
+	}
+
+	@Override
+	public int getMinInflight() {
+		return options.mqtt.minInflight;
+	}
+
+	@Override
+	public boolean isAdaptiveInflight() {
+		return options.mqtt.adaptiveInflight;
+	}
+
 }
@@ -2,6 +2,8 @@ package com.ibm.wiotp.sdk.device.config;
 
 import java.util.Map;
 
+import com.ibm.wiotp.sdk.AbstractConfig;
+
 public class DeviceConfigOptionsMqtt {
 	public int port = 8883;
 	public String transport = "tcp"; // or "websockets"
@@ -9,6 +11,22 @@ public class DeviceConfigOptionsMqtt {
 	public boolean cleanStart = true;
 	public int sessionExpiry = 60;
 	public int keepAlive = 60;
+	public int outboundQueueSize = 5000;
+	public String outboundQueuePolicy = "dropNewest"; // or "block", "dropOldest", "reject"
+	public int outboundQueueTimeout = 10000; // milliseconds, used by the "block" policy
+	public int messageTtl = 0; // seconds, 0 means queued messages never expire
+	public String storeAndForwardDir = null; // store messages on disk while disconnected when set
+	public int storeAndForwardSegmentSize = 16 * 1024 * 1024; // bytes
+	public int storeAndForwardMaxSegments = 64; // 0 means no limit
+	public int storeAndForwardDrainRate = 0; // messages per second, 0 means no limit
+	public String persistence = "memory"; // or "mmap"
+	public String persistenceDir = null; // used by "mmap", defaults to the working directory
+	public int persistenceSyncInterval = 100; // milliseconds, 0 means sync on every change
+	public int maxInflight = AbstractConfig.DEFAULT_MAX_INFLIGHT_MESSAGES; // upper bound of the in-flight window
+	public int minInflight = 1; // lower bound of the in-flight window
+	public boolean adaptiveInflight = false; // size the window from acknowledgement latency, off by default
+	public boolean dispatchVirtualThreads = false; // on Java 21+, a virtual thread per command being processed
+	public int dispatchQueueSize = 1000; // commands that can be waiting or processed at once
 
 	public DeviceConfigOptionsMqtt() {
 	}
@@ -49,6 +67,59 @@ public class DeviceConfigOptionsMqtt {
 		if (System.getenv("WIOTP_OPTIONS_MQTT_KEEPALIVE") != null)
 			mqtt.keepAlive = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_KEEPALIVE"));
 
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUESIZE") != null)
+			mqtt.outboundQueueSize = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUESIZE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUEPOLICY") != null)
+			mqtt.outboundQueuePolicy = System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUEPOLICY");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUETIMEOUT") != null)
+			mqtt.outboundQueueTimeout = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_OUTBOUNDQUEUETIMEOUT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MESSAGETTL") != null)
+			mqtt.messageTtl = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MESSAGETTL"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDDIR") != null)
+			mqtt.storeAndForwardDir = System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDDIR");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDSEGMENTSIZE") != null)
+			mqtt.storeAndForwardSegmentSize = Integer
+					.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDSEGMENTSIZE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDMAXSEGMENTS") != null)
+			mqtt.storeAndForwardMaxSegments = Integer
+					.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDMAXSEGMENTS"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDDRAINRATE") != null)
+			mqtt.storeAndForwardDrainRate = Integer
+					.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_STOREANDFORWARDDRAINRATE"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCE") != null)
+			mqtt.persistence = System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCE");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCEDIR") != null)
+			mqtt.persistenceDir = System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCEDIR");
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCESYNCINTERVAL") != null)
+			mqtt.persistenceSyncInterval = Integer
+					.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_PERSISTENCESYNCINTERVAL"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MAXINFLIGHT") != null)
+			mqtt.maxInflight = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MAXINFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_MININFLIGHT") != null)
+			mqtt.minInflight = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_MININFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_ADAPTIVEINFLIGHT") != null)
+			mqtt.adaptiveInflight = Boolean.parseBoolean(System.getenv("WIOTP_OPTIONS_MQTT_ADAPTIVEINFLIGHT"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHVIRTUALTHREADS") != null)
+			mqtt.dispatchVirtualThreads = Boolean
+					.parseBoolean(System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHVIRTUALTHREADS"));
+
+		if (System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHQUEUESIZE") != null)
+			mqtt.dispatchQueueSize = Integer.parseInt(System.getenv("WIOTP_OPTIONS_MQTT_DISPATCHQUEUESIZE"));
+
 		return mqtt;
 	}
 
@@ -74,6 +145,54 @@ public class DeviceConfigOptionsMqtt {
 		if (yamlMqtt.get("keepAlive") != null)
 			mqtt.keepAlive = Integer.parseInt((String) yamlMqtt.get("keepAlive"));
 
+		if (yamlMqtt.get("outboundQueueSize") != null)
+			mqtt.outboundQueueSize = Integer.parseInt((String) yamlMqtt.get("outboundQueueSize"));
+
+		if (yamlMqtt.get("outboundQueuePolicy") != null)
+			mqtt.outboundQueuePolicy = (String) yamlMqtt.get("outboundQueuePolicy");
+
+		if (yamlMqtt.get("outboundQueueTimeout") != null)
+			mqtt.outboundQueueTimeout = Integer.parseInt((String) yamlMqtt.get("outboundQueueTimeout"));
+
+		if (yamlMqtt.get("messageTtl") != null)
+			mqtt.messageTtl = Integer.parseInt((String) yamlMqtt.get("messageTtl"));
+
+		if (yamlMqtt.get("storeAndForwardDir") != null)
+			mqtt.storeAndForwardDir = (String) yamlMqtt.get("storeAndForwardDir");
+
+		if (yamlMqtt.get("storeAndForwardSegmentSize") != null)
+			mqtt.storeAndForwardSegmentSize = Integer.parseInt((String) yamlMqtt.get("storeAndForwardSegmentSize"));
+
+		if (yamlMqtt.get("storeAndForwardMaxSegments") != null)
+			mqtt.storeAndForwardMaxSegments = Integer.parseInt((String) yamlMqtt.get("storeAndForwardMaxSegments"));
+
+		if (yamlMqtt.get("storeAndForwardDrainRate") != null)
+			mqtt.storeAndForwardDrainRate = Integer.parseInt((String) yamlMqtt.get("storeAndForwardDrainRate"));
+
+		if (yamlMqtt.get("persistence") != null)
+			mqtt.persistence = (String) yamlMqtt.get("persistence");
+
+		if (yamlMqtt.get("persistenceDir") != null)
+			mqtt.persistenceDir = (String) yamlMqtt.get("persistenceDir");
+
+		if (yamlMqtt.get("persistenceSyncInterval") != null)
+			mqtt.persistenceSyncInterval = Integer.parseInt((String) yamlMqtt.get("persistenceSyncInterval"));
+
+		if (yamlMqtt.get("maxInflight") != null)
+			mqtt.maxInflight = Integer.parseInt((String) yamlMqtt.get("maxInflight"));
+
+		if (yamlMqtt.get("minInflight") != null)
+			mqtt.minInflight = Integer.parseInt((String) yamlMqtt.get("minInflight"));
+
+		if (yamlMqtt.get("adaptiveInflight") != null)
+			mqtt.adaptiveInflight = Boolean.parseBoolean((String) yamlMqtt.get("adaptiveInflight"));
+
+		if (yamlMqtt.get("dispatchVirtualThreads") != null)
+			mqtt.dispatchVirtualThreads = Boolean.parseBoolean((String) yamlMqtt.get("dispatchVirtualThreads"));
+
+		if (yamlMqtt.get("dispatchQueueSize") != null)
+			mqtt.dispatchQueueSize = Integer.parseInt((String) yamlMqtt.get("dispatchQueueSize"));
+
 		return mqtt;
 	}
-}
\ No newline at end of file
+}
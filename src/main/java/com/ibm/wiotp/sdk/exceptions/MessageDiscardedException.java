@@ -0,0 +1,20 @@
+package com.ibm.wiotp.sdk.exceptions;
+
+import com.ibm.wiotp.sdk.outbound.DiscardReason;
+
+public class MessageDiscardedException extends RuntimeException {
+
+	private static final long serialVersionUID = -4270719442402546201L;
+
+	private DiscardReason reason;
+
+	public MessageDiscardedException(String topic, DiscardReason reason) {
+		super("Message to " + topic + " was discarded (" + reason + ")");
+		this.reason = reason;
+	}
+
+	public DiscardReason getReason() {
+		return reason;
+	}
+
+}
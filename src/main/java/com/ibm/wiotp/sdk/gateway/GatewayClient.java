@@ -11,24 +11,33 @@
 
 package com.ibm.wiotp.sdk.gateway;
 
-import java.nio.charset.Charset;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
-import com.ibm.wiotp.sdk.MessageInterface;
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.EventPublisher;
+import com.ibm.wiotp.sdk.OutboundEvent;
+import com.ibm.wiotp.sdk.Topic;
+import com.ibm.wiotp.sdk.codecs.JsonCodec;
 import com.ibm.wiotp.sdk.codecs.MessageCodec;
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
 import com.ibm.wiotp.sdk.device.Command;
 import com.ibm.wiotp.sdk.device.CommandCallback;
 import com.ibm.wiotp.sdk.device.DeviceClient;
 import com.ibm.wiotp.sdk.gateway.config.GatewayConfig;
+import com.ibm.wiotp.sdk.outbound.EventPacker;
+import com.ibm.wiotp.sdk.outbound.Priority;
 
 /**
  * A client, used by Gateway, that simplifies the Gateway interactions with IBM
@@ -59,7 +68,11 @@ import com.ibm.wiotp.sdk.gateway.config.GatewayConfig;
  */
 public class GatewayClient extends DeviceClient implements MqttCallbackExtended {
 	private static final Logger LOG = LoggerFactory.getLogger(GatewayClient.class);
-	private static final Pattern GATEWAY_COMMAND_PATTERN = Pattern.compile("iot-2/type/(.+)/id/(.+)/cmd/(.+)/fmt/(.+)");
+
+	/* Device events coalesced into packed gateway events, when packing is set */
+	private volatile EventPacker packer = null;
+	private volatile int packingQos = 0;
+	private Timer packingTimer = null;
 
 	/**
 	 * <p>
@@ -92,6 +105,15 @@ public class GatewayClient extends DeviceClient implements MqttCallbackExtended
 	/**
 	 * Publish an event on the behalf of a device to the IBM Watson IoT Platform.
 	 * <br>
+	 * The data is encoded with the codec registered for its class, as for
+	 * {@link #publishEvent(String, Object, int)}; data of any other class is
+	 * serialised to JSON. If the event is summarised over tumbling windows, see
+	 * {@link #setAggregation(String, long, int)}, the data is added to the
+	 * current window of the device instead. If the event is reported by
+	 * exception, see {@link #setDeadband(String, double, double, long)}, data
+	 * that has not changed enough since the last publish for the device is not
+	 * published. The event is published with the priority set for its ID, see
+	 * {@link #setPriority(String, Priority)}.
 	 * 
 	 * @param typeId   object of String which denotes deviceType
 	 * @param deviceId object of String which denotes deviceId
@@ -102,31 +124,262 @@ public class GatewayClient extends DeviceClient implements MqttCallbackExtended
 	 * @return Whether the send was successful.
 	 */
 	public boolean publishDeviceEvent(String typeId, String deviceId, String eventId, Object data, int qos) {
-		Object payload = null;
-		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/json";
+		return publishDeviceEvent(typeId, deviceId, eventId, data, qos, getPriority(eventId));
+	}
+
+	/**
+	 * Publish an event on the behalf of a device to the IBM Watson IoT Platform,
+	 * in the given lane of the outbound queue. <br>
+	 * {@link Priority#CRITICAL} events, and events with a higher QoS than packs
+	 * are published with, are never held back in a pack, see
+	 * {@link #setPacking(int, long, int)}.
+	 * 
+	 * @param typeId   object of String which denotes deviceType
+	 * @param deviceId object of String which denotes deviceId
+	 * @param eventId  object of String which denotes event
+	 * @param data     Payload data
+	 * @param qos      Quality of Service, in int - can have values 0,1,2
+	 * @param priority the lane of the outbound queue
+	 * 
+	 * @return Whether the send was successful.
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean publishDeviceEvent(String typeId, String deviceId, String eventId, Object data, int qos,
+			Priority priority) {
 		// Handle null object
 		if (data == null) {
 			data = new JsonObject();
 		}
-		payload = gson.toJsonTree(data);
+		if (absorb(typeId, deviceId, eventId, data)) {
+			return true;
+		}
 
-		LOG.debug("Topic   = " + topic);
-		LOG.debug("Payload = " + payload.toString());
+		MessageCodec codec = messageCodecs.get(data.getClass());
+		byte[] payload = encodeDeviceEvent(codec, data, clock.millis());
 
-		MqttMessage msg = new MqttMessage(payload.toString().getBytes(Charset.forName("UTF-8")));
-		msg.setQos(qos);
-		msg.setRetained(false);
+		String format = codec == null ? "json" : codec.getMessageFormat();
+		EventPacker packer = this.packer;
+		// Packing must not lower the delivery guarantee asked for
+		if (packer != null && priority != Priority.CRITICAL && qos <= packingQos
+				&& packer.fits(typeId, deviceId, eventId, format, payload.length)) {
+			try {
+				byte[] pack = packer.add(typeId, deviceId, eventId, format, payload);
+				return pack == null || publishPack(pack);
+			} catch (IllegalStateException e) {
+				// Packing was removed since the packer was read, so publish the event on its own
+			}
+		}
 
-		try {
-			mqttAsyncClient.publish(topic, msg);
-		} catch (MqttPersistenceException e) {
-			e.printStackTrace();
-			return false;
-		} catch (MqttException e) {
-			e.printStackTrace();
-			return false;
+		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/" + format;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Topic   = " + topic);
+			LOG.debug("Payload = " + payload.length + " bytes");
 		}
-		return true;
+		return publishMessage(topic, payload, qos, priority);
+	}
+
+	/**
+	 * Coalesce the events published on the behalf of devices into packed events
+	 * of the gateway. <br>
+	 * Once set, {@link #publishDeviceEvent(String, String, String, Object, int)}
+	 * adds each encoded event to the current pack instead of publishing it. A
+	 * pack is published as the event "packed" of the gateway, in the format
+	 * "packed", once the next event would take it past maxBytes, and at the
+	 * latest maxLatencyMillis after it was started. An
+	 * {@link com.ibm.wiotp.sdk.app.ApplicationClient} subscribed to the events
+	 * of the gateway unpacks them and delivers each event to its callbacks as if
+	 * it had been published on its own. Events that alone are too large for a
+	 * pack, and events published with a higher QoS than qos, are published on
+	 * their own, so packing never lowers the QoS of an event.
+	 * 
+	 * @param maxBytes         largest packed payload, in bytes
+	 * @param maxLatencyMillis longest time in milliseconds an event waits in a
+	 *                         pack
+	 * @param qos              Quality of Service of the packed events, in int -
+	 *                         can have values 0,1,2
+	 */
+	public synchronized void setPacking(int maxBytes, long maxLatencyMillis, int qos) {
+		if (maxBytes <= 0 || maxLatencyMillis <= 0) {
+			throw new IllegalArgumentException("Packing size and latency must be positive");
+		}
+		removePacking();
+		// The QoS is set first, so an event never sees the new packer with the old QoS
+		packingQos = qos;
+		packer = new EventPacker(maxBytes);
+		packingTimer = new Timer("wiotp-packing", true);
+		packingTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				flushPacking();
+			}
+		}, maxLatencyMillis, maxLatencyMillis);
+	}
+
+	/**
+	 * Stop packing device events, publishing the current pack. Events being
+	 * published meanwhile are published on their own.
+	 */
+	public synchronized void removePacking() {
+		if (packingTimer != null) {
+			packingTimer.cancel();
+			packingTimer = null;
+		}
+		EventPacker packer = this.packer;
+		if (packer != null) {
+			this.packer = null;
+			byte[] pack = packer.close();
+			if (pack != null) {
+				publishPack(pack);
+			}
+		}
+	}
+
+	/**
+	 * Publish the current pack of device events now, rather than waiting for it
+	 * to fill up or for the latency budget to run out
+	 * 
+	 * @return Whether the send was successful, true if there was nothing to send
+	 */
+	public boolean flushPacking() {
+		EventPacker packer = this.packer;
+		byte[] pack = packer == null ? null : packer.drain();
+		return pack == null || publishPack(pack);
+	}
+
+	private boolean publishPack(byte[] pack) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Publishing packed events, " + pack.length + " bytes");
+		}
+		return publishMessage("iot-2/evt/" + EventPacker.EVENT_ID + "/fmt/" + EventPacker.FORMAT, pack, packingQos);
+	}
+
+	/**
+	 * Publish the same event on the behalf of many devices of one type to the
+	 * IBM Watson IoT Platform. <br>
+	 * Every event is encoded before any is submitted, and the messages are then
+	 * handed to the MQTT client back-to-back, see
+	 * {@link #publishEvents(Collection)}.
+	 * 
+	 * @param typeId  object of String which denotes deviceType
+	 * @param eventId object of String which denotes event
+	 * @param data    the payload data of each device, keyed by deviceId
+	 * @param qos     Quality of Service, in int - can have values 0,1,2
+	 * @return The aggregate completion of the batch, in the iteration order of
+	 *         the map
+	 */
+	public BatchPublishResult publishDeviceEvents(String typeId, String eventId, Map<String, ?> data, int qos) {
+		List<OutboundEvent> events = new ArrayList<OutboundEvent>(data.size());
+		for (Map.Entry<String, ?> entry : data.entrySet()) {
+			events.add(new OutboundEvent(typeId, entry.getKey(), eventId, entry.getValue(), qos));
+		}
+		return publishEvents(events);
+	}
+
+	/*
+	 * Encode the data of a device event with the codec registered for its class,
+	 * or as JSON if there is none
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private byte[] encodeDeviceEvent(MessageCodec codec, Object data, long timestamp) {
+		if (codec != null) {
+			return encode(codec, data, timestamp);
+		}
+		PayloadBuffer buffer = PayloadBuffer.pooled();
+		JsonCodec.writeJson(data, buffer);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Add a numeric sample of an event, on the behalf of a device, that is
+	 * summarised over tumbling windows. <br>
+	 * A separate summary is published for each device, see
+	 * {@link #setAggregation(String, long, int)}.
+	 * 
+	 * @param typeId   object of String which denotes deviceType
+	 * @param deviceId object of String which denotes deviceId
+	 * @param eventId  object of String which denotes event
+	 * @param name     the name of the value in the summary
+	 * @param value    the sampled value
+	 * @return Whether the event is being summarised and the sample was added
+	 */
+	public boolean addDeviceSample(String typeId, String deviceId, String eventId, String name, double value) {
+		return aggregate(eventId, "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/json", name,
+				value);
+	}
+
+	/**
+	 * Publish a batch of events to the IBM Watson IoT Platform. <br>
+	 * Events that carry a device type and ID are published on the behalf of that
+	 * device, in the same way as
+	 * {@link #publishDeviceEvent(String, String, String, Object, int)}, all other
+	 * events are published as events of the gateway itself.
+	 * 
+	 * @param events the events to publish
+	 * @return The aggregate completion of the batch
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public BatchPublishResult publishEvents(Collection<OutboundEvent> events) {
+		BatchPublishResult batch = new BatchPublishResult(new ArrayList<OutboundEvent>(events));
+		String[] topics = new String[batch.size()];
+		byte[][] payloads = new byte[batch.size()][];
+		long now = clock.millis();
+
+		int i = 0;
+		for (OutboundEvent event : batch.getEvents()) {
+			if (event.getTypeId() != null) {
+				Object data = event.getData() == null ? new JsonObject() : event.getData();
+				if (absorb(event.getTypeId(), event.getDeviceId(), event.getEventId(), data)) {
+					skipBatchEntry(batch, i++);
+					continue;
+				}
+				MessageCodec codec = messageCodecs.get(data.getClass());
+				payloads[i] = encodeDeviceEvent(codec, data, now);
+				topics[i++] = "iot-2/type/" + event.getTypeId() + "/id/" + event.getDeviceId() + "/evt/"
+						+ event.getEventId() + "/fmt/" + (codec == null ? "json" : codec.getMessageFormat());
+				continue;
+			}
+			if (event.getData() != null && absorb(null, null, event.getEventId(), event.getData())) {
+				skipBatchEntry(batch, i++);
+				continue;
+			}
+			MessageCodec codec = event.getData() == null ? null : messageCodecs.get(event.getData().getClass());
+			if (codec == null) {
+				failBatchEntry(batch, i++, new IllegalArgumentException("Unable to encode " + event));
+				continue;
+			}
+			payloads[i] = encode(codec, event.getData(), now);
+			topics[i++] = "iot-2/evt/" + event.getEventId() + "/fmt/" + codec.getMessageFormat();
+		}
+
+		submitBatch(batch, topics, payloads);
+		return batch;
+	}
+
+	/**
+	 * Obtain a publish handle for events, on the behalf of a device. <br>
+	 * The topic and codec are resolved once, so repeated publishes through the
+	 * handle only need to encode the data.
+	 * 
+	 * @param typeId    object of String which denotes deviceType
+	 * @param deviceId  object of String which denotes deviceId
+	 * @param eventId   object of String which denotes event
+	 * @param dataClass the class of the data that will be published
+	 * @param qos       Quality of Service, in int - can have values 0,1,2
+	 * @param <T>       the class of the data that will be published
+	 * @return The publish handle, or null if no codec is registered for the class
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> EventPublisher<T> getDeviceEventPublisher(String typeId, String deviceId, String eventId,
+			Class<T> dataClass, int qos) {
+		MessageCodec<T> codec = messageCodecs.get(dataClass);
+		if (codec == null) {
+			LOG.warn("Unable to encode event of class " + dataClass.getName());
+			return null;
+		}
+		String topic = "iot-2/type/" + typeId + "/id/" + deviceId + "/evt/" + eventId + "/fmt/"
+				+ codec.getMessageFormat();
+		return new EventPublisher<T>(this, topic, codec, qos, getPriority(eventId));
 	}
 
 	/**
@@ -166,6 +419,21 @@ public class GatewayClient extends DeviceClient implements MqttCallbackExtended
 		}
 	}
 
+	/**
+	 * Publish the current pack of device events, if any, and close the client
+	 */
+	@Override
+	public void close() throws MqttException {
+		synchronized (this) {
+			if (packingTimer != null) {
+				packingTimer.cancel();
+				packingTimer = null;
+			}
+		}
+		flushPacking();
+		super.close();
+	}
+
 	/**
 	 * <p>
 	 * This method is called by the MQTT library when a message(command) is sent by
@@ -183,18 +451,18 @@ public class GatewayClient extends DeviceClient implements MqttCallbackExtended
 			 * otherwise it is a waste of time as without a callback there is nothing to
 			 * process the generated command.
 			 */
-			Matcher matcher = GATEWAY_COMMAND_PATTERN.matcher(topic);
-			if (matcher.matches()) {
-				String command = matcher.group(1);
-				String format = matcher.group(2);
+			Topic parsed = Topic.parse(topic);
+			if (parsed != null && parsed.getKind() == Topic.Kind.DEVICE_COMMAND) {
+				String command = parsed.getId();
+				String format = parsed.getFormat();
 
 				MessageCodec codec = messageCodecsByFormat.get(format);
 				// Check that a codec is registered
 				if (codec == null) {
 					LOG.warn("Unable to decode command from format " + format);
+					return;
 				}
-				MessageInterface message = codec.decode(msg);
-				Command cmd = new Command(command, format, message);
+				Command cmd = new Command(command, format, codec, msg);
 
 				LOG.debug("Command received: " + cmd.toString());
 
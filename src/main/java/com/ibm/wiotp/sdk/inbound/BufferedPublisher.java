@@ -0,0 +1,276 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Reactive Streams publisher of inbound messages, fed by a callback. <br>
+ *
+ * Each subscriber has a buffer of its own, and is sent messages only as fast
+ * as it requests them. When a buffer is full, {@link #offer(Object)} waits for
+ * the subscriber to request more, for at most the maximum wait if one is set.
+ * A message that still does not fit is dropped for that subscriber and
+ * counted, and later messages are dropped for it straight away until its
+ * buffer has room again, so a stalled subscriber holds up the offering thread
+ * once rather than for every message. Messages that arrive while there are no
+ * subscribers are dropped without being counted. On Java 9 or later,
+ * org.reactivestreams.FlowAdapters turns the publisher into a
+ * java.util.concurrent.Flow.Publisher.
+ *
+ * @param <T> the class of the published messages
+ */
+public class BufferedPublisher<T> implements Publisher<T> {
+	private static final Logger LOG = LoggerFactory.getLogger(BufferedPublisher.class);
+
+	private final int bufferSize;
+	private final long maxWaitMillis;
+	private final AtomicLong dropped = new AtomicLong();
+	private final List<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<BufferedSubscription>();
+	private volatile boolean completed = false;
+
+	/**
+	 * @param bufferSize the number of messages buffered for each subscriber
+	 *                   that has not requested them yet
+	 */
+	public BufferedPublisher(int bufferSize) {
+		this(bufferSize, 0);
+	}
+
+	/**
+	 * @param bufferSize    the number of messages buffered for each subscriber
+	 *                      that has not requested them yet
+	 * @param maxWaitMillis longest time to wait for a subscriber with a full
+	 *                      buffer before dropping the message for it, 0 to wait
+	 *                      for as long as it takes
+	 */
+	public BufferedPublisher(int bufferSize, long maxWaitMillis) {
+		this.bufferSize = Math.max(1, bufferSize);
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber can not be null");
+		}
+		BufferedSubscription subscription = new BufferedSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		if (completed) {
+			subscription.complete();
+		} else {
+			// Only added once onSubscribe has returned, so no message can be sent during it
+			// other than from a request it makes
+			subscriptions.add(subscription);
+		}
+	}
+
+	/**
+	 * Hand a message to every subscriber, waiting while any of their buffers is
+	 * full, up to the maximum wait
+	 *
+	 * @param item the message
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public void offer(T item) throws InterruptedException {
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.offer(item);
+		}
+	}
+
+	/**
+	 * Complete every subscriber once it has been sent the messages already
+	 * buffered for it
+	 */
+	public void complete() {
+		completed = true;
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * @return The number of current subscribers
+	 */
+	public int getSubscribers() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * @return The number of messages dropped for subscribers whose buffer stayed
+	 *         full for longer than the maximum wait
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return The number of messages buffered across all subscribers
+	 */
+	public int getBuffered() {
+		int buffered = 0;
+		for (BufferedSubscription subscription : subscriptions) {
+			buffered += subscription.size();
+		}
+		return buffered;
+	}
+
+	private class BufferedSubscription implements Subscription {
+		private final Subscriber<? super T> subscriber;
+		private final ArrayDeque<T> buffer = new ArrayDeque<T>();
+		private final AtomicLong demand = new AtomicLong();
+		/* Drain requests, so that only one thread at a time signals the subscriber */
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled = false;
+		private volatile boolean done = false;
+		private volatile Throwable error = null;
+		private boolean terminated = false;
+		/* Set once a wait for room has timed out, until there is room again */
+		private boolean lagging = false;
+
+		BufferedSubscription(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		void offer(T item) throws InterruptedException {
+			synchronized (this) {
+				if (buffer.size() < bufferSize) {
+					lagging = false;
+				} else if (maxWaitMillis <= 0) {
+					while (!cancelled && !done && buffer.size() >= bufferSize) {
+						wait();
+					}
+				} else if (!lagging) {
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+					long remaining = deadline - System.nanoTime();
+					while (!cancelled && !done && buffer.size() >= bufferSize && remaining > 0) {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+						remaining = deadline - System.nanoTime();
+					}
+				}
+				if (cancelled || done) {
+					return;
+				}
+				if (buffer.size() >= bufferSize) {
+					if (!lagging) {
+						LOG.warn("Subscriber has not requested messages for " + maxWaitMillis
+								+ "ms, dropping messages for it until it does");
+					}
+					lagging = true;
+					dropped.incrementAndGet();
+					return;
+				}
+				lagging = false;
+				buffer.add(item);
+			}
+			drain();
+		}
+
+		void complete() {
+			done = true;
+			synchronized (this) {
+				notifyAll();
+			}
+			drain();
+		}
+
+		synchronized int size() {
+			return buffer.size();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Subscribers must request a positive number of messages: " + n);
+				complete();
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = demand.get();
+				next = current + n;
+				if (next < 0) {
+					next = Long.MAX_VALUE;
+				}
+			} while (!demand.compareAndSet(current, next));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			synchronized (this) {
+				buffer.clear();
+				notifyAll();
+			}
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				while (!cancelled && !terminated) {
+					if (error != null) {
+						terminate();
+						subscriber.onError(error);
+						break;
+					}
+					T item = null;
+					if (demand.get() > 0) {
+						synchronized (this) {
+							item = buffer.poll();
+							if (item != null) {
+								notifyAll();
+							}
+						}
+					}
+					if (item == null) {
+						if (done && size() == 0) {
+							terminate();
+							subscriber.onComplete();
+						}
+						break;
+					}
+					demand.decrementAndGet();
+					try {
+						subscriber.onNext(item);
+					} catch (RuntimeException e) {
+						// Subscribers must not throw, one that does is treated as cancelled
+						LOG.warn("Subscriber failed, cancelling its subscription", e);
+						cancel();
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void terminate() {
+			terminated = true;
+			subscriptions.remove(this);
+		}
+	}
+
+}
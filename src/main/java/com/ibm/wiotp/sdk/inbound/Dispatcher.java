@@ -0,0 +1,44 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+/**
+ * Runs inbound message processing off the MQTT callback thread. Tasks given
+ * the same key run one at a time, in the order they were queued.
+ */
+public interface Dispatcher {
+
+	/**
+	 * Queue a task, waiting for room if the dispatcher is full
+	 *
+	 * @param key  the key that orders tasks, e.g. the device ID
+	 * @param task the task to run
+	 * @throws InterruptedException  If interrupted while waiting for room
+	 * @throws IllegalStateException If the dispatcher has been shut down
+	 */
+	public void execute(String key, Runnable task) throws InterruptedException;
+
+	/**
+	 * @return The number of tasks waiting to run
+	 */
+	public int getQueueDepth();
+
+	/**
+	 * Stop accepting tasks, and let the tasks already queued run
+	 *
+	 * @param timeout milliseconds to wait for the queued tasks to finish, or 0
+	 *                to return straight away
+	 * @return Whether every queued task finished in time
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean shutdown(long timeout) throws InterruptedException;
+
+}
@@ -0,0 +1,283 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Recognises messages seen before within a time window, in a fixed amount of
+ * memory, to suppress QoS 1 redeliveries. <br>
+ *
+ * Keys are held in a ring of Bloom filters, one per slice of the window. A key
+ * is looked up in every filter but only added to the newest, and the oldest
+ * filter is cleared and reused each time a slice ends, so a key is remembered
+ * for at least the window and at most a slice longer. The filters are sized
+ * for the expected number of messages per window and the false positive rate,
+ * the chance of taking a new message for a duplicate; more messages than
+ * expected raise that rate rather than the memory used.
+ *
+ * <p>
+ * When the publishers number their messages, messages are keyed on their
+ * topic and a sequence field of the JSON payload, and any message whose key
+ * was seen within the window is a duplicate. Otherwise they are keyed on their
+ * topic and a hash of their payload; since a device may legitimately send the
+ * same payload twice, such a message is only a duplicate if the broker also
+ * flagged it as a redelivery. Every message is recorded either way.
+ * </p>
+ */
+public class DuplicateFilter {
+
+	/* Returned by sequence() when the payload has no such field */
+	private static final long NO_SEQUENCE = Long.MIN_VALUE;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int SLICES = 4;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long sliceMillis;
+	private final long[][] filters;
+	private final long bits;
+	private final int hashes;
+	/* The quoted name of the sequence field, or null to key on the payload */
+	private final byte[] sequenceField;
+
+	private int newest = 0;
+	private long sliceStart = Long.MIN_VALUE;
+	private long duplicates = 0;
+
+	/**
+	 * @param windowMillis      how long a message is remembered, in milliseconds
+	 * @param expectedMessages  the number of messages expected per window
+	 * @param falsePositiveRate the acceptable chance of taking a new message for
+	 *                          a duplicate, e.g. 0.001
+	 * @param sequenceField     the name of an integer field of JSON payloads to
+	 *                          key on instead of the payload hash, or null
+	 */
+	public DuplicateFilter(long windowMillis, int expectedMessages, double falsePositiveRate,
+			String sequenceField) {
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("Window must be positive: " + windowMillis);
+		}
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+		}
+		this.sliceMillis = Math.max(1, windowMillis / (SLICES - 1));
+
+		// Every filter is looked up, so each gets a share of the false positive rate
+		double perFilter = falsePositiveRate / SLICES;
+		double perSlice = Math.max(1, (double) expectedMessages / (SLICES - 1));
+		long m = (long) Math.ceil(-perSlice * Math.log(perFilter) / (Math.log(2) * Math.log(2)));
+		long words = Math.max(1, (m + 63) / 64);
+		this.bits = words * 64;
+		this.hashes = Math.max(1, (int) Math.round((double) bits / perSlice * Math.log(2)));
+		this.filters = new long[SLICES][(int) words];
+		this.sequenceField = sequenceField == null ? null : ("\"" + sequenceField + "\"").getBytes(UTF8);
+	}
+
+	/**
+	 * Record a message, and tell whether it is a duplicate of one seen within
+	 * the window
+	 *
+	 * @param topic       the MQTT topic
+	 * @param payload     the payload
+	 * @param redelivered whether the broker flagged the message as a possible
+	 *                    redelivery
+	 * @param now         the current time in milliseconds
+	 * @return Whether the message is a duplicate, or a false positive
+	 */
+	public boolean isDuplicate(String topic, byte[] payload, boolean redelivered, long now) {
+		if (sequenceField != null) {
+			long sequence = sequence(payload, sequenceField);
+			if (sequence != NO_SEQUENCE) {
+				return isDuplicate(hash(topic, sequence), now);
+			}
+		}
+		// A repeated payload is only a duplicate if it is also a redelivery
+		return isDuplicate(hash(topic, payload), redelivered, now);
+	}
+
+	/**
+	 * Record a key, and tell whether it was already seen within the window
+	 *
+	 * @param key the key of the message, from {@link #hash(String, byte[])} or
+	 *            {@link #hash(String, long)}
+	 * @param now the current time in milliseconds
+	 * @return Whether the key was seen before, or is a false positive
+	 */
+	public boolean isDuplicate(long key, long now) {
+		return isDuplicate(key, true, now);
+	}
+
+	private synchronized boolean isDuplicate(long key, boolean redelivered, long now) {
+		rotate(now);
+		int h1 = (int) key;
+		int h2 = (int) (key >>> 32);
+
+		boolean seen = false;
+		for (int f = 0; f < SLICES && !seen; f++) {
+			seen = contains(filters[f], h1, h2);
+		}
+		if (seen && redelivered) {
+			duplicates++;
+			return true;
+		}
+		// Recorded in the newest filter even if seen, so a repeat that is not a redelivery
+		// is remembered from its latest occurrence
+		long[] filter = filters[newest];
+		for (int i = 0; i < hashes; i++) {
+			long index = index(h1, h2, i);
+			filter[(int) (index >>> 6)] |= 1L << index;
+		}
+		return false;
+	}
+
+	private boolean contains(long[] filter, int h1, int h2) {
+		for (int i = 0; i < hashes; i++) {
+			long index = index(h1, h2, i);
+			if ((filter[(int) (index >>> 6)] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The i-th bit of a key, by double hashing
+	 */
+	private long index(int h1, int h2, int i) {
+		return ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+	}
+
+	/*
+	 * Clear and reuse the oldest filter for each slice that has ended
+	 */
+	private void rotate(long now) {
+		if (sliceStart == Long.MIN_VALUE) {
+			sliceStart = now;
+			return;
+		}
+		long ended = (now - sliceStart) / sliceMillis;
+		if (ended <= 0) {
+			return;
+		}
+		for (long i = 0; i < Math.min(ended, SLICES); i++) {
+			newest = (newest + 1) % SLICES;
+			Arrays.fill(filters[newest], 0L);
+		}
+		sliceStart += ended * sliceMillis;
+	}
+
+	/**
+	 * @return The number of duplicates recognised
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return The memory used by the filters, in bytes
+	 */
+	public long getMemory() {
+		return SLICES * bits / 8;
+	}
+
+	/**
+	 * The key of a message from its topic and payload
+	 *
+	 * @param topic   the MQTT topic
+	 * @param payload the payload
+	 * @return A 64 bit hash of both
+	 */
+	public static long hash(String topic, byte[] payload) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < topic.length(); i++) {
+			h = (h ^ topic.charAt(i)) * FNV_PRIME;
+		}
+		h = (h ^ 0xff) * FNV_PRIME;
+		for (byte b : payload) {
+			h = (h ^ (b & 0xff)) * FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * The key of a message from its topic and sequence number
+	 *
+	 * @param topic    the MQTT topic
+	 * @param sequence the sequence number the publisher gave the message
+	 * @return A 64 bit hash of both
+	 */
+	public static long hash(String topic, long sequence) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < topic.length(); i++) {
+			h = (h ^ topic.charAt(i)) * FNV_PRIME;
+		}
+		return mix(h ^ mix(sequence));
+	}
+
+	/*
+	 * The 64 bit finaliser of MurmurHash3, so that every bit of the key is
+	 * spread over both halves used for double hashing
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/*
+	 * Find an integer field of a JSON payload without parsing it: the first
+	 * occurrence of the quoted field name followed by a colon and an integer
+	 */
+	private static long sequence(byte[] payload, byte[] name) {
+		outer: for (int start = 0; start + name.length <= payload.length; start++) {
+			for (int j = 0; j < name.length; j++) {
+				if (payload[start + j] != name[j]) {
+					continue outer;
+				}
+			}
+			int i = skipSpace(payload, start + name.length);
+			if (i >= payload.length || payload[i] != ':') {
+				continue;
+			}
+			i = skipSpace(payload, i + 1);
+			boolean negative = i < payload.length && payload[i] == '-';
+			if (negative) {
+				i++;
+			}
+			int digits = 0;
+			long value = 0;
+			while (i < payload.length && payload[i] >= '0' && payload[i] <= '9' && digits < 18) {
+				value = value * 10 + (payload[i] - '0');
+				i++;
+				digits++;
+			}
+			if (digits > 0) {
+				return negative ? -value : value;
+			}
+		}
+		return NO_SEQUENCE;
+	}
+
+	private static int skipSpace(byte[] payload, int i) {
+		while (i < payload.length && (payload[i] == ' ' || payload[i] == '\t' || payload[i] == '\r'
+				|| payload[i] == '\n')) {
+			i++;
+		}
+		return i;
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs inbound message processing on a thread per key, made by a
+ * ThreadFactory, meant for virtual threads. <br>
+ *
+ * While a key has tasks queued, one thread runs them in order and ends once
+ * they are done, so there is no pool: a handler that blocks, on a database
+ * write say, only holds up the other messages of its own key. Tasks with a null
+ * key have no order and each get a thread of their own. At most maxPending
+ * tasks can be queued or running; beyond that {@link #execute} waits, which
+ * pushes back on the broker.
+ */
+public class KeyedDispatcher implements Dispatcher {
+	private static final Logger LOG = LoggerFactory.getLogger(KeyedDispatcher.class);
+
+	private final ThreadFactory threadFactory;
+	private final Semaphore permits;
+
+	/* Tasks not yet started, by key, for the keys that have a running thread */
+	private final Map<String, ArrayDeque<Runnable>> active = new HashMap<String, ArrayDeque<Runnable>>();
+	private int queued = 0;
+	private int running = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * @param threadFactory the factory of the threads that run tasks
+	 * @param maxPending    the number of tasks that can be queued or running
+	 */
+	public KeyedDispatcher(ThreadFactory threadFactory, int maxPending) {
+		this.threadFactory = threadFactory;
+		this.permits = new Semaphore(Math.max(1, maxPending));
+	}
+
+	@Override
+	public void execute(final String key, Runnable task) throws InterruptedException {
+		permits.acquire();
+		synchronized (this) {
+			if (shutdown) {
+				permits.release();
+				throw new IllegalStateException("Dispatcher has been shut down");
+			}
+			if (key != null && active.containsKey(key)) {
+				active.get(key).add(task);
+				queued++;
+				return;
+			}
+			final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+			tasks.add(task);
+			queued++;
+			if (key != null) {
+				active.put(key, tasks);
+			}
+			running++;
+			try {
+				threadFactory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						drain(key, tasks);
+					}
+				}).start();
+			} catch (RuntimeException e) {
+				running--;
+				queued--;
+				if (key != null) {
+					active.remove(key);
+				}
+				permits.release();
+				throw e;
+			}
+		}
+	}
+
+	private void drain(String key, ArrayDeque<Runnable> tasks) {
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				task = tasks.poll();
+				if (task == null) {
+					if (key != null) {
+						active.remove(key);
+					}
+					running--;
+					notifyAll();
+					return;
+				}
+				queued--;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// A failing callback must not stop the later messages of its key
+				LOG.warn("Inbound message processing failed", e);
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of tasks waiting for the tasks before them with the
+	 *         same key to finish
+	 */
+	@Override
+	public synchronized int getQueueDepth() {
+		return queued;
+	}
+
+	/**
+	 * @return The number of threads running tasks
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	@Override
+	public synchronized boolean shutdown(long timeout) throws InterruptedException {
+		shutdown = true;
+		long deadline = System.currentTimeMillis() + timeout;
+		while (running > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (timeout == 0 || remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs inbound message processing off the MQTT callback thread, on a fixed
+ * number of stripes. <br>
+ *
+ * Each stripe is a bounded queue with a single consumer thread, and a task is
+ * placed on a stripe by the hash of its key (the device ID), so the messages of
+ * one device are processed in the order they arrived while different devices
+ * are processed in parallel. When a stripe is full, {@link #execute} waits for
+ * room; that holds up the MQTT callback thread and so pushes back on the
+ * broker, rather than letting the queues grow without bound.
+ */
+public class StripedDispatcher implements Dispatcher {
+	private static final Logger LOG = LoggerFactory.getLogger(StripedDispatcher.class);
+
+	/* Queued after the last task of a stripe when the dispatcher is shut down */
+	private static final Runnable STOP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	private final BlockingQueue<Runnable>[] stripes;
+	private final Thread[] threads;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param threads  the number of stripes, each with its own thread
+	 * @param capacity the number of tasks each stripe can hold
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public StripedDispatcher(int threads, int capacity) {
+		int count = Math.max(1, threads);
+		stripes = new BlockingQueue[count];
+		this.threads = new Thread[count];
+		for (int i = 0; i < count; i++) {
+			final BlockingQueue<Runnable> stripe = new ArrayBlockingQueue<Runnable>(Math.max(1, capacity));
+			stripes[i] = stripe;
+			this.threads[i] = new Thread("wiotp-dispatch-" + i) {
+				@Override
+				public void run() {
+					consume(stripe);
+				}
+			};
+			this.threads[i].setDaemon(true);
+			this.threads[i].start();
+		}
+	}
+
+	/**
+	 * Queue a task on the stripe of its key, waiting for room if the stripe is
+	 * full. Tasks with a null key all go to the first stripe.
+	 */
+	@Override
+	public void execute(String key, Runnable task) throws InterruptedException {
+		if (shutdown) {
+			throw new IllegalStateException("Dispatcher has been shut down");
+		}
+		stripes[stripe(key)].put(task);
+	}
+
+	/*
+	 * The stripe of a key, spreading the hash so that keys differing only in
+	 * their last characters do not share stripes when the count is a power of two
+	 */
+	private int stripe(String key) {
+		if (key == null) {
+			return 0;
+		}
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % stripes.length;
+	}
+
+	private void consume(BlockingQueue<Runnable> stripe) {
+		while (true) {
+			Runnable task;
+			try {
+				// A stripe that had no room for STOP when shut down stops once it runs dry
+				task = shutdown ? stripe.poll() : stripe.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (task == null || task == STOP) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// A failing callback must not stop the stripe, or its devices would stall
+				LOG.warn("Inbound message processing failed", e);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of stripes
+	 */
+	public int getStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * @return The number of tasks waiting across all stripes
+	 */
+	@Override
+	public int getQueueDepth() {
+		int depth = 0;
+		for (BlockingQueue<Runnable> stripe : stripes) {
+			depth += stripe.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @param stripe the index of the stripe
+	 * @return The number of tasks waiting on the stripe
+	 */
+	public int getQueueDepth(int stripe) {
+		return stripes[stripe].size();
+	}
+
+	/**
+	 * Stop accepting tasks, and stop each thread once it has run the tasks
+	 * already queued on its stripe. Waiting for room on a full stripe counts
+	 * towards the timeout, so a stalled task can not hold up the shutdown for
+	 * longer.
+	 */
+	@Override
+	public boolean shutdown(long timeout) throws InterruptedException {
+		shutdown = true;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (int i = 0; i < stripes.length; i++) {
+			long remaining = Math.max(0, deadline - System.currentTimeMillis());
+			if (!stripes[i].offer(STOP, remaining, TimeUnit.MILLISECONDS)) {
+				LOG.warn("Dispatch stripe " + i + " is still full, it stops once it has run its queued tasks");
+			}
+		}
+		for (Thread thread : threads) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (timeout == 0 || remaining <= 0) {
+				break;
+			}
+			thread.join(remaining);
+		}
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,43 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads. <br>
+ *
+ * Virtual threads need Java 21; this class is replaced in the multi-release
+ * JAR by a version under META-INF/versions/21, built from src/main/java21 when
+ * the SDK is built with JDK 21 or later. On earlier runtimes it reports that
+ * virtual threads are not available.
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return Whether the runtime supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * @return A factory of virtual threads, or null if the runtime does not
+	 *         support them
+	 */
+	public static ThreadFactory factory() {
+		return null;
+	}
+
+}
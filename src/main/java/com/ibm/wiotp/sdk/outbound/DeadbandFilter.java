@@ -0,0 +1,166 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Report-by-exception filter for one event. <br>
+ *
+ * A sample is only reported when one of its numeric top-level properties has
+ * moved away from the last reported value by more than the deadband, when it
+ * has a numeric property that was not in the last report, or when nothing has
+ * been reported for longer than the maximum silence interval. Other properties
+ * are not compared. The deadband is either absolute, a percentage of the last
+ * reported value, or both (a change exceeding either is reported); with neither
+ * set any change is reported.
+ *
+ * <p>
+ * The last reported values are tracked per topic, so a gateway filters the
+ * event of each device separately, in a compact table of parallel arrays.
+ * </p>
+ */
+public class DeadbandFilter {
+
+	private final double absolute;
+	private final double percent;
+	private final long maxSilence;
+
+	private final Map<String, LastReported> lastReported = new ConcurrentHashMap<String, LastReported>();
+
+	/**
+	 * @param absolute   smallest absolute change that is reported, or 0
+	 * @param percent    smallest change, as a percentage of the last reported
+	 *                   value, that is reported, or 0
+	 * @param maxSilence longest time in milliseconds without a report, or 0 for
+	 *                   no limit
+	 */
+	public DeadbandFilter(double absolute, double percent, long maxSilence) {
+		this.absolute = absolute;
+		this.percent = percent;
+		this.maxSilence = maxSilence;
+	}
+
+	/**
+	 * Decide whether a sample should be reported, and if so record it as the
+	 * last reported sample of its topic
+	 *
+	 * @param topic  the topic the sample would be published to
+	 * @param sample the sampled values
+	 * @param now    the current time in milliseconds
+	 * @return Whether the sample should be published
+	 */
+	public boolean accept(String topic, JsonObject sample, long now) {
+		LastReported last = lastReported.get(topic);
+		if (last == null) {
+			LastReported created = new LastReported();
+			last = lastReported.putIfAbsent(topic, created);
+			if (last == null) {
+				last = created;
+			}
+		}
+		return last.accept(sample, now);
+	}
+
+	/**
+	 * Forget the last reported samples, so the next sample of every topic is
+	 * reported
+	 */
+	public void reset() {
+		lastReported.clear();
+	}
+
+	public double getAbsolute() {
+		return absolute;
+	}
+
+	public double getPercent() {
+		return percent;
+	}
+
+	public long getMaxSilence() {
+		return maxSilence;
+	}
+
+	private boolean exceeds(double value, double reference) {
+		double change = Math.abs(value - reference);
+		if (absolute <= 0 && percent <= 0) {
+			return change > 0;
+		}
+		if (absolute > 0 && change > absolute) {
+			return true;
+		}
+		return percent > 0 && change > Math.abs(reference) * percent / 100;
+	}
+
+	/*
+	 * The last reported values of one topic
+	 */
+	private class LastReported {
+		private String[] names = new String[0];
+		private double[] values = new double[0];
+		private long time = -1;
+
+		synchronized boolean accept(JsonObject sample, long now) {
+			boolean report = time < 0 || (maxSilence > 0 && now - time >= maxSilence);
+			if (!report) {
+				for (Map.Entry<String, JsonElement> entry : sample.entrySet()) {
+					JsonElement value = entry.getValue();
+					if (value.isJsonPrimitive() && ((JsonPrimitive) value).isNumber()) {
+						int i = indexOf(entry.getKey());
+						if (i < 0 || exceeds(value.getAsDouble(), values[i])) {
+							report = true;
+							break;
+						}
+					}
+				}
+			}
+
+			if (report) {
+				record(sample);
+				time = now;
+			}
+			return report;
+		}
+
+		private void record(JsonObject sample) {
+			for (Map.Entry<String, JsonElement> entry : sample.entrySet()) {
+				JsonElement value = entry.getValue();
+				if (value.isJsonPrimitive() && ((JsonPrimitive) value).isNumber()) {
+					int i = indexOf(entry.getKey());
+					if (i < 0) {
+						i = names.length;
+						names = Arrays.copyOf(names, i + 1);
+						values = Arrays.copyOf(values, i + 1);
+						names[i] = entry.getKey();
+					}
+					values[i] = value.getAsDouble();
+				}
+			}
+		}
+
+		private int indexOf(String name) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+}
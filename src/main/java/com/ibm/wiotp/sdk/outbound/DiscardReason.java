@@ -0,0 +1,34 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+/**
+ * Why a message was discarded without being sent
+ */
+public enum DiscardReason {
+	/**
+	 * The outbound queue was full
+	 */
+	OVERFLOW,
+	/**
+	 * The message was queued for longer than its time-to-live
+	 */
+	EXPIRED,
+	/**
+	 * The store-and-forward store reached its segment limit
+	 */
+	STORE_FULL,
+	/**
+	 * Newer values of the event were stored behind the message, see
+	 * store compaction
+	 */
+	COMPACTED
+}
@@ -0,0 +1,266 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+
+/**
+ * Coalesces the events of many devices into one packed payload, published by
+ * a gateway as a single event of its own. <br>
+ *
+ * A pack starts with a version byte, followed by one entry per event: the
+ * device type, device ID, event ID and format, each as a 2 byte length and
+ * UTF-8 bytes, then the 4 byte length and bytes of the encoded payload. The
+ * payload of each event is left exactly as its codec encoded it, so
+ * {@link #unpack(byte[])} gives back the original events.
+ */
+public class EventPacker {
+
+	/* The event ID and format packed events are published with */
+	public static final String EVENT_ID = "packed";
+	public static final String FORMAT = "packed";
+
+	private static final byte VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int maxSize;
+	private final PayloadBuffer buffer;
+	private int count = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param maxSize the largest pack, in bytes, that {@link #add} builds
+	 */
+	public EventPacker(int maxSize) {
+		this.maxSize = maxSize;
+		this.buffer = new PayloadBuffer(maxSize);
+	}
+
+	/**
+	 * Add an event to the current pack. If the event does not fit in what is
+	 * left of the size budget, the current pack is closed and returned, and the
+	 * event starts the next one.
+	 *
+	 * @param typeId   the type of the device
+	 * @param deviceId the ID of the device
+	 * @param eventId  the ID of the event
+	 * @param format   the format the payload was encoded in
+	 * @param payload  the encoded payload
+	 * @return The closed pack, or null if the event was added to the current
+	 *         pack
+	 * @throws IllegalStateException if the packer has been closed, in which
+	 *                               case the event was not added
+	 */
+	public synchronized byte[] add(String typeId, String deviceId, String eventId, String format, byte[] payload) {
+		if (closed) {
+			throw new IllegalStateException("Packer is closed");
+		}
+		byte[][] header = { typeId.getBytes(UTF8), deviceId.getBytes(UTF8), eventId.getBytes(UTF8),
+				format.getBytes(UTF8) };
+		int size = 4 + payload.length;
+		for (byte[] field : header) {
+			size += 2 + field.length;
+		}
+
+		byte[] closed = null;
+		if (count > 0 && buffer.size() + size > maxSize) {
+			closed = drain();
+		}
+		if (count == 0) {
+			buffer.write(VERSION);
+		}
+		for (byte[] field : header) {
+			writeShort(field.length);
+			buffer.write(field, 0, field.length);
+		}
+		writeShort(payload.length >>> 16);
+		writeShort(payload.length);
+		buffer.write(payload, 0, payload.length);
+		count++;
+		return closed;
+	}
+
+	/**
+	 * Close the current pack
+	 *
+	 * @return The pack, or null if no event has been added since the last pack
+	 *         was closed
+	 */
+	public synchronized byte[] drain() {
+		if (count == 0) {
+			return null;
+		}
+		byte[] pack = buffer.toByteArray();
+		buffer.reset();
+		count = 0;
+		return pack;
+	}
+
+	/**
+	 * Close the current pack and refuse any further events, so that no event is
+	 * added to a pack that will never be drained
+	 *
+	 * @return The last pack, or null if no event has been added since the last
+	 *         pack was closed
+	 */
+	public synchronized byte[] close() {
+		closed = true;
+		return drain();
+	}
+
+	/**
+	 * @return The number of events in the current pack
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Whether an event fits in a pack on its own, counting the header of its
+	 * entry as well as its payload
+	 *
+	 * @param typeId        the type of the device
+	 * @param deviceId      the ID of the device
+	 * @param eventId       the ID of the event
+	 * @param format        the format the payload was encoded in
+	 * @param payloadLength the length of the encoded payload
+	 * @return Whether a pack holding just this event is at most the maximum size
+	 */
+	public boolean fits(String typeId, String deviceId, String eventId, String format, int payloadLength) {
+		long size = 1 + 4 + (long) payloadLength;
+		size += 2 + utf8Length(typeId);
+		size += 2 + utf8Length(deviceId);
+		size += 2 + utf8Length(eventId);
+		size += 2 + utf8Length(format);
+		return size <= maxSize;
+	}
+
+	private static int utf8Length(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Split a pack back into its events
+	 *
+	 * @param pack the packed payload
+	 * @return The events, in the order they were added
+	 * @throws MalformedMessageException If the payload is not a valid pack
+	 */
+	public static List<Entry> unpack(byte[] pack) throws MalformedMessageException {
+		ByteBuffer in = ByteBuffer.wrap(pack);
+		List<Entry> entries = new ArrayList<Entry>();
+		try {
+			if (in.get() != VERSION) {
+				throw new MalformedMessageException(FORMAT);
+			}
+			while (in.hasRemaining()) {
+				String typeId = readString(in);
+				String deviceId = readString(in);
+				String eventId = readString(in);
+				String format = readString(in);
+				int length = in.getInt();
+				if (length < 0 || length > in.remaining()) {
+					throw new MalformedMessageException(FORMAT);
+				}
+				byte[] payload = new byte[length];
+				in.get(payload);
+				entries.add(new Entry(typeId, deviceId, eventId, format, payload));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new MalformedMessageException(FORMAT);
+		}
+		return entries;
+	}
+
+	/*
+	 * Write the low 16 bits of a value, big-endian
+	 */
+	private void writeShort(int value) {
+		buffer.write((value >>> 8) & 0xff);
+		buffer.write(value & 0xff);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getShort() & 0xffff;
+		if (length > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String value = new String(in.array(), in.position(), length, UTF8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * One event of a pack
+	 */
+	public static class Entry {
+		private final String typeId;
+		private final String deviceId;
+		private final String eventId;
+		private final String format;
+		private final byte[] payload;
+
+		Entry(String typeId, String deviceId, String eventId, String format, byte[] payload) {
+			this.typeId = typeId;
+			this.deviceId = deviceId;
+			this.eventId = eventId;
+			this.format = format;
+			this.payload = payload;
+		}
+
+		public String getTypeId() {
+			return typeId;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public String getEventId() {
+			return eventId;
+		}
+
+		public String getFormat() {
+			return format;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+
+}
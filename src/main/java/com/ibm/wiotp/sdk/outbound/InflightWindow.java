@@ -0,0 +1,205 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+/**
+ * Controls how many QoS 1 and 2 messages may be waiting for an
+ * acknowledgement at any time. <br>
+ *
+ * When adaptive, the window is sized AIMD-style from the outcome of each
+ * publish: it grows by one message per acknowledgement until the first sign of
+ * congestion (slow start), then by one message per window's worth of
+ * acknowledgements. It is halved, at most once per round trip, when a publish
+ * fails or when an acknowledgement takes more than twice the smoothed round
+ * trip time of the current connection. Measuring against the smoothed rather
+ * than the fastest round trip lets the window ride out jitter and slow drifts
+ * in latency, as on satellite links, and only react to sudden queueing. The
+ * window always stays within the configured bounds; when not adaptive it is
+ * fixed at the upper bound.
+ *
+ * <p>
+ * Each connection is an epoch: slots acquired before a reconnect are not
+ * returned to the window when they complete, since {@link #reset()} already
+ * reclaimed them.
+ * </p>
+ */
+public class InflightWindow {
+
+	/* Returned by tryAcquire() when the window is full */
+	public static final long NO_SLOT = -1L;
+
+	private static final int INITIAL_WINDOW = 10;
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double LATENCY_THRESHOLD = 2.0;
+	/* Weight of a new sample in the smoothed round trip time */
+	private static final double RTT_GAIN = 0.125;
+
+	private final int min;
+	private final int max;
+	private final boolean adaptive;
+
+	private double window;
+	private double slowStartThreshold;
+	private int inFlight = 0;
+	private long epoch = 0;
+
+	private long smoothedRtt;
+	private long lastDecrease;
+
+	/**
+	 * @param min      lower bound of the window
+	 * @param max      upper bound of the window, which must not exceed the
+	 *                 maximum in-flight setting of the MQTT client
+	 * @param adaptive whether to size the window from acknowledgement latency,
+	 *                 rather than fixing it at the upper bound
+	 */
+	public InflightWindow(int min, int max, boolean adaptive) {
+		this.max = Math.max(1, max);
+		this.min = Math.max(1, Math.min(min, this.max));
+		this.adaptive = adaptive;
+		reset();
+	}
+
+	/**
+	 * Start a new epoch, after the connection has been (re)established
+	 */
+	public synchronized void reset() {
+		epoch++;
+		inFlight = 0;
+		window = adaptive ? Math.max(min, Math.min(max, INITIAL_WINDOW)) : max;
+		slowStartThreshold = max;
+		smoothedRtt = 0;
+		lastDecrease = 0;
+	}
+
+	/**
+	 * Take a slot in the window
+	 *
+	 * @return The epoch to pass back when the slot is released, or
+	 *         {@link #NO_SLOT} if the window is full
+	 */
+	public synchronized long tryAcquire() {
+		if (inFlight >= (int) window) {
+			return NO_SLOT;
+		}
+		inFlight++;
+		return epoch;
+	}
+
+	/**
+	 * Return a slot whose message was never handed to the network
+	 *
+	 * @param slotEpoch the epoch returned by {@link #tryAcquire()}
+	 */
+	public synchronized void cancel(long slotEpoch) {
+		if (slotEpoch == epoch) {
+			inFlight--;
+		}
+	}
+
+	/**
+	 * Return a slot once the publish has completed, and resize the window from
+	 * its outcome
+	 *
+	 * @param slotEpoch the epoch returned by {@link #tryAcquire()}
+	 * @param rtt       time from the publish to its completion, in nanoseconds
+	 * @param success   whether the message was acknowledged
+	 */
+	public synchronized void release(long slotEpoch, long rtt, boolean success) {
+		if (slotEpoch != epoch) {
+			return;
+		}
+		inFlight--;
+		if (!adaptive) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		if (!success) {
+			decrease(now);
+			return;
+		}
+
+		// Compared with the round trip time before this sample is folded in
+		boolean slow = smoothedRtt != 0 && rtt > smoothedRtt * LATENCY_THRESHOLD;
+		smoothedRtt = smoothedRtt == 0 ? rtt : (long) (smoothedRtt + RTT_GAIN * (rtt - smoothedRtt));
+
+		if (slow) {
+			decrease(now);
+		} else if (window < slowStartThreshold) {
+			window = Math.min(max, window + 1);
+		} else {
+			window = Math.min(max, window + 1 / window);
+		}
+	}
+
+	/**
+	 * Shrink the window because the MQTT client refused a publish for having too
+	 * many messages in flight
+	 */
+	public synchronized void congested() {
+		if (adaptive) {
+			decrease(System.nanoTime());
+		}
+	}
+
+	private void decrease(long now) {
+		// Only react once to the messages that were in flight together
+		if (lastDecrease != 0 && now - lastDecrease < smoothedRtt) {
+			return;
+		}
+		lastDecrease = now;
+		window = Math.max(min, window * DECREASE_FACTOR);
+		slowStartThreshold = window;
+	}
+
+	/**
+	 * @return Whether a slot is currently free
+	 */
+	public synchronized boolean hasCapacity() {
+		return inFlight < (int) window;
+	}
+
+	/**
+	 * @return The current size of the window
+	 */
+	public synchronized int getWindow() {
+		return (int) window;
+	}
+
+	/**
+	 * @return The number of messages currently waiting for an acknowledgement
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return The smoothed acknowledgement round trip time in nanoseconds, or 0
+	 *         before the first acknowledgement
+	 */
+	public synchronized long getSmoothedRtt() {
+		return smoothedRtt;
+	}
+
+	public int getMin() {
+		return min;
+	}
+
+	public int getMax() {
+		return max;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * An encoded message waiting in the {@link OutboundQueue}
+ */
+public class OutboundMessage {
+
+	private final String topic;
+	private final MqttMessage message;
+	private final IMqttActionListener listener;
+	private final long expiry;
+	private final Priority priority;
+
+	/**
+	 * @param topic    the fully resolved MQTT topic
+	 * @param message  the MQTT message to send
+	 * @param listener notified of the outcome of the publish, may be null
+	 * @param expiry   time (in milliseconds since the epoch) after which the
+	 *                 message is discarded rather than sent, 0 means never
+	 */
+	public OutboundMessage(String topic, MqttMessage message, IMqttActionListener listener, long expiry) {
+		this(topic, message, listener, expiry, Priority.NORMAL);
+	}
+
+	/**
+	 * @param topic    the fully resolved MQTT topic
+	 * @param message  the MQTT message to send
+	 * @param listener notified of the outcome of the publish, may be null
+	 * @param expiry   time (in milliseconds since the epoch) after which the
+	 *                 message is discarded rather than sent, 0 means never
+	 * @param priority the lane the message waits in while queued
+	 */
+	public OutboundMessage(String topic, MqttMessage message, IMqttActionListener listener, long expiry,
+			Priority priority) {
+		this.topic = topic;
+		this.message = message;
+		this.listener = listener;
+		this.expiry = expiry;
+		this.priority = priority;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public MqttMessage getMessage() {
+		return message;
+	}
+
+	public IMqttActionListener getListener() {
+		return listener;
+	}
+
+	public long getExpiry() {
+		return expiry;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public boolean isExpired(long now) {
+		return expiry != 0 && now > expiry;
+	}
+
+	/**
+	 * Notify the listener, if any, that the message will not be sent
+	 * 
+	 * @param cause the reason the message was not sent
+	 */
+	public void fail(Throwable cause) {
+		if (listener != null) {
+			listener.onFailure(null, cause);
+		}
+	}
+}
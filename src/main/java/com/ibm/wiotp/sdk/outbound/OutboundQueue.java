@@ -0,0 +1,294 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.wiotp.sdk.exceptions.MessageDiscardedException;
+
+/**
+ * Bounded queue holding messages that can not be handed to the MQTT client
+ * yet, either because the client is not connected or because the in-flight
+ * window is full. <br>
+ * 
+ * Messages wait in one lane per {@link Priority}; the head of the highest
+ * non-empty lane is sent first, and messages keep their order within a lane.
+ * When the queue is full a new message evicts the oldest message of the lowest
+ * lane below its own, if there is one; otherwise what happens is decided by the
+ * {@link OverflowPolicy}, which never discards a message of a higher lane.
+ * Messages that have outlived their time-to-live are discarded when they reach
+ * the head of their lane, so stale data is not flooded to the broker after a
+ * reconnect.
+ */
+public class OutboundQueue {
+	private static final Logger LOG = LoggerFactory.getLogger(OutboundQueue.class);
+
+	/* Occupancy (as a fraction of the capacity) at which the queue reports itself as not writable */
+	private static final double HIGH_WATERMARK = 0.9;
+	/* Occupancy (as a fraction of the capacity) at which the queue reports itself as writable again */
+	private static final double LOW_WATERMARK = 0.5;
+
+	private final ArrayDeque<OutboundMessage>[] lanes;
+	private int size = 0;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final long blockTimeout;
+	private final int highWatermark;
+	private final int lowWatermark;
+
+	private volatile OutboundQueueCallback callback = null;
+	private boolean writable = true;
+	private long discardedCount = 0;
+
+	/**
+	 * @param capacity     maximum number of messages held
+	 * @param policy       what to do with new messages when the queue is full
+	 * @param blockTimeout how long (in milliseconds) the {@link OverflowPolicy#BLOCK}
+	 *                     policy waits for space
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeout) {
+		this.lanes = new ArrayDeque[Priority.values().length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<OutboundMessage>();
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.blockTimeout = blockTimeout;
+		this.highWatermark = Math.max(1, (int) (capacity * HIGH_WATERMARK));
+		this.lowWatermark = (int) (capacity * LOW_WATERMARK);
+	}
+
+	/**
+	 * Add a message to the tail of its lane, applying the overflow policy if the
+	 * queue is full. The listener of any message that is discarded is notified.
+	 * 
+	 * @param message the message to queue
+	 * @return Whether the message was accepted
+	 */
+	public boolean offer(OutboundMessage message) {
+		OutboundMessage evicted = null;
+		boolean accepted = true;
+		Boolean writabilityChange;
+
+		synchronized (this) {
+			int lane = message.getPriority().ordinal();
+			if (size >= capacity) {
+				evicted = evictBelow(lane);
+			}
+			if (size >= capacity && evicted == null) {
+				switch (policy) {
+				case BLOCK:
+					long deadline = System.currentTimeMillis() + blockTimeout;
+					long remaining = blockTimeout;
+					try {
+						while (size >= capacity && remaining > 0) {
+							wait(remaining);
+							remaining = deadline - System.currentTimeMillis();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					accepted = size < capacity;
+					break;
+				case DROP_OLDEST:
+					// Only the lane of the message itself is left to evict from
+					evicted = lanes[lane].pollFirst();
+					if (evicted != null) {
+						size--;
+					} else {
+						accepted = false;
+					}
+					break;
+				default:
+					accepted = false;
+				}
+			}
+			if (accepted) {
+				lanes[lane].addLast(message);
+				size++;
+			} else {
+				discardedCount++;
+			}
+			if (evicted != null) {
+				discardedCount++;
+			}
+			writabilityChange = updateWritability();
+		}
+
+		if (evicted != null) {
+			discard(evicted, DiscardReason.OVERFLOW);
+		}
+		if (!accepted) {
+			discard(message, DiscardReason.OVERFLOW);
+		}
+		fireWritabilityChanged(writabilityChange);
+		return accepted;
+	}
+
+	/**
+	 * Remove the message at the head of the highest non-empty lane. Messages
+	 * that have expired are discarded on the way.
+	 * 
+	 * @return The next message to send, or null if the queue is empty
+	 */
+	public OutboundMessage poll() {
+		List<OutboundMessage> expired = null;
+		OutboundMessage next = null;
+		Boolean writabilityChange;
+
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < lanes.length && next == null; i++) {
+				while ((next = lanes[i].pollFirst()) != null) {
+					size--;
+					if (!next.isExpired(now)) {
+						break;
+					}
+					if (expired == null) {
+						expired = new ArrayList<OutboundMessage>();
+					}
+					expired.add(next);
+					discardedCount++;
+				}
+			}
+			writabilityChange = updateWritability();
+			notifyAll();
+		}
+
+		if (expired != null) {
+			for (OutboundMessage message : expired) {
+				discard(message, DiscardReason.EXPIRED);
+			}
+		}
+		fireWritabilityChanged(writabilityChange);
+		return next;
+	}
+
+	/**
+	 * Return a message, that could not be sent after all, to the head of its
+	 * lane. This does not apply the overflow policy, so the queue may briefly
+	 * exceed its capacity by the messages being returned.
+	 * 
+	 * @param message the message to put back
+	 */
+	public synchronized void pushBack(OutboundMessage message) {
+		lanes[message.getPriority().ordinal()].addFirst(message);
+		size++;
+	}
+
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return Number of messages currently queued
+	 */
+	public synchronized int getOccupancy() {
+		return size;
+	}
+
+	/**
+	 * @param priority the lane
+	 * @return Number of messages currently queued in the lane
+	 */
+	public synchronized int getOccupancy(Priority priority) {
+		return lanes[priority.ordinal()].size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return Whether the queue is below its high watermark (or has drained back
+	 *         to its low watermark after reaching it)
+	 */
+	public synchronized boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * @return Total number of messages discarded because of overflow or expiry
+	 */
+	public synchronized long getDiscardedCount() {
+		return discardedCount;
+	}
+
+	public void setCallback(OutboundQueueCallback callback) {
+		this.callback = callback;
+	}
+
+	/*
+	 * Must be called while holding the lock, removes the oldest message of the
+	 * lowest non-empty lane below the given one, if any
+	 */
+	private OutboundMessage evictBelow(int lane) {
+		for (int i = lanes.length - 1; i > lane; i--) {
+			OutboundMessage evicted = lanes[i].pollFirst();
+			if (evicted != null) {
+				size--;
+				return evicted;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Must be called while holding the lock, returns the new writability if it
+	 * changed, otherwise null
+	 */
+	private Boolean updateWritability() {
+		if (writable && size >= highWatermark) {
+			writable = false;
+			return Boolean.FALSE;
+		} else if (!writable && size <= lowWatermark) {
+			writable = true;
+			return Boolean.TRUE;
+		}
+		return null;
+	}
+
+	private void fireWritabilityChanged(Boolean writabilityChange) {
+		if (writabilityChange == null) {
+			return;
+		}
+		if (writabilityChange.booleanValue()) {
+			LOG.info("Outbound queue has drained to " + getOccupancy() + " messages");
+		} else {
+			LOG.warn("Outbound queue has reached " + getOccupancy() + " of " + capacity + " messages");
+		}
+		OutboundQueueCallback cb = callback;
+		if (cb != null) {
+			cb.writabilityChanged(writabilityChange.booleanValue(), getOccupancy(), capacity);
+		}
+	}
+
+	private void discard(OutboundMessage message, DiscardReason reason) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Discarding message to " + message.getTopic() + " (" + reason + ")");
+		}
+		OutboundQueueCallback cb = callback;
+		if (cb != null) {
+			cb.messageDiscarded(message.getTopic(), reason);
+		}
+		message.fail(new MessageDiscardedException(message.getTopic(), reason));
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+/**
+ * Interface to receive notifications about the state of a client's outbound
+ * queue
+ */
+public interface OutboundQueueCallback {
+
+	/**
+	 * Called when the queue stops accepting messages without pressure (it has
+	 * reached its high watermark), and again when it has drained back to its low
+	 * watermark.
+	 * 
+	 * @param writable  whether producers should keep publishing
+	 * @param occupancy number of messages currently queued
+	 * @param capacity  maximum number of messages the queue can hold
+	 */
+	public void writabilityChanged(boolean writable, int occupancy, int capacity);
+
+	/**
+	 * Called when a queued or newly published message is discarded without
+	 * being sent
+	 * 
+	 * @param topic  the topic of the discarded message
+	 * @param reason why the message was discarded
+	 */
+	public void messageDiscarded(String topic, DiscardReason reason);
+}
@@ -0,0 +1,55 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+/**
+ * What the {@link OutboundQueue} does with a new message when it is full
+ */
+public enum OverflowPolicy {
+	/**
+	 * Block the publishing thread until there is space, or the configured
+	 * timeout expires (in which case the message is dropped)
+	 */
+	BLOCK,
+	/**
+	 * Discard the oldest queued message to make space for the new one
+	 */
+	DROP_OLDEST,
+	/**
+	 * Discard the new message, the publish method returns false
+	 */
+	DROP_NEWEST,
+	/**
+	 * Discard the new message and throw a
+	 * {@link com.ibm.wiotp.sdk.exceptions.MessageDiscardedException} from the
+	 * publish method
+	 */
+	REJECT;
+
+	/**
+	 * Parse the configuration value of the policy
+	 * 
+	 * @param value one of "block", "dropOldest", "dropNewest" or "reject"
+	 * @return The matching policy
+	 */
+	public static OverflowPolicy fromConfig(String value) {
+		if ("block".equals(value)) {
+			return BLOCK;
+		} else if ("dropOldest".equals(value)) {
+			return DROP_OLDEST;
+		} else if ("dropNewest".equals(value)) {
+			return DROP_NEWEST;
+		} else if ("reject".equals(value)) {
+			return REJECT;
+		}
+		throw new IllegalArgumentException("Invalid outbound queue policy: " + value);
+	}
+}
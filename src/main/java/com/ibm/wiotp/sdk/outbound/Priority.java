@@ -0,0 +1,32 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+/**
+ * The lane a message waits in in the {@link OutboundQueue}. Messages in higher
+ * lanes are sent first, and messages in lower lanes are discarded first when
+ * the queue is full.
+ */
+public enum Priority {
+	/**
+	 * Alarms, command responses and anything else that must not wait behind
+	 * routine traffic
+	 */
+	CRITICAL,
+	/**
+	 * The default for every publish
+	 */
+	NORMAL,
+	/**
+	 * Telemetry that can wait, and is the first to go when the queue is full
+	 */
+	BULK
+}
@@ -0,0 +1,605 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.wiotp.sdk.exceptions.MessageDiscardedException;
+
+/**
+ * Append-only, segmented, on-disk store of outbound messages used for
+ * store-and-forward. <br>
+ *
+ * Messages are appended to the current segment file through a buffered stream,
+ * and the segment is only forced to disk periodically (and when it is rolled
+ * over), so appending is bound by sequential I/O rather than by an fsync per
+ * message. Messages are read back in the order they were appended, and each
+ * message read carries a listener that commits it once its publish has been
+ * acknowledged, or once it has failed and the failure has been reported. The
+ * position up to which every message has been committed is checkpointed, and
+ * segments are deleted once they are fully committed, so that a restarted
+ * client resumes from the oldest message whose publish was not completed.
+ * Messages that had been read but were still queued or in flight when the
+ * process stopped are read again, so a message may be sent more than once but
+ * is not lost.
+ *
+ * <p>
+ * Each record is laid out as: body length (int), CRC32 of the body (int), then
+ * the body: QoS (byte), expiry (long), topic (modified UTF-8) and the payload.
+ * A torn record at the end of a segment, for example after a power failure, is
+ * detected by its length or checksum and ignored.
+ * </p>
+ *
+ * <p>
+ * The listeners of appended messages are not written to disk, but kept in
+ * memory and handed back with the message when it is read. A listener whose
+ * message is dropped because the store reached its segment limit, or that is
+ * still stored when the store is closed, is notified of failure.
+ * </p>
+ */
+public class SegmentStore implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(SegmentStore.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/* MQTT payloads can not exceed 256MB, anything larger is a corrupt length */
+	private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+	private static final long SYNC_INTERVAL = 1000L;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File dir;
+	private final long segmentSize;
+	private final int maxSegments;
+
+	/* Segment sequence number to file, oldest first */
+	private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+
+	private long writeSeq;
+	private long writeOffset;
+	private FileOutputStream writeFile;
+	private DataOutputStream out;
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private final CRC32 crc = new CRC32();
+
+	private long readSeq;
+	private long readOffset;
+	private DataInputStream in;
+
+	/* Everything before this position has been read and its publish completed */
+	private long commitSeq;
+	private long commitOffset;
+	/* Messages read but whose publish has not completed, oldest first */
+	private final Deque<Record> uncommitted = new ArrayDeque<Record>();
+
+	private boolean dirty = false;
+	private boolean closed = false;
+	/* Listeners of unread messages appended by this process, by segment and offset */
+	private final Map<Long, Map<Long, OutboundMessage>> listeners = new HashMap<Long, Map<Long, OutboundMessage>>();
+	private final Timer syncTimer;
+
+	/**
+	 * Open (or create) a store, recovering any segments left by a previous run
+	 *
+	 * @param dir         the directory holding the segment files
+	 * @param segmentSize size in bytes after which a new segment is started
+	 * @param maxSegments maximum number of segments kept, the oldest unsent
+	 *                    segment is dropped when this is exceeded, 0 for no limit
+	 * @throws IOException If the directory can not be used
+	 */
+	public SegmentStore(File dir, long segmentSize, int maxSegments) throws IOException {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create store-and-forward directory " + dir);
+		}
+
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					segments.put(Long.parseLong(
+							name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+				}
+			}
+		}
+
+		recoverReadPosition();
+		if (segments.isEmpty()) {
+			writeSeq = readSeq;
+			openSegment(writeSeq, 0);
+		} else {
+			// Carry on appending to the last segment, after its last complete record
+			writeSeq = segments.lastKey();
+			openSegment(writeSeq, validLength(segments.get(writeSeq)));
+		}
+		if (!isEmpty()) {
+			LOG.info("Recovered store-and-forward backlog from " + dir);
+		}
+
+		syncTimer = new Timer("wiotp-store-sync", true);
+		syncTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					sync();
+				} catch (IOException e) {
+					LOG.warn("Unable to sync store-and-forward segment", e);
+				}
+			}
+		}, SYNC_INTERVAL, SYNC_INTERVAL);
+	}
+
+	/**
+	 * Append a message to the end of the store
+	 *
+	 * @param message the message to store, its listener is kept in memory until
+	 *                the message is read
+	 * @throws IOException If the message can not be written
+	 */
+	public synchronized void append(OutboundMessage message) throws IOException {
+		long seq = writeSeq;
+		long offset = writeOffset;
+		body.reset();
+		DataOutputStream data = new DataOutputStream(body);
+		data.writeByte(message.getMessage().getQos());
+		data.writeLong(message.getExpiry());
+		data.writeUTF(message.getTopic());
+		data.write(message.getMessage().getPayload());
+
+		crc.reset();
+		crc.update(body.toByteArray(), 0, body.size());
+		out.writeInt(body.size());
+		out.writeInt((int) crc.getValue());
+		body.writeTo(out);
+		writeOffset += RECORD_HEADER_SIZE + body.size();
+		dirty = true;
+		if (message.getListener() != null) {
+			Map<Long, OutboundMessage> pending = listeners.get(seq);
+			if (pending == null) {
+				pending = new HashMap<Long, OutboundMessage>();
+				listeners.put(seq, pending);
+			}
+			// Only the topic and listener, the payload is on disk
+			pending.put(offset, new OutboundMessage(message.getTopic(), null, message.getListener(), 0));
+		}
+
+		if (writeOffset >= segmentSize) {
+			rollSegment();
+		}
+	}
+
+	/**
+	 * Read the next message in the store, advancing the read position. The
+	 * message is only committed, so that it is not read again after a restart,
+	 * once its listener is notified of the outcome of its publish.
+	 *
+	 * @return The next message, with a listener that commits it and then
+	 *         notifies the listener it was appended with if that was in this
+	 *         process, or null if every stored message has been read
+	 * @throws IOException If the store can not be read
+	 */
+	public synchronized OutboundMessage read() throws IOException {
+		while (true) {
+			if (in == null) {
+				if (readSeq == writeSeq) {
+					// Make sure everything appended so far is visible to the reader
+					out.flush();
+				}
+				in = openReader(readSeq, readOffset);
+				if (in == null) {
+					return null;
+				}
+			}
+
+			OutboundMessage message = null;
+			int length = -1;
+			try {
+				length = in.readInt();
+				int checksum = in.readInt();
+				if (length < 0 || length > MAX_RECORD_SIZE) {
+					throw new EOFException("Corrupt record length " + length);
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				message = decode(record, checksum);
+			} catch (EOFException e) {
+				// Reached the end of the data written so far
+			}
+
+			if (message != null) {
+				Map<Long, OutboundMessage> pending = listeners.get(readSeq);
+				OutboundMessage appended = pending == null ? null : pending.remove(readOffset);
+				readOffset += RECORD_HEADER_SIZE + length;
+				Record record = new Record(readSeq, readOffset);
+				uncommitted.addLast(record);
+				return new OutboundMessage(message.getTopic(), message.getMessage(),
+						new CommitListener(record, appended == null ? null : appended.getListener()),
+						message.getExpiry());
+			}
+
+			closeReader();
+			if (readSeq == writeSeq) {
+				// Nothing more to read until more is appended
+				return null;
+			}
+			// Everything in this segment has been read, it is deleted once committed
+			Long next = segments.higherKey(readSeq);
+			readSeq = next == null ? writeSeq : next;
+			readOffset = 0;
+			advanceCommit();
+		}
+	}
+
+	/*
+	 * The publish of a message read from the store has completed
+	 */
+	private synchronized void commit(Record record) {
+		if (closed) {
+			// Not checkpointed, so the message is read again once the store is reopened
+			return;
+		}
+		record.done = true;
+		advanceCommit();
+	}
+
+	/*
+	 * Move the committed position past every completed message that is not
+	 * behind one still in flight, and delete the segments left behind
+	 */
+	private void advanceCommit() {
+		while (!uncommitted.isEmpty() && uncommitted.peekFirst().done) {
+			Record record = uncommitted.removeFirst();
+			commitSeq = record.seq;
+			commitOffset = record.end;
+			dirty = true;
+		}
+		if (uncommitted.isEmpty() && (commitSeq != readSeq || commitOffset != readOffset)) {
+			commitSeq = readSeq;
+			commitOffset = readOffset;
+			dirty = true;
+		}
+		while (!segments.isEmpty() && segments.firstKey() < commitSeq) {
+			deleteSegment(segments.firstKey());
+		}
+	}
+
+	/**
+	 * Visit the topic of every message that has not been read yet, without
+	 * moving the read position
+	 *
+	 * @param visitor called with the topic of each unread message, in order
+	 * @throws IOException If the store can not be read
+	 */
+	public synchronized void scanUnread(TopicVisitor visitor) throws IOException {
+		out.flush();
+		long offset = readOffset;
+		for (Long seq : segments.tailMap(readSeq).keySet()) {
+			DataInputStream scan = openReader(seq, offset);
+			offset = 0;
+			if (scan == null) {
+				continue;
+			}
+			try {
+				while (true) {
+					int length = scan.readInt();
+					int checksum = scan.readInt();
+					if (length < 0 || length > MAX_RECORD_SIZE) {
+						break;
+					}
+					byte[] record = new byte[length];
+					scan.readFully(record);
+					OutboundMessage message = decode(record, checksum);
+					if (message == null) {
+						break;
+					}
+					visitor.visit(message.getTopic());
+				}
+			} catch (EOFException e) {
+				// End of segment
+			} finally {
+				scan.close();
+			}
+		}
+	}
+
+	/**
+	 * @return Whether every stored message has been read
+	 */
+	public synchronized boolean isEmpty() {
+		return readSeq == writeSeq && readOffset >= writeOffset;
+	}
+
+	/**
+	 * Force appended data to disk and checkpoint the committed position
+	 *
+	 * @throws IOException If the store can not be written
+	 */
+	public synchronized void sync() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		out.flush();
+		writeFile.getFD().sync();
+		writeCheckpoint();
+		dirty = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		syncTimer.cancel();
+		sync();
+		closed = true;
+		closeReader();
+		out.close();
+		for (Map<Long, OutboundMessage> pending : listeners.values()) {
+			for (OutboundMessage message : pending.values()) {
+				message.fail(new IOException("Store closed before the message to " + message.getTopic()
+						+ " was forwarded, it is forwarded once the store is reopened"));
+			}
+		}
+		listeners.clear();
+	}
+
+	private OutboundMessage decode(byte[] record, int checksum) throws IOException {
+		crc.reset();
+		crc.update(record, 0, record.length);
+		if ((int) crc.getValue() != checksum) {
+			LOG.warn("Ignoring corrupt record in store-and-forward segment " + readSeq);
+			return null;
+		}
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+		int qos = data.readByte();
+		long expiry = data.readLong();
+		String topic = data.readUTF();
+		byte[] payload = new byte[data.available()];
+		data.readFully(payload);
+
+		MqttMessage msg = new MqttMessage(payload);
+		msg.setQos(qos);
+		msg.setRetained(false);
+		return new OutboundMessage(topic, msg, null, expiry);
+	}
+
+	private void openSegment(long seq, long offset) throws IOException {
+		File file = segmentFile(seq);
+		if (file.exists() && file.length() > offset) {
+			// Drop a torn record left at the end of the segment
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(offset);
+			} finally {
+				raf.close();
+			}
+		}
+		writeFile = new FileOutputStream(file, true);
+		out = new DataOutputStream(new BufferedOutputStream(writeFile, BUFFER_SIZE));
+		writeOffset = offset;
+		segments.put(seq, file);
+	}
+
+	private void rollSegment() throws IOException {
+		out.flush();
+		writeFile.getFD().sync();
+		out.close();
+		openSegment(++writeSeq, 0);
+
+		if (maxSegments > 0 && segments.size() > maxSegments) {
+			long oldest = segments.firstKey();
+			LOG.warn("Store-and-forward limit of " + maxSegments + " segments reached, dropping segment " + oldest);
+			if (oldest == readSeq) {
+				closeReader();
+				readSeq = segments.higherKey(oldest);
+				readOffset = 0;
+			}
+			if (oldest >= commitSeq) {
+				// Messages of the segment still in flight can no longer be read again
+				commitSeq = segments.higherKey(oldest);
+				commitOffset = 0;
+				while (!uncommitted.isEmpty() && uncommitted.peekFirst().seq <= oldest) {
+					uncommitted.removeFirst();
+				}
+				dirty = true;
+			}
+			Map<Long, OutboundMessage> pending = listeners.remove(oldest);
+			if (pending != null) {
+				for (OutboundMessage message : pending.values()) {
+					message.fail(new MessageDiscardedException(message.getTopic(), DiscardReason.STORE_FULL));
+				}
+			}
+			deleteSegment(oldest);
+		}
+	}
+
+	private DataInputStream openReader(long seq, long offset) throws IOException {
+		File file = segments.get(seq);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		FileInputStream stream = new FileInputStream(file);
+		long skipped = 0;
+		while (skipped < offset) {
+			long n = stream.skip(offset - skipped);
+			if (n <= 0) {
+				break;
+			}
+			skipped += n;
+		}
+		return new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+	}
+
+	private void closeReader() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+	private void deleteSegment(long seq) {
+		listeners.remove(seq);
+		File file = segments.remove(seq);
+		if (file != null && !file.delete()) {
+			LOG.warn("Unable to delete store-and-forward segment " + file);
+		}
+	}
+
+	/*
+	 * Scan a segment for the end of its last complete record
+	 */
+	private long validLength(File file) throws IOException {
+		long valid = 0;
+		DataInputStream scan = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			while (true) {
+				int length = scan.readInt();
+				int checksum = scan.readInt();
+				if (length < 0 || length > MAX_RECORD_SIZE) {
+					break;
+				}
+				byte[] record = new byte[length];
+				scan.readFully(record);
+				crc.reset();
+				crc.update(record, 0, record.length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				valid += RECORD_HEADER_SIZE + length;
+			}
+		} catch (EOFException e) {
+			// Torn or garbage record at the end of the segment
+		} finally {
+			scan.close();
+		}
+		return valid;
+	}
+
+	private void recoverReadPosition() throws IOException {
+		readSeq = segments.isEmpty() ? 0 : segments.firstKey();
+		readOffset = 0;
+
+		File checkpoint = new File(dir, CHECKPOINT_FILE);
+		if (!checkpoint.exists()) {
+			return;
+		}
+		String[] position = new String(Files.readAllBytes(checkpoint.toPath()), UTF8).trim().split(" ");
+		long seq = Long.parseLong(position[0]);
+		if (segments.containsKey(seq)) {
+			readSeq = seq;
+			readOffset = Long.parseLong(position[1]);
+		} else if (segments.isEmpty() || seq > segments.lastKey()) {
+			readSeq = seq;
+		}
+		commitSeq = readSeq;
+		commitOffset = readOffset;
+		// Drop segments that were fully committed before the checkpoint was taken
+		while (!segments.isEmpty() && segments.firstKey() < readSeq) {
+			deleteSegment(segments.firstKey());
+		}
+	}
+
+	private void writeCheckpoint() throws IOException {
+		File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+		Files.write(tmp.toPath(), (commitSeq + " " + commitOffset).getBytes(UTF8));
+		Files.move(tmp.toPath(), new File(dir, CHECKPOINT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private File segmentFile(long seq) {
+		return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+	}
+
+	/*
+	 * A message read from the store, by the segment it is in and the offset just
+	 * past it
+	 */
+	private static final class Record {
+		final long seq;
+		final long end;
+		boolean done = false;
+
+		Record(long seq, long end) {
+			this.seq = seq;
+			this.end = end;
+		}
+	}
+
+	/*
+	 * Commits a message read from the store once its publish completes, whether
+	 * it was acknowledged or failed, then passes the outcome on
+	 */
+	private class CommitListener implements IMqttActionListener {
+		private final Record record;
+		private final IMqttActionListener listener;
+
+		CommitListener(Record record, IMqttActionListener listener) {
+			this.record = record;
+			this.listener = listener;
+		}
+
+		@Override
+		public void onSuccess(IMqttToken asyncActionToken) {
+			commit(record);
+			if (listener != null) {
+				listener.onSuccess(asyncActionToken);
+			}
+		}
+
+		@Override
+		public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+			commit(record);
+			if (listener != null) {
+				listener.onFailure(asyncActionToken, exception);
+			}
+		}
+	}
+
+	/**
+	 * Receives the topics of stored messages during
+	 * {@link SegmentStore#scanUnread(TopicVisitor)}
+	 */
+	public interface TopicVisitor {
+		public void visit(String topic);
+	}
+}
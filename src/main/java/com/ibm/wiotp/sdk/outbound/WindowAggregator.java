@@ -0,0 +1,127 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.outbound;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Accumulates the numeric samples of one event over a tumbling window. <br>
+ *
+ * Each named value is summarised by its minimum, maximum, mean, count and
+ * last value. The running state is held in primitive arrays indexed by value
+ * name, so adding a sample does not allocate; the arrays are reused from one
+ * window to the next. {@link #drain()} returns the summary of the window and
+ * starts a new one.
+ */
+public class WindowAggregator {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private String[] names = new String[INITIAL_CAPACITY];
+	private double[] min = new double[INITIAL_CAPACITY];
+	private double[] max = new double[INITIAL_CAPACITY];
+	private double[] sum = new double[INITIAL_CAPACITY];
+	private double[] last = new double[INITIAL_CAPACITY];
+	private long[] count = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Add a sample to the current window
+	 *
+	 * @param name  the name of the value
+	 * @param value the sampled value
+	 */
+	public synchronized void add(String name, double value) {
+		int i = indexOf(name);
+		if (count[i] == 0) {
+			min[i] = value;
+			max[i] = value;
+			sum[i] = value;
+		} else {
+			if (value < min[i]) {
+				min[i] = value;
+			}
+			if (value > max[i]) {
+				max[i] = value;
+			}
+			sum[i] += value;
+		}
+		last[i] = value;
+		count[i]++;
+	}
+
+	/**
+	 * Add every numeric top-level property of a JSON object to the current
+	 * window. Other properties are ignored.
+	 *
+	 * @param sample the sampled values
+	 */
+	public synchronized void add(JsonObject sample) {
+		for (Map.Entry<String, JsonElement> entry : sample.entrySet()) {
+			JsonElement value = entry.getValue();
+			if (value.isJsonPrimitive() && ((JsonPrimitive) value).isNumber()) {
+				add(entry.getKey(), value.getAsDouble());
+			}
+		}
+	}
+
+	/**
+	 * Summarise the current window and start a new one
+	 *
+	 * @return An object with min, max, mean, count and last for each value
+	 *         sampled during the window, or null if there were no samples
+	 */
+	public synchronized JsonObject drain() {
+		JsonObject summary = null;
+		for (int i = 0; i < size; i++) {
+			if (count[i] == 0) {
+				continue;
+			}
+			JsonObject value = new JsonObject();
+			value.addProperty("min", min[i]);
+			value.addProperty("max", max[i]);
+			value.addProperty("mean", sum[i] / count[i]);
+			value.addProperty("count", count[i]);
+			value.addProperty("last", last[i]);
+			if (summary == null) {
+				summary = new JsonObject();
+			}
+			summary.add(names[i], value);
+			count[i] = 0;
+		}
+		return summary;
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		if (size == names.length) {
+			int capacity = size * 2;
+			names = Arrays.copyOf(names, capacity);
+			min = Arrays.copyOf(min, capacity);
+			max = Arrays.copyOf(max, capacity);
+			sum = Arrays.copyOf(sum, capacity);
+			last = Arrays.copyOf(last, capacity);
+			count = Arrays.copyOf(count, capacity);
+		}
+		names[size] = name;
+		return size++;
+	}
+
+}
@@ -0,0 +1,430 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MQTT client persistence for in-flight QoS 1 and 2 messages backed by a
+ * memory-mapped log file. <br>
+ *
+ * Every put and remove is appended to the mapped file, which only costs a
+ * memory copy, so the in-flight state survives a crash of the process as soon
+ * as the call returns. The mapped pages are forced to disk in a group commit
+ * every syncInterval milliseconds (or on every change when syncInterval is 0),
+ * which bounds what can be lost if the operating system itself fails. The
+ * live entries are also kept in memory to serve get() and keys().
+ *
+ * <p>
+ * Two log files are used alternately. When the active one is full, the live
+ * entries are written to the other one (grown if needed) under a higher
+ * generation number, which then becomes the active log. On open, the valid log
+ * with the highest generation is replayed, stopping at the first torn record.
+ * </p>
+ *
+ * <p>
+ * Each file starts with a magic number (int) and a generation (long). Each
+ * record is laid out as: body length (int), CRC32 of the body (int), then the
+ * body: operation (byte), key length (int), key (UTF-8), and for a put the
+ * header length (int), header, payload length (int) and payload. A body length
+ * of 0 marks the end of the log.
+ * </p>
+ */
+public class MappedFilePersistence implements MqttClientPersistence {
+	private static final Logger LOG = LoggerFactory.getLogger(MappedFilePersistence.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] LOG_FILES = { "inflight-0.log", "inflight-1.log" };
+	private static final int MAGIC = 0x57494f50;
+	private static final int FILE_HEADER_SIZE = 12;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+
+	public static final int DEFAULT_FILE_SIZE = 4 * 1024 * 1024;
+	public static final long DEFAULT_SYNC_INTERVAL = 100L;
+
+	private final File baseDir;
+	private final int initialSize;
+	private final long syncInterval;
+
+	private File dir = null;
+	private RandomAccessFile file = null;
+	private MappedByteBuffer buffer = null;
+	private int active = 0;
+	private long generation = 0;
+	private boolean dirty = false;
+	private Timer syncTimer = null;
+
+	private final Map<String, MqttPersistentData> entries = new HashMap<String, MqttPersistentData>();
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * @param baseDir      directory under which a directory is created for each
+	 *                     client ID and server URI
+	 * @param initialSize  initial size of each log file in bytes
+	 * @param syncInterval how often, in milliseconds, changes are forced to disk,
+	 *                     or 0 to force them on every change
+	 */
+	public MappedFilePersistence(File baseDir, int initialSize, long syncInterval) {
+		this.baseDir = baseDir;
+		this.initialSize = Math.max(initialSize, FILE_HEADER_SIZE + 1024);
+		this.syncInterval = syncInterval;
+	}
+
+	public MappedFilePersistence(File baseDir) {
+		this(baseDir, DEFAULT_FILE_SIZE, DEFAULT_SYNC_INTERVAL);
+	}
+
+	@Override
+	public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+		dir = new File(baseDir, sanitize(clientId + "-" + serverURI));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE,
+					new IOException("Unable to create persistence directory " + dir));
+		}
+
+		try {
+			entries.clear();
+			active = -1;
+			generation = 0;
+			for (int i = 0; i < LOG_FILES.length; i++) {
+				long fileGeneration = readGeneration(new File(dir, LOG_FILES[i]));
+				if (fileGeneration > generation) {
+					generation = fileGeneration;
+					active = i;
+				}
+			}
+
+			if (active < 0) {
+				active = 0;
+				generation = 1;
+				map(active, initialSize);
+				writeFileHeader();
+			} else {
+				map(active, initialSize);
+				replay();
+				LOG.info("Recovered " + entries.size() + " in-flight messages from " + dir);
+			}
+		} catch (IOException e) {
+			throw new MqttPersistenceException(e);
+		}
+
+		if (syncInterval > 0) {
+			syncTimer = new Timer("wiotp-persistence-sync", true);
+			syncTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					sync();
+				}
+			}, syncInterval, syncInterval);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws MqttPersistenceException {
+		if (syncTimer != null) {
+			syncTimer.cancel();
+			syncTimer = null;
+		}
+		if (file != null) {
+			sync();
+			try {
+				file.close();
+			} catch (IOException e) {
+				throw new MqttPersistenceException(e);
+			} finally {
+				file = null;
+				buffer = null;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+		checkOpen();
+		byte[] header = copy(persistable.getHeaderBytes(), persistable.getHeaderOffset(),
+				persistable.getHeaderLength());
+		byte[] payload = copy(persistable.getPayloadBytes(), persistable.getPayloadOffset(),
+				persistable.getPayloadLength());
+		MqttPersistentData data = new MqttPersistentData(key, header, 0, header.length, payload, 0,
+				payload.length);
+
+		entries.put(key, data);
+		append(OP_PUT, key, header, payload);
+	}
+
+	@Override
+	public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+		checkOpen();
+		return entries.get(key);
+	}
+
+	@Override
+	public synchronized void remove(String key) throws MqttPersistenceException {
+		checkOpen();
+		if (entries.remove(key) != null) {
+			append(OP_REMOVE, key, null, null);
+		}
+	}
+
+	@Override
+	public synchronized Enumeration<String> keys() throws MqttPersistenceException {
+		checkOpen();
+		return Collections.enumeration(new ArrayList<String>(entries.keySet()));
+	}
+
+	@Override
+	public synchronized void clear() throws MqttPersistenceException {
+		checkOpen();
+		entries.clear();
+		try {
+			rewrite(initialSize);
+		} catch (IOException e) {
+			throw new MqttPersistenceException(e);
+		}
+	}
+
+	@Override
+	public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+		checkOpen();
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Force any changes made since the last group commit to disk
+	 */
+	public synchronized void sync() {
+		if (dirty && buffer != null) {
+			buffer.force();
+			dirty = false;
+		}
+	}
+
+	private void checkOpen() throws MqttPersistenceException {
+		if (buffer == null) {
+			throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_EXCEPTION);
+		}
+	}
+
+	private void append(byte op, String key, byte[] header, byte[] payload) throws MqttPersistenceException {
+		byte[] keyBytes = key.getBytes(UTF8);
+		int recordSize = recordSize(op, keyBytes, header, payload);
+
+		try {
+			// Leave room for the end marker after the record
+			if (buffer.position() + recordSize + 4 > buffer.capacity()) {
+				int liveSize = FILE_HEADER_SIZE + 4;
+				for (MqttPersistentData data : entries.values()) {
+					liveSize += recordSize(OP_PUT, data.getKey().getBytes(UTF8), data.getHeaderBytes(),
+							data.getPayloadBytes());
+				}
+				// Entries already contains the change, so the rewrite includes it
+				rewrite(Math.max(buffer.capacity(), liveSize * 2));
+				return;
+			}
+		} catch (IOException e) {
+			throw new MqttPersistenceException(e);
+		}
+
+		writeRecord(op, keyBytes, header, payload, recordSize);
+		if (syncInterval <= 0) {
+			buffer.force();
+		} else {
+			dirty = true;
+		}
+	}
+
+	private static int recordSize(byte op, byte[] keyBytes, byte[] header, byte[] payload) {
+		int size = RECORD_HEADER_SIZE + 1 + 4 + keyBytes.length;
+		if (op == OP_PUT) {
+			size += 4 + header.length + 4 + payload.length;
+		}
+		return size;
+	}
+
+	/*
+	 * Write a record at the current position, end marker first and the record
+	 * length last, so a partially written record is never followed by one that
+	 * looks valid
+	 */
+	private void writeRecord(byte op, byte[] keyBytes, byte[] header, byte[] payload, int recordSize) {
+		int start = buffer.position();
+		int bodyLength = recordSize - RECORD_HEADER_SIZE;
+
+		buffer.putInt(start + recordSize, 0);
+		buffer.position(start + RECORD_HEADER_SIZE);
+		buffer.put(op);
+		buffer.putInt(keyBytes.length);
+		buffer.put(keyBytes);
+		if (op == OP_PUT) {
+			buffer.putInt(header.length);
+			buffer.put(header);
+			buffer.putInt(payload.length);
+			buffer.put(payload);
+		}
+
+		ByteBuffer body = buffer.duplicate();
+		body.position(start + RECORD_HEADER_SIZE);
+		body.limit(start + recordSize);
+		crc.reset();
+		crc.update(body);
+		buffer.putInt(start + 4, (int) crc.getValue());
+		buffer.putInt(start, bodyLength);
+	}
+
+	/*
+	 * Write the live entries to the inactive log file under the next generation
+	 * and make it the active one
+	 */
+	private void rewrite(int size) throws IOException {
+		int previous = active;
+		active = (active + 1) % LOG_FILES.length;
+		generation++;
+
+		file.close();
+		map(active, size);
+		for (MqttPersistentData data : entries.values()) {
+			byte[] keyBytes = data.getKey().getBytes(UTF8);
+			writeRecord(OP_PUT, keyBytes, data.getHeaderBytes(), data.getPayloadBytes(),
+					recordSize(OP_PUT, keyBytes, data.getHeaderBytes(), data.getPayloadBytes()));
+		}
+		int end = buffer.position();
+		if (entries.isEmpty()) {
+			buffer.putInt(FILE_HEADER_SIZE, 0);
+		}
+		buffer.force();
+		// Only mark the new log valid once its content is on disk
+		writeFileHeader();
+		buffer.force();
+		buffer.position(end);
+		dirty = false;
+
+		// The previous log is now superseded, it is reused by the next rewrite
+		try (RandomAccessFile old = new RandomAccessFile(new File(dir, LOG_FILES[previous]), "rw")) {
+			old.writeInt(0);
+		}
+	}
+
+	private void map(int index, int size) throws IOException {
+		File logFile = new File(dir, LOG_FILES[index]);
+		file = new RandomAccessFile(logFile, "rw");
+		if (file.length() < size) {
+			file.setLength(size);
+		}
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+		buffer.position(FILE_HEADER_SIZE);
+	}
+
+	private void writeFileHeader() {
+		buffer.putLong(4, generation);
+		buffer.putInt(0, MAGIC);
+	}
+
+	private static long readGeneration(File logFile) throws IOException {
+		if (logFile.length() < FILE_HEADER_SIZE) {
+			return 0;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+			if (raf.readInt() != MAGIC) {
+				return 0;
+			}
+			return raf.readLong();
+		}
+	}
+
+	/*
+	 * Rebuild the live entries from the active log, stopping at the end marker
+	 * or at the first torn record
+	 */
+	private void replay() {
+		int position = FILE_HEADER_SIZE;
+		int limit = buffer.capacity();
+		while (position + RECORD_HEADER_SIZE <= limit) {
+			int bodyLength = buffer.getInt(position);
+			if (bodyLength <= 0 || position + RECORD_HEADER_SIZE + bodyLength > limit) {
+				break;
+			}
+			ByteBuffer body = buffer.duplicate();
+			body.position(position + RECORD_HEADER_SIZE);
+			body.limit(position + RECORD_HEADER_SIZE + bodyLength);
+			crc.reset();
+			crc.update(body);
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				LOG.warn("Ignoring torn record at offset " + position + " of " + LOG_FILES[active]);
+				break;
+			}
+
+			body.position(position + RECORD_HEADER_SIZE);
+			byte op = body.get();
+			String key = new String(read(body), UTF8);
+			if (op == OP_PUT) {
+				byte[] header = read(body);
+				byte[] payload = read(body);
+				entries.put(key, new MqttPersistentData(key, header, 0, header.length, payload, 0, payload.length));
+			} else {
+				entries.remove(key);
+			}
+			position += RECORD_HEADER_SIZE + bodyLength;
+		}
+		buffer.position(position);
+	}
+
+	private static byte[] read(ByteBuffer body) {
+		byte[] bytes = new byte[body.getInt()];
+		body.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] copy(byte[] bytes, int offset, int length) {
+		if (bytes == null) {
+			return new byte[0];
+		}
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, offset, copy, 0, length);
+		return copy;
+	}
+
+	private static String sanitize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+}
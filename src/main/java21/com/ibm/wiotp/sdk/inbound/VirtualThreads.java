@@ -0,0 +1,43 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.inbound;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads, for Java 21 and later. <br>
+ *
+ * This version is packaged under META-INF/versions/21 of the multi-release JAR
+ * and must keep the same public methods as the version in src/main/java.
+ */
+public final class VirtualThreads {
+
+	private static final ThreadFactory FACTORY = Thread.ofVirtual().name("wiotp-vdispatch-", 0).factory();
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return Whether the runtime supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * @return A factory of virtual threads, or null if the runtime does not
+	 *         support them
+	 */
+	public static ThreadFactory factory() {
+		return FACTORY;
+	}
+
+}
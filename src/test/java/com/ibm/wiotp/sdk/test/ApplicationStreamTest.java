@@ -0,0 +1,93 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.ibm.wiotp.sdk.app.ApplicationClient;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfig;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigAuth;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigIdentity;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigOptions;
+import com.ibm.wiotp.sdk.app.messages.Event;
+import com.ibm.wiotp.sdk.codecs.Utf8Codec;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+/**
+ * Inbound message streams, checked without a connection by handing messages
+ * straight to the client
+ */
+public class ApplicationStreamTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testCloseDeliversQueuedEvents() throws Exception {
+		logTestStart("testCloseDeliversQueuedEvents");
+		ApplicationConfigOptions options = new ApplicationConfigOptions();
+		options.mqtt.dispatchThreads = 1;
+		options.mqtt.dispatchQueueSize = 1000;
+		ApplicationClient client = new ApplicationClient(new ApplicationConfig(new ApplicationConfigIdentity("app1"),
+				new ApplicationConfigAuth("a-myorg-key", "token"), options));
+		client.registerCodec(new Utf8Codec());
+
+		final List<String> received = new CopyOnWriteArrayList<String>();
+		final CountDownLatch completed = new CountDownLatch(1);
+		client.eventStream(String.class, 1000, 0).subscribe(new Subscriber<Event<String>>() {
+			@Override
+			public void onSubscribe(Subscription s) {
+				s.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(Event<String> evt) {
+				received.add(evt.getData());
+				// A slow subscriber, so events are still queued for dispatch when the client closes
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+			}
+
+			@Override
+			public void onComplete() {
+				completed.countDown();
+			}
+		});
+
+		for (int i = 0; i < 200; i++) {
+			client.messageArrived("iot-2/type/pump/id/p1/evt/status/fmt/utf8",
+					new MqttMessage(("value" + i).getBytes(UTF8)));
+		}
+		client.close();
+
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertEquals(200, received.size());
+		assertEquals("value199", received.get(199));
+	}
+
+}
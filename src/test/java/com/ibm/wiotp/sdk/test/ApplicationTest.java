@@ -12,13 +12,23 @@ package com.ibm.wiotp.sdk.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+
 import org.junit.After;
 import org.junit.Test;
 
 import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.EventPublisher;
+import com.ibm.wiotp.sdk.OutboundEvent;
 import com.ibm.wiotp.sdk.app.ApplicationClient;
 import com.ibm.wiotp.sdk.app.messages.Command;
 import com.ibm.wiotp.sdk.app.messages.Event;
@@ -169,6 +179,87 @@ public class ApplicationTest extends AbstractTest {
 		app1Client.unsubscribeFromDeviceEvents(DEVICE_TYPE, DEVICE_ID);
 	}
 
+	@Test
+	public void testSendAndSubscribeToJSONEventWithPublisher() throws Exception {
+		logTestStart("testSendAndSubscribeToJSONEventWithPublisher");
+		app1Client = new ApplicationClient();
+		app1Client.connect();
+		assertTrue("Client is connected", app1Client.isConnected());
+
+		// Create the subscription
+		AppEventCallbackJson evtCallback = new AppEventCallbackJson();
+		app1Client.registerCodec(new JsonCodec());
+		app1Client.registerEventCallback(evtCallback);
+		app1Client.subscribeToDeviceEvents(DEVICE_TYPE, DEVICE_ID);
+
+		EventPublisher<JsonObject> publisher = app1Client.getEventPublisher(DEVICE_TYPE, DEVICE_ID, "run",
+				JsonObject.class, 0);
+		assertNotNull("Publisher was created", publisher);
+
+		int count = 0;
+		Event<JsonObject> evt = evtCallback.getEvent();
+		while (evt == null && count++ <= 10) {
+			try {
+				// Send event
+				JsonObject data = new JsonObject();
+				data.addProperty("distance", 10);
+				boolean success = publisher.publish(data);
+				assertTrue("Publish was a success", success);
+
+				// Check for event
+				evt = evtCallback.getEvent();
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+			}
+		}
+
+		assertTrue("Event is received by application", (evt != null));
+		assertEquals("run", evt.getEventId());
+		assertEquals(10, evt.getData().get("distance").getAsInt());
+
+		app1Client.unsubscribeFromDeviceEvents(DEVICE_TYPE, DEVICE_ID);
+	}
+
+	@Test
+	public void testPublishEventBatch() throws Exception {
+		logTestStart("testPublishEventBatch");
+		app1Client = new ApplicationClient();
+		app1Client.connect();
+		assertTrue("Client is connected", app1Client.isConnected());
+		app1Client.registerCodec(new JsonCodec());
+
+		List<OutboundEvent> events = new ArrayList<OutboundEvent>();
+		for (int i = 0; i < 10; i++) {
+			JsonObject data = new JsonObject();
+			data.addProperty("distance", i);
+			events.add(new OutboundEvent(DEVICE_TYPE, DEVICE_ID, "run", data, 1));
+		}
+		// No codec is registered for Integer, so this one should fail
+		events.add(new OutboundEvent(DEVICE_TYPE, DEVICE_ID, "run", Integer.valueOf(1), 1));
+
+		BatchPublishResult result = app1Client.publishEvents(events);
+		assertTrue("Batch completed", result.waitForCompletion(10000));
+		assertEquals(10, result.getSuccessCount());
+		assertEquals(1, result.getFailureCount());
+		assertFalse("Event without a codec failed", result.isSuccess(10));
+	}
+
+	@Test
+	public void testPublishEventAsync() throws Exception {
+		logTestStart("testPublishEventAsync");
+		app1Client = new ApplicationClient();
+		app1Client.connect();
+		assertTrue("Client is connected", app1Client.isConnected());
+		app1Client.registerCodec(new JsonCodec());
+
+		JsonObject data = new JsonObject();
+		data.addProperty("distance", 10);
+		IMqttToken token = app1Client.publishEventAsync(DEVICE_TYPE, DEVICE_ID, "run", data, 1).get(10,
+				TimeUnit.SECONDS);
+		assertTrue("Publish was acknowledged", token.isComplete());
+		assertNull(token.getException());
+	}
+
 	@Test
 	public void testSendAndSubscribeToUTF8Event() throws Exception {
 		logTestStart("testSendAndSubscribeToUTF8Event");
@@ -0,0 +1,198 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.ibm.wiotp.sdk.inbound.BufferedPublisher;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class BufferedPublisherTest extends AbstractTest {
+
+	private static class RecordingSubscriber implements Subscriber<Integer> {
+		final List<Integer> items = Collections.synchronizedList(new ArrayList<Integer>());
+		volatile Subscription subscription;
+		volatile Throwable error;
+		volatile boolean completed;
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			subscription = s;
+		}
+
+		@Override
+		public void onNext(Integer item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			error = t;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	@Test
+	public void testDemand() throws InterruptedException {
+		logTestStart("testDemand");
+		BufferedPublisher<Integer> publisher = new BufferedPublisher<Integer>(10);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		for (int i = 0; i < 5; i++) {
+			publisher.offer(i);
+		}
+		assertTrue(subscriber.items.isEmpty());
+		assertEquals(5, publisher.getBuffered());
+
+		subscriber.subscription.request(2);
+		assertEquals(Arrays.asList(0, 1), subscriber.items);
+		subscriber.subscription.request(10);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), subscriber.items);
+
+		// Outstanding demand is met as messages arrive
+		publisher.offer(5);
+		assertEquals(6, subscriber.items.size());
+
+		publisher.complete();
+		assertTrue(subscriber.completed);
+		assertEquals(0, publisher.getSubscribers());
+	}
+
+	@Test
+	public void testBoundedBuffer() throws InterruptedException {
+		logTestStart("testBoundedBuffer");
+		final BufferedPublisher<Integer> publisher = new BufferedPublisher<Integer>(2);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		publisher.offer(0);
+		publisher.offer(1);
+
+		// The buffer is full, so the producer waits for demand
+		final CountDownLatch offered = new CountDownLatch(1);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					publisher.offer(2);
+					offered.countDown();
+				} catch (InterruptedException e) {
+					// fall through
+				}
+			}
+		};
+		producer.start();
+		assertFalse(offered.await(200, TimeUnit.MILLISECONDS));
+
+		subscriber.subscription.request(1);
+		assertTrue(offered.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0), subscriber.items);
+		assertEquals(2, publisher.getBuffered());
+
+		publisher.complete();
+		assertFalse(subscriber.completed);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals(Arrays.asList(0, 1, 2), subscriber.items);
+		assertTrue(subscriber.completed);
+	}
+
+	@Test
+	public void testBoundedWait() throws InterruptedException {
+		logTestStart("testBoundedWait");
+		BufferedPublisher<Integer> publisher = new BufferedPublisher<Integer>(2, 100);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		publisher.offer(0);
+		publisher.offer(1);
+
+		// The first message that does not fit waits, then is dropped
+		long start = System.nanoTime();
+		publisher.offer(2);
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("waited " + waited + "ms", waited >= 90);
+		assertEquals(1, publisher.getDropped());
+
+		// Later ones are dropped straight away while the subscriber lags
+		start = System.nanoTime();
+		for (int i = 3; i < 10; i++) {
+			publisher.offer(i);
+		}
+		waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("waited " + waited + "ms", waited < 90);
+		assertEquals(8, publisher.getDropped());
+
+		// Once the subscriber catches up, messages are buffered again
+		subscriber.subscription.request(Long.MAX_VALUE);
+		publisher.offer(10);
+		assertEquals(Arrays.asList(0, 1, 10), subscriber.items);
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		logTestStart("testCancel");
+		final BufferedPublisher<Integer> publisher = new BufferedPublisher<Integer>(1);
+		RecordingSubscriber slow = new RecordingSubscriber();
+		RecordingSubscriber fast = new RecordingSubscriber();
+		publisher.subscribe(slow);
+		publisher.subscribe(fast);
+		fast.subscription.request(Long.MAX_VALUE);
+		publisher.offer(0);
+
+		final CountDownLatch offered = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					publisher.offer(1);
+					offered.countDown();
+				} catch (InterruptedException e) {
+					// fall through
+				}
+			}
+		}.start();
+		assertFalse(offered.await(200, TimeUnit.MILLISECONDS));
+
+		// Cancelling the slow subscriber lets messages flow to the others again
+		slow.subscription.cancel();
+		assertTrue(offered.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1), fast.items);
+		assertTrue(slow.items.isEmpty());
+		assertEquals(1, publisher.getSubscribers());
+	}
+
+	@Test
+	public void testInvalidRequest() {
+		logTestStart("testInvalidRequest");
+		BufferedPublisher<Integer> publisher = new BufferedPublisher<Integer>(10);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertEquals(0, publisher.getSubscribers());
+	}
+
+}
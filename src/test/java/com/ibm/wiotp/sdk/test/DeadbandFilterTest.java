@@ -0,0 +1,75 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.outbound.DeadbandFilter;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class DeadbandFilterTest extends AbstractTest {
+
+	private static JsonObject sample(double temp) {
+		JsonObject sample = new JsonObject();
+		sample.addProperty("temp", temp);
+		sample.addProperty("unit", "C");
+		return sample;
+	}
+
+	@Test
+	public void testAbsoluteDeadband() {
+		logTestStart("testAbsoluteDeadband");
+		DeadbandFilter filter = new DeadbandFilter(0.5, 0, 0);
+		assertTrue(filter.accept("t", sample(20.0), 0));
+		assertFalse(filter.accept("t", sample(20.4), 1));
+		// Compared with the last reported value, not the last sample
+		assertFalse(filter.accept("t", sample(19.6), 2));
+		assertTrue(filter.accept("t", sample(20.6), 3));
+		assertFalse(filter.accept("t", sample(20.6), 4));
+		// Topics are filtered independently
+		assertTrue(filter.accept("u", sample(20.6), 5));
+	}
+
+	@Test
+	public void testPercentDeadband() {
+		logTestStart("testPercentDeadband");
+		DeadbandFilter filter = new DeadbandFilter(0, 10, 0);
+		assertTrue(filter.accept("t", sample(200), 0));
+		assertFalse(filter.accept("t", sample(219), 1));
+		assertTrue(filter.accept("t", sample(221), 2));
+	}
+
+	@Test
+	public void testMaxSilence() {
+		logTestStart("testMaxSilence");
+		DeadbandFilter filter = new DeadbandFilter(1, 0, 1000);
+		assertTrue(filter.accept("t", sample(20), 0));
+		assertFalse(filter.accept("t", sample(20), 999));
+		assertTrue(filter.accept("t", sample(20), 1000));
+		assertFalse(filter.accept("t", sample(20), 1500));
+	}
+
+	@Test
+	public void testNewValueIsReported() {
+		logTestStart("testNewValueIsReported");
+		DeadbandFilter filter = new DeadbandFilter(1, 0, 0);
+		assertTrue(filter.accept("t", sample(20), 0));
+		JsonObject sample = sample(20);
+		sample.addProperty("humidity", 40);
+		assertTrue(filter.accept("t", sample, 1));
+		assertFalse(filter.accept("t", sample, 2));
+	}
+
+}
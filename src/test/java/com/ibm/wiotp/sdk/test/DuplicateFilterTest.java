@@ -0,0 +1,107 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.inbound.DuplicateFilter;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class DuplicateFilterTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String TOPIC = "iot-2/type/pump/id/p1/evt/reading/fmt/json";
+
+	private static byte[] payload(String json) {
+		return json.getBytes(UTF8);
+	}
+
+	@Test
+	public void testDuplicateWithinWindow() {
+		logTestStart("testDuplicateWithinWindow");
+		DuplicateFilter filter = new DuplicateFilter(3000, 1000, 0.001, null);
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 0));
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":4}"), true, 10));
+		assertFalse(filter.isDuplicate("iot-2/type/pump/id/p2/evt/reading/fmt/json", payload("{\"level\":3}"), true,
+				20));
+		assertTrue(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 2900));
+		assertEquals(1, filter.getDuplicates());
+	}
+
+	@Test
+	public void testExpiry() {
+		logTestStart("testExpiry");
+		DuplicateFilter filter = new DuplicateFilter(3000, 1000, 0.001, null);
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 0));
+		// Remembered for at least the window, and at most a slice longer
+		assertTrue(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 3000));
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 4000));
+
+		// A long pause forgets everything
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":5}"), true, 4100));
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":5}"), true, 60000));
+	}
+
+	@Test
+	public void testRepeatedReading() {
+		logTestStart("testRepeatedReading");
+		DuplicateFilter filter = new DuplicateFilter(3000, 1000, 0.001, null);
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), false, 0));
+		// The same reading sent again is kept, unless the broker flags it as a redelivery
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), false, 10));
+		assertTrue(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 20));
+		// A redelivery of a message that was never seen is kept
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":4}"), true, 30));
+		assertEquals(1, filter.getDuplicates());
+	}
+
+	@Test
+	public void testSequenceField() {
+		logTestStart("testSequenceField");
+		DuplicateFilter filter = new DuplicateFilter(3000, 1000, 0.001, "seq");
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"seq\": 41, \"level\":3}"), true, 0));
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"seq\": 42, \"level\":3}"), true, 1));
+		// The same sequence number is a duplicate, whatever the rest of the payload or the flag
+		assertTrue(filter.isDuplicate(TOPIC, payload("{\"level\":9,\"seq\":42}"), false, 2));
+		// Payloads without the field fall back to the payload hash
+		assertFalse(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 3));
+		assertTrue(filter.isDuplicate(TOPIC, payload("{\"level\":3}"), true, 4));
+		assertEquals(2, filter.getDuplicates());
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		logTestStart("testFalsePositiveRate");
+		int expected = 30000;
+		DuplicateFilter filter = new DuplicateFilter(3000, expected, 0.01, null);
+		long memory = filter.getMemory();
+		// Spread the expected messages over a whole window, all distinct
+		for (int i = 0; i < expected; i++) {
+			filter.isDuplicate(DuplicateFilter.hash(TOPIC, i), i / 10);
+		}
+		int falsePositives = 0;
+		int probes = 2000;
+		for (int i = 0; i < probes; i++) {
+			if (filter.isDuplicate(DuplicateFilter.hash(TOPIC, expected + i), 2999)) {
+				falsePositives++;
+			}
+		}
+		double rate = (double) falsePositives / probes;
+		assertTrue("false positive rate " + rate, rate < 0.02);
+		assertEquals(memory, filter.getMemory());
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.app.callbacks.EventBatchCallback;
+import com.ibm.wiotp.sdk.app.callbacks.EventBatcher;
+import com.ibm.wiotp.sdk.app.messages.Event;
+import com.ibm.wiotp.sdk.codecs.JsonMessage;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class EventBatcherTest extends AbstractTest {
+
+	private final Timer timer = new Timer("test-batching", true);
+
+	private static class RecordingCallback implements EventBatchCallback<JsonObject> {
+		final BlockingQueue<List<Event<JsonObject>>> batches = new LinkedBlockingQueue<List<Event<JsonObject>>>();
+
+		@Override
+		public void processEvents(List<Event<JsonObject>> events) {
+			batches.add(events);
+		}
+
+		@Override
+		public Class<JsonObject> getMessageClass() {
+			return JsonObject.class;
+		}
+	}
+
+	private static Event<JsonObject> event(int n) {
+		return new Event<JsonObject>("sensor", "s" + n, "reading", "json", new JsonMessage(new JsonObject(), null));
+	}
+
+	@After
+	public void cancelTimer() {
+		timer.cancel();
+	}
+
+	@Test
+	public void testMaxEvents() throws InterruptedException {
+		logTestStart("testMaxEvents");
+		RecordingCallback callback = new RecordingCallback();
+		EventBatcher<JsonObject> batcher = new EventBatcher<JsonObject>(callback, 100, 60000, timer);
+		for (int i = 0; i < 250; i++) {
+			batcher.processEvent(event(i));
+		}
+		assertEquals(2, callback.batches.size());
+		assertEquals(50, batcher.getCount());
+
+		List<Event<JsonObject>> first = callback.batches.take();
+		assertEquals(100, first.size());
+		assertEquals("s0", first.get(0).getDeviceId());
+		assertEquals("s99", first.get(99).getDeviceId());
+		assertEquals("s100", callback.batches.take().get(0).getDeviceId());
+
+		batcher.flush();
+		assertEquals(50, callback.batches.take().size());
+		assertEquals(0, batcher.getCount());
+		batcher.flush();
+		assertTrue(callback.batches.isEmpty());
+	}
+
+	@Test
+	public void testLinger() throws InterruptedException {
+		logTestStart("testLinger");
+		RecordingCallback callback = new RecordingCallback();
+		EventBatcher<JsonObject> batcher = new EventBatcher<JsonObject>(callback, 1000, 50, timer);
+		long start = System.nanoTime();
+		batcher.processEvent(event(0));
+		batcher.processEvent(event(1));
+
+		List<Event<JsonObject>> batch = callback.batches.poll(5, TimeUnit.SECONDS);
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(2, batch.size());
+		assertTrue("handed over after " + waited + "ms", waited >= 45);
+
+		// The next batch lingers from its own first event
+		batcher.processEvent(event(2));
+		assertEquals(1, callback.batches.poll(5, TimeUnit.SECONDS).size());
+		assertEquals(0, batcher.getCount());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testBatchIsReadOnly() {
+		logTestStart("testBatchIsReadOnly");
+		RecordingCallback callback = new RecordingCallback();
+		EventBatcher<JsonObject> batcher = new EventBatcher<JsonObject>(callback, 1, 50, timer);
+		batcher.processEvent(event(0));
+		callback.batches.peek().add(event(1));
+	}
+
+}
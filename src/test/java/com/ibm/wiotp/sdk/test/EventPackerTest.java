@@ -0,0 +1,135 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+import com.ibm.wiotp.sdk.outbound.EventPacker;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class EventPackerTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testRoundTrip() {
+		logTestStart("testRoundTrip");
+		EventPacker packer = new EventPacker(64 * 1024);
+		byte[] binary = { 0, (byte) 0xff, 1, 2 };
+		assertNull(packer.add("sensor", "s1", "reading", "json", "{\"temp\":21.5}".getBytes(UTF8)));
+		assertNull(packer.add("sensor", "s2", "reading", "json", "{\"temp\":22}".getBytes(UTF8)));
+		assertNull(packer.add("meter", "m1 €", "raw", "bin", binary));
+		assertNull(packer.add("meter", "m2", "empty", "json", new byte[0]));
+		assertEquals(4, packer.getCount());
+
+		byte[] pack = packer.drain();
+		assertEquals(0, packer.getCount());
+		assertNull(packer.drain());
+
+		List<EventPacker.Entry> entries = EventPacker.unpack(pack);
+		assertEquals(4, entries.size());
+		assertEquals("sensor", entries.get(0).getTypeId());
+		assertEquals("s1", entries.get(0).getDeviceId());
+		assertEquals("reading", entries.get(0).getEventId());
+		assertEquals("json", entries.get(0).getFormat());
+		assertEquals("{\"temp\":21.5}", new String(entries.get(0).getPayload(), UTF8));
+		assertEquals("s2", entries.get(1).getDeviceId());
+		assertEquals("m1 €", entries.get(2).getDeviceId());
+		assertEquals("bin", entries.get(2).getFormat());
+		assertArrayEquals(binary, entries.get(2).getPayload());
+		assertEquals(0, entries.get(3).getPayload().length);
+	}
+
+	@Test
+	public void testSizeBudget() {
+		logTestStart("testSizeBudget");
+		EventPacker packer = new EventPacker(200);
+		byte[] payload = new byte[50];
+		int packs = 0;
+		int packed = 0;
+		for (int i = 0; i < 20; i++) {
+			byte[] pack = packer.add("sensor", "s" + i, "reading", "json", payload);
+			if (pack != null) {
+				assertTrue("pack of " + pack.length + " bytes", pack.length <= 200);
+				packs++;
+				packed += EventPacker.unpack(pack).size();
+			}
+		}
+		byte[] last = packer.drain();
+		assertNotNull(last);
+		packed += EventPacker.unpack(last).size();
+
+		assertTrue(packs > 1);
+		assertEquals(20, packed);
+	}
+
+	@Test
+	public void testFits() {
+		logTestStart("testFits");
+		EventPacker packer = new EventPacker(100);
+		// Version byte, four 2 byte lengths, a 4 byte length and 6 + 2 + 7 + 4 bytes of header fields
+		int header = 1 + 8 + 4 + "sensor".length() + "s1".length() + "reading".length() + "json".length();
+		assertTrue(packer.fits("sensor", "s1", "reading", "json", 100 - header));
+		assertFalse(packer.fits("sensor", "s1", "reading", "json", 100 - header + 1));
+		// Multi-byte characters count as their UTF-8 length
+		assertFalse(packer.fits("sensor", "s1 \u20ac", "reading", "json", 100 - header - 3));
+
+		packer.add("sensor", "s1", "reading", "json", new byte[100 - header]);
+		assertEquals(100, packer.drain().length);
+	}
+
+	@Test
+	public void testClose() {
+		logTestStart("testClose");
+		EventPacker packer = new EventPacker(1024);
+		packer.add("sensor", "s1", "reading", "json", "{}".getBytes(UTF8));
+		assertEquals(1, EventPacker.unpack(packer.close()).size());
+		assertNull(packer.close());
+		assertNull(packer.drain());
+		try {
+			packer.add("sensor", "s2", "reading", "json", "{}".getBytes(UTF8));
+			throw new AssertionError("Added to a closed packer");
+		} catch (IllegalStateException e) {
+			// A closed packer is never drained again, so the event must go elsewhere
+		}
+		assertEquals(0, packer.getCount());
+	}
+
+	@Test
+	public void testMalformed() {
+		logTestStart("testMalformed");
+		EventPacker packer = new EventPacker(1024);
+		packer.add("sensor", "s1", "reading", "json", "{}".getBytes(UTF8));
+		byte[] pack = packer.drain();
+
+		byte[][] malformed = { new byte[0], { 9 }, Arrays.copyOf(pack, pack.length - 1), Arrays.copyOf(pack, 5) };
+		for (byte[] payload : malformed) {
+			try {
+				EventPacker.unpack(payload);
+				throw new AssertionError("Unpacked malformed payload " + Arrays.toString(payload));
+			} catch (MalformedMessageException e) {
+				assertEquals(EventPacker.FORMAT, e.getFormat());
+			}
+		}
+	}
+
+}
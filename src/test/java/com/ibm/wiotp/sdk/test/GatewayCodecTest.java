@@ -0,0 +1,137 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.codecs.Utf8Codec;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigAuth;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigIdentity;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigOptions;
+import com.ibm.wiotp.sdk.gateway.GatewayClient;
+import com.ibm.wiotp.sdk.gateway.config.GatewayConfig;
+import com.ibm.wiotp.sdk.outbound.EventPacker;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+/**
+ * Device events published by a gateway go through the codec registry, checked
+ * without a connection by recording what reaches the outbound path
+ */
+public class GatewayCodecTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static class RecordingGatewayClient extends GatewayClient {
+		final List<OutboundMessage> messages = Collections.synchronizedList(new ArrayList<OutboundMessage>());
+
+		RecordingGatewayClient() throws Exception {
+			super(new GatewayConfig(new DeviceConfigIdentity("myorg", "gw", "g1"), new DeviceConfigAuth("token"),
+					new DeviceConfigOptions()));
+		}
+
+		@Override
+		protected boolean submit(OutboundMessage message) {
+			messages.add(message);
+			return true;
+		}
+	}
+
+	/* Has no codec registered, so is published as JSON */
+	private static class Reading {
+		@SuppressWarnings("unused")
+		int level = 3;
+	}
+
+	private RecordingGatewayClient client;
+
+	@Before
+	public void createClient() throws Exception {
+		client = new RecordingGatewayClient();
+		client.registerCodec(new Utf8Codec());
+	}
+
+	@After
+	public void closeClient() throws Exception {
+		client.close();
+	}
+
+	@Test
+	public void testRegisteredCodec() {
+		logTestStart("testRegisteredCodec");
+		assertTrue(client.publishDeviceEvent("pump", "p1", "status", "running", 1));
+		OutboundMessage message = client.messages.get(0);
+		assertEquals("iot-2/type/pump/id/p1/evt/status/fmt/utf8", message.getTopic());
+		assertArrayEquals("running".getBytes(UTF8), message.getMessage().getPayload());
+		assertEquals(1, message.getMessage().getQos());
+	}
+
+	@Test
+	public void testJsonWithoutCodec() {
+		logTestStart("testJsonWithoutCodec");
+		assertTrue(client.publishDeviceEvent("pump", "p1", "reading", new Reading(), 0));
+		OutboundMessage message = client.messages.get(0);
+		assertEquals("iot-2/type/pump/id/p1/evt/reading/fmt/json", message.getTopic());
+		assertEquals("{\"level\":3}", new String(message.getMessage().getPayload(), UTF8));
+	}
+
+	@Test
+	public void testBulkPublish() {
+		logTestStart("testBulkPublish");
+		Map<String, String> data = new LinkedHashMap<String, String>();
+		data.put("p1", "running");
+		data.put("p2", "stopped");
+		data.put("p3", "running");
+		BatchPublishResult batch = client.publishDeviceEvents("pump", "status", data, 1);
+		assertEquals(3, batch.size());
+		assertEquals(0, batch.getFailureCount());
+
+		assertEquals(3, client.messages.size());
+		int i = 0;
+		for (Map.Entry<String, String> entry : data.entrySet()) {
+			OutboundMessage message = client.messages.get(i++);
+			assertEquals("iot-2/type/pump/id/" + entry.getKey() + "/evt/status/fmt/utf8", message.getTopic());
+			assertArrayEquals(entry.getValue().getBytes(UTF8), message.getMessage().getPayload());
+			assertEquals(1, message.getMessage().getQos());
+		}
+	}
+
+	@Test
+	public void testRemovePacking() {
+		logTestStart("testRemovePacking");
+		client.setPacking(64 * 1024, 60000, 1);
+		assertTrue(client.publishDeviceEvent("pump", "p1", "status", "running", 1));
+		assertTrue(client.publishDeviceEvent("pump", "p2", "status", "stopped", 0));
+		assertTrue(client.messages.isEmpty());
+
+		// The current pack is published, and later events are published on their own
+		client.removePacking();
+		assertTrue(client.publishDeviceEvent("pump", "p3", "status", "running", 1));
+		assertEquals(2, client.messages.size());
+		assertEquals("iot-2/evt/packed/fmt/packed", client.messages.get(0).getTopic());
+		assertEquals(2, EventPacker.unpack(client.messages.get(0).getMessage().getPayload()).size());
+		assertEquals("iot-2/type/pump/id/p3/evt/status/fmt/utf8", client.messages.get(1).getTopic());
+	}
+
+}
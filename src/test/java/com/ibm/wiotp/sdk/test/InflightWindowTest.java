@@ -0,0 +1,98 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.outbound.InflightWindow;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class InflightWindowTest extends AbstractTest {
+
+	private static final long RTT = 50 * 1000 * 1000L;
+
+	@Test
+	public void testWindowLimitsInFlight() {
+		logTestStart("testWindowLimitsInFlight");
+		InflightWindow window = new InflightWindow(1, 100, true);
+		for (int i = 0; i < window.getWindow(); i++) {
+			assertTrue(window.tryAcquire() != InflightWindow.NO_SLOT);
+		}
+		assertEquals(InflightWindow.NO_SLOT, window.tryAcquire());
+		assertFalse(window.hasCapacity());
+	}
+
+	@Test
+	public void testGrowsToUpperBound() {
+		logTestStart("testGrowsToUpperBound");
+		InflightWindow window = new InflightWindow(1, 40, true);
+		for (int i = 0; i < 1000; i++) {
+			long slot = window.tryAcquire();
+			window.release(slot, RTT, true);
+		}
+		assertEquals(40, window.getWindow());
+	}
+
+	@Test
+	public void testShrinksOnFailureAndLatency() {
+		logTestStart("testShrinksOnFailureAndLatency");
+		InflightWindow window = new InflightWindow(4, 100, true);
+		int initial = window.getWindow();
+		window.release(window.tryAcquire(), RTT, false);
+		assertEquals(initial / 2, window.getWindow());
+
+		window = new InflightWindow(4, 100, true);
+		window.release(window.tryAcquire(), RTT, true);
+		int grown = window.getWindow();
+		window.release(window.tryAcquire(), RTT * 10, true);
+		assertEquals(grown / 2, window.getWindow());
+
+		// Never below the lower bound
+		for (int i = 0; i < 10; i++) {
+			window.reset();
+			window.release(window.tryAcquire(), RTT, false);
+		}
+		assertTrue(window.getWindow() >= 4);
+	}
+
+	@Test
+	public void testRidesOutLatencyDrift() {
+		logTestStart("testRidesOutLatencyDrift");
+		InflightWindow window = new InflightWindow(1, 40, true);
+		// Latency climbs to four times its starting value, a little with each acknowledgement
+		for (int i = 0; i < 300; i++) {
+			window.release(window.tryAcquire(), RTT + RTT * 3 * Math.min(i, 200) / 200, true);
+		}
+		assertEquals(40, window.getWindow());
+		assertTrue(window.getSmoothedRtt() > RTT * 3);
+	}
+
+	@Test
+	public void testResetReclaimsSlots() {
+		logTestStart("testResetReclaimsSlots");
+		InflightWindow window = new InflightWindow(1, 2, false);
+		long stale = window.tryAcquire();
+		window.tryAcquire();
+		assertFalse(window.hasCapacity());
+		window.reset();
+		assertEquals(0, window.getInFlight());
+		window.tryAcquire();
+		// Completion of a message from before the reset does not free a slot
+		window.release(stale, RTT, true);
+		assertEquals(1, window.getInFlight());
+		assertEquals(2, window.getWindow());
+	}
+
+}
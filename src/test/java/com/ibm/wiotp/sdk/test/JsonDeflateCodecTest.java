@@ -0,0 +1,118 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.codecs.JsonDeflateCodec;
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class JsonDeflateCodecTest extends AbstractTest {
+
+	private static JsonObject diagnostics(int entries) {
+		JsonObject data = new JsonObject();
+		JsonArray log = new JsonArray();
+		for (int i = 0; i < entries; i++) {
+			JsonObject entry = new JsonObject();
+			entry.addProperty("sequence", i);
+			entry.addProperty("component", "sensor-controller");
+			entry.addProperty("message", "Reading within expected range");
+			log.add(entry);
+		}
+		data.add("log", log);
+		return data;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		logTestStart("testRoundTrip");
+		JsonDeflateCodec codec = new JsonDeflateCodec();
+		// Large enough to need the scratch buffer to grow
+		JsonObject data = diagnostics(2000);
+		byte[] payload = codec.encode(data, null);
+		assertTrue(payload.length < data.toString().length() / 10);
+
+		assertEquals(data, codec.decode(new MqttMessage(payload)).getData());
+		PayloadBuffer buffer = PayloadBuffer.pooled();
+		codec.encode(data, null, buffer);
+		assertArrayEquals(payload, buffer.toByteArray());
+		// The codec instances are reused for the next message
+		JsonObject small = diagnostics(1);
+		assertEquals(small, codec.decode(new MqttMessage(codec.encode(small, null))).getData());
+		assertEquals("json-deflate", codec.getMessageFormat());
+	}
+
+	@Test
+	public void testConcurrentUseAndClose() throws Exception {
+		logTestStart("testConcurrentUseAndClose");
+		final JsonDeflateCodec codec = new JsonDeflateCodec();
+		// More threads than pooled deflaters and inflaters, some with payloads too large to keep buffers for
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < Runtime.getRuntime().availableProcessors() * 2 + 2; t++) {
+			final int entries = t % 3 == 0 ? 15000 : 50 + t;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 3; i++) {
+							JsonObject data = diagnostics(entries);
+							assertEquals(data, codec.decode(new MqttMessage(codec.encode(data, null))).getData());
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		// Closing frees the pooled instances, and the codec carries on with new ones
+		codec.close();
+		JsonObject data = diagnostics(10);
+		assertEquals(data, codec.decode(new MqttMessage(codec.encode(data, null))).getData());
+		codec.close();
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testTruncatedPayload() {
+		logTestStart("testTruncatedPayload");
+		JsonDeflateCodec codec = new JsonDeflateCodec();
+		byte[] payload = codec.encode(diagnostics(100), null);
+		codec.decode(new MqttMessage(Arrays.copyOf(payload, payload.length / 2)));
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testNotDeflated() {
+		logTestStart("testNotDeflated");
+		new JsonDeflateCodec().decode(new MqttMessage("{\"a\":1}".getBytes()));
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.inbound.KeyedDispatcher;
+import com.ibm.wiotp.sdk.inbound.VirtualThreads;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class KeyedDispatcherTest extends AbstractTest {
+
+	/* Platform threads stand in for virtual threads, which need Java 21 */
+	private static ThreadFactory threads() {
+		ThreadFactory factory = VirtualThreads.factory();
+		return factory != null ? factory : Executors.defaultThreadFactory();
+	}
+
+	@Test
+	public void testBlockingHandlers() throws InterruptedException {
+		logTestStart("testBlockingHandlers");
+		KeyedDispatcher dispatcher = new KeyedDispatcher(threads(), 1000);
+		final CountDownLatch started = new CountDownLatch(100);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		for (int d = 0; d < 100; d++) {
+			final String key = "d" + d;
+			dispatcher.execute(key, new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					order.add(key + "-1");
+				}
+			});
+			dispatcher.execute(key, new Runnable() {
+				@Override
+				public void run() {
+					order.add(key + "-2");
+				}
+			});
+		}
+
+		// Every device blocks at once, each holding back only its own second message
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(100, dispatcher.getRunning());
+		assertEquals(100, dispatcher.getQueueDepth());
+
+		release.countDown();
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(200, order.size());
+		for (int d = 0; d < 100; d++) {
+			assertTrue(order.indexOf("d" + d + "-1") < order.indexOf("d" + d + "-2"));
+		}
+		assertEquals(0, dispatcher.getRunning());
+		assertEquals(0, dispatcher.getQueueDepth());
+	}
+
+	@Test
+	public void testMaxPending() throws InterruptedException {
+		logTestStart("testMaxPending");
+		final KeyedDispatcher dispatcher = new KeyedDispatcher(threads(), 2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger ran = new AtomicInteger();
+		Runnable blocking = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				ran.incrementAndGet();
+			}
+		};
+		dispatcher.execute(null, blocking);
+		dispatcher.execute(null, blocking);
+
+		final CountDownLatch queued = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					dispatcher.execute("d1", new Runnable() {
+						@Override
+						public void run() {
+							ran.incrementAndGet();
+						}
+					});
+					queued.countDown();
+				} catch (InterruptedException e) {
+					// fall through
+				}
+			}
+		}.start();
+		assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(queued.await(5, TimeUnit.SECONDS));
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(3, ran.get());
+	}
+
+	@Test
+	public void testFailingTask() throws InterruptedException {
+		logTestStart("testFailingTask");
+		KeyedDispatcher dispatcher = new KeyedDispatcher(threads(), 10);
+		final AtomicInteger ran = new AtomicInteger();
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("callback failed");
+			}
+		});
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		});
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(1, ran.get());
+
+		try {
+			dispatcher.execute("d1", new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			throw new AssertionError("Accepted a task after shutdown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testVirtualThreads() {
+		logTestStart("testVirtualThreads");
+		assertEquals(VirtualThreads.isAvailable(), VirtualThreads.factory() != null);
+	}
+
+}
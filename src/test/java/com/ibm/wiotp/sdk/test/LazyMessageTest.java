@@ -0,0 +1,92 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.app.messages.Event;
+import com.ibm.wiotp.sdk.codecs.JsonCodec;
+import com.ibm.wiotp.sdk.codecs.JsonMessage;
+import com.ibm.wiotp.sdk.device.Command;
+import com.ibm.wiotp.sdk.exceptions.MalformedMessageException;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class LazyMessageTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* Counts the payloads it decodes */
+	private static class CountingCodec extends JsonCodec {
+		final AtomicInteger decoded = new AtomicInteger();
+
+		@Override
+		public JsonMessage decode(MqttMessage msg) throws MalformedMessageException {
+			decoded.incrementAndGet();
+			return super.decode(msg);
+		}
+	}
+
+	@Test
+	public void testDecodedOnFirstUse() {
+		logTestStart("testDecodedOnFirstUse");
+		CountingCodec codec = new CountingCodec();
+		Event<JsonObject> evt = new Event<JsonObject>("pump", "p1", "alarm", "json", codec,
+				new MqttMessage("{\"level\":3}".getBytes(UTF8)));
+		assertEquals("p1", evt.getDeviceId());
+		assertEquals("alarm", evt.getEventId());
+		assertEquals(0, codec.decoded.get());
+
+		JsonObject data = evt.getData();
+		assertEquals(3, data.get("level").getAsInt());
+		assertSame(data, evt.getData());
+		assertNull(evt.getTimestamp());
+		assertEquals(1, codec.decoded.get());
+	}
+
+	@Test
+	public void testCommand() {
+		logTestStart("testCommand");
+		CountingCodec codec = new CountingCodec();
+		Command<JsonObject> cmd = new Command<JsonObject>("reboot", "json", codec,
+				new MqttMessage("{\"delay\":5}".getBytes(UTF8)));
+		assertEquals("reboot", cmd.getCommandId());
+		assertEquals(0, codec.decoded.get());
+		assertEquals(5, cmd.getData().get("delay").getAsInt());
+		assertEquals(1, codec.decoded.get());
+
+		com.ibm.wiotp.sdk.app.messages.Command<JsonObject> appCmd = new com.ibm.wiotp.sdk.app.messages.Command<JsonObject>(
+				"pump", "p1", "reboot", "json", codec, new MqttMessage(new byte[0]));
+		assertEquals("p1", appCmd.getDeviceId());
+		assertEquals(1, codec.decoded.get());
+		assertNull(appCmd.getData());
+		assertEquals(2, codec.decoded.get());
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testMalformedOnFirstUse() {
+		logTestStart("testMalformedOnFirstUse");
+		Event<JsonObject> evt = new Event<JsonObject>("pump", "p1", "alarm", "json", new JsonCodec(),
+				new MqttMessage("{not json".getBytes(UTF8)));
+		assertEquals("p1", evt.getDeviceId());
+		DateTime timestamp = evt.getTimestamp();
+		assertNull(timestamp);
+	}
+
+}
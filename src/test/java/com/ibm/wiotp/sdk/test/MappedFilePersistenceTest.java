@@ -0,0 +1,92 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.persistence.MappedFilePersistence;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class MappedFilePersistenceTest extends AbstractTest {
+
+	private static final String CLIENT_ID = "d:org:type:device";
+	private static final String SERVER_URI = "ssl://org.messaging.internetofthings.ibmcloud.com:8883";
+
+	private static MqttPersistentData data(String key, String payload) {
+		byte[] header = new byte[] { 0x32, 0x10 };
+		byte[] bytes = payload.getBytes();
+		return new MqttPersistentData(key, header, 0, header.length, bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void testRecoverAfterReopen() throws Exception {
+		logTestStart("testRecoverAfterReopen");
+		File dir = Files.createTempDirectory("wiotp-persistence").toFile();
+		MappedFilePersistence persistence = new MappedFilePersistence(dir, 64 * 1024, 0);
+		persistence.open(CLIENT_ID, SERVER_URI);
+		for (int i = 0; i < 10; i++) {
+			persistence.put("s-" + i, data("s-" + i, "payload" + i));
+		}
+		persistence.remove("s-3");
+		persistence.close();
+
+		persistence = new MappedFilePersistence(dir, 64 * 1024, 0);
+		persistence.open(CLIENT_ID, SERVER_URI);
+		try {
+			assertEquals(9, Collections.list(persistence.keys()).size());
+			assertFalse(persistence.containsKey("s-3"));
+			MqttPersistable p = persistence.get("s-7");
+			assertArrayEquals(new byte[] { 0x32, 0x10 }, p.getHeaderBytes());
+			assertArrayEquals("payload7".getBytes(), p.getPayloadBytes());
+		} finally {
+			persistence.close();
+		}
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		logTestStart("testCompaction");
+		File dir = Files.createTempDirectory("wiotp-persistence").toFile();
+		MappedFilePersistence persistence = new MappedFilePersistence(dir, 4096, 100);
+		persistence.open(CLIENT_ID, SERVER_URI);
+		// Far more changes than fit in the initial file, with few live entries
+		for (int i = 0; i < 5000; i++) {
+			persistence.put("s-" + i, data("s-" + i, "payload" + i));
+			if (i >= 5) {
+				persistence.remove("s-" + (i - 5));
+			}
+		}
+		persistence.close();
+
+		persistence = new MappedFilePersistence(dir, 4096, 100);
+		persistence.open(CLIENT_ID, SERVER_URI);
+		try {
+			assertEquals(5, Collections.list(persistence.keys()).size());
+			assertTrue(persistence.containsKey("s-4999"));
+			persistence.clear();
+			assertEquals(0, Collections.list(persistence.keys()).size());
+		} finally {
+			persistence.close();
+		}
+	}
+
+}
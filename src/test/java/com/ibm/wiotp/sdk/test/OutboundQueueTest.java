@@ -0,0 +1,200 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.outbound.DiscardReason;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.outbound.OutboundQueue;
+import com.ibm.wiotp.sdk.outbound.OutboundQueueCallback;
+import com.ibm.wiotp.sdk.outbound.OverflowPolicy;
+import com.ibm.wiotp.sdk.outbound.Priority;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class OutboundQueueTest extends AbstractTest {
+
+	private static OutboundMessage message(String topic, long expiry) {
+		return new OutboundMessage(topic, new MqttMessage(new byte[0]), null, expiry);
+	}
+
+	private static OutboundMessage message(String topic, Priority priority) {
+		return new OutboundMessage(topic, new MqttMessage(new byte[0]), null, 0, priority);
+	}
+
+	@Test
+	public void testDropNewest() {
+		logTestStart("testDropNewest");
+		OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_NEWEST, 0);
+		assertTrue(queue.offer(message("a", 0)));
+		assertTrue(queue.offer(message("b", 0)));
+		assertFalse(queue.offer(message("c", 0)));
+		assertEquals(1, queue.getDiscardedCount());
+		assertEquals("a", queue.poll().getTopic());
+		assertEquals("b", queue.poll().getTopic());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testDropOldest() {
+		logTestStart("testDropOldest");
+		final List<String> discarded = new ArrayList<String>();
+		OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 0);
+		queue.setCallback(new OutboundQueueCallback() {
+			@Override
+			public void writabilityChanged(boolean writable, int occupancy, int capacity) {
+			}
+
+			@Override
+			public void messageDiscarded(String topic, DiscardReason reason) {
+				discarded.add(topic);
+			}
+		});
+		assertTrue(queue.offer(message("a", 0)));
+		assertTrue(queue.offer(message("b", 0)));
+		assertTrue(queue.offer(message("c", 0)));
+		assertEquals(1, discarded.size());
+		assertEquals("a", discarded.get(0));
+		assertEquals("b", queue.poll().getTopic());
+		assertEquals("c", queue.poll().getTopic());
+	}
+
+	@Test
+	public void testBlockTimesOut() {
+		logTestStart("testBlockTimesOut");
+		OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK, 50);
+		assertTrue(queue.offer(message("a", 0)));
+		long start = System.currentTimeMillis();
+		assertFalse(queue.offer(message("b", 0)));
+		assertTrue(System.currentTimeMillis() - start >= 50);
+	}
+
+	@Test
+	public void testExpiredMessagesAreSkipped() {
+		logTestStart("testExpiredMessagesAreSkipped");
+		OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_NEWEST, 0);
+		queue.offer(message("stale", System.currentTimeMillis() - 1));
+		queue.offer(message("fresh", 0));
+		assertEquals("fresh", queue.poll().getTopic());
+		assertEquals(1, queue.getDiscardedCount());
+	}
+
+	@Test
+	public void testWritability() {
+		logTestStart("testWritability");
+		final List<Boolean> changes = new ArrayList<Boolean>();
+		OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_NEWEST, 0);
+		queue.setCallback(new OutboundQueueCallback() {
+			@Override
+			public void writabilityChanged(boolean writable, int occupancy, int capacity) {
+				changes.add(writable);
+			}
+
+			@Override
+			public void messageDiscarded(String topic, DiscardReason reason) {
+			}
+		});
+		for (int i = 0; i < 9; i++) {
+			queue.offer(message("t", 0));
+		}
+		assertFalse(queue.isWritable());
+		while (queue.getOccupancy() > 5) {
+			queue.poll();
+		}
+		assertTrue(queue.isWritable());
+		assertEquals(2, changes.size());
+		assertFalse(changes.get(0));
+		assertTrue(changes.get(1));
+	}
+
+	@Test
+	public void testHigherLanesFirst() {
+		logTestStart("testHigherLanesFirst");
+		OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_NEWEST, 0);
+		queue.offer(message("bulk1", Priority.BULK));
+		queue.offer(message("normal1", Priority.NORMAL));
+		queue.offer(message("bulk2", Priority.BULK));
+		queue.offer(message("critical1", Priority.CRITICAL));
+		queue.offer(message("normal2", Priority.NORMAL));
+		assertEquals(2, queue.getOccupancy(Priority.BULK));
+
+		assertEquals("critical1", queue.poll().getTopic());
+		OutboundMessage normal1 = queue.poll();
+		assertEquals("normal1", normal1.getTopic());
+		queue.pushBack(normal1);
+		assertEquals("normal1", queue.poll().getTopic());
+		assertEquals("normal2", queue.poll().getTopic());
+		assertEquals("bulk1", queue.poll().getTopic());
+		assertEquals("bulk2", queue.poll().getTopic());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testLowerLanesEvictedFirst() {
+		logTestStart("testLowerLanesEvictedFirst");
+		final List<String> discarded = new ArrayList<String>();
+		OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_NEWEST, 0);
+		queue.setCallback(new OutboundQueueCallback() {
+			@Override
+			public void writabilityChanged(boolean writable, int occupancy, int capacity) {
+			}
+
+			@Override
+			public void messageDiscarded(String topic, DiscardReason reason) {
+				discarded.add(topic);
+			}
+		});
+		queue.offer(message("bulk1", Priority.BULK));
+		queue.offer(message("normal1", Priority.NORMAL));
+		queue.offer(message("bulk2", Priority.BULK));
+
+		// Evicts the oldest message of the lowest lane, whatever the policy
+		assertTrue(queue.offer(message("critical1", Priority.CRITICAL)));
+		assertTrue(queue.offer(message("normal2", Priority.NORMAL)));
+		assertEquals(0, queue.getOccupancy(Priority.BULK));
+		assertTrue(queue.offer(message("critical2", Priority.CRITICAL)));
+		assertEquals("[bulk1, bulk2, normal1]", discarded.toString());
+
+		// Nothing below the new message is left, so the policy applies
+		assertFalse(queue.offer(message("normal3", Priority.NORMAL)));
+		assertFalse(queue.offer(message("bulk3", Priority.BULK)));
+		assertEquals(5, queue.getDiscardedCount());
+		assertEquals("critical1", queue.poll().getTopic());
+		assertEquals("critical2", queue.poll().getTopic());
+		assertEquals("normal2", queue.poll().getTopic());
+	}
+
+	@Test
+	public void testDropOldestKeepsHigherLanes() {
+		logTestStart("testDropOldestKeepsHigherLanes");
+		OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 0);
+		queue.offer(message("critical1", Priority.CRITICAL));
+		queue.offer(message("bulk1", Priority.BULK));
+		// The oldest message of the same lane makes way
+		assertTrue(queue.offer(message("bulk2", Priority.BULK)));
+		assertTrue(queue.offer(message("normal1", Priority.NORMAL)));
+		assertTrue(queue.offer(message("normal2", Priority.NORMAL)));
+		// Only a higher lane is left, which is kept
+		assertFalse(queue.offer(message("bulk3", Priority.BULK)));
+		assertEquals("critical1", queue.poll().getTopic());
+		assertEquals("normal2", queue.poll().getTopic());
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.app.ApplicationClient;
+import com.ibm.wiotp.sdk.app.callbacks.EventCallback;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfig;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigAuth;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigIdentity;
+import com.ibm.wiotp.sdk.app.config.ApplicationConfigOptions;
+import com.ibm.wiotp.sdk.app.messages.Event;
+import com.ibm.wiotp.sdk.codecs.Utf8Codec;
+import com.ibm.wiotp.sdk.outbound.EventPacker;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+/**
+ * Packed events are only unpacked from the gateway types the application
+ * trusts, checked without a connection by handing messages straight to the
+ * client
+ */
+public class PackedEventTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ApplicationClient client;
+	private final List<Event<String>> events = new ArrayList<Event<String>>();
+
+	@Before
+	public void createClient() throws Exception {
+		client = new ApplicationClient(new ApplicationConfig(new ApplicationConfigIdentity("app1"),
+				new ApplicationConfigAuth("a-myorg-key", "token"), new ApplicationConfigOptions()));
+		client.registerCodec(new Utf8Codec());
+		client.registerEventCallback(new EventCallback<String>() {
+			@Override
+			public void processEvent(Event<String> evt) {
+				events.add(evt);
+			}
+
+			@Override
+			public Class<String> getMessageClass() {
+				return String.class;
+			}
+		});
+	}
+
+	@After
+	public void closeClient() throws Exception {
+		client.close();
+	}
+
+	private static MqttMessage pack() {
+		EventPacker packer = new EventPacker(1024);
+		packer.add("pump", "p1", "status", "utf8", "running".getBytes(UTF8));
+		packer.add("pump", "p2", "status", "utf8", "stopped".getBytes(UTF8));
+		return new MqttMessage(packer.drain());
+	}
+
+	@Test
+	public void testUnpackedFromTrustedGateway() {
+		logTestStart("testUnpackedFromTrustedGateway");
+		client.setUnpacking("gw", true);
+		client.messageArrived("iot-2/type/gw/id/g1/evt/packed/fmt/packed", pack());
+
+		assertEquals(2, events.size());
+		assertEquals("pump", events.get(0).getTypeId());
+		assertEquals("p1", events.get(0).getDeviceId());
+		assertEquals("running", events.get(0).getData());
+		assertEquals("gw", events.get(0).getGatewayTypeId());
+		assertEquals("g1", events.get(0).getGatewayId());
+		assertEquals("p2", events.get(1).getDeviceId());
+		assertEquals("g1", events.get(1).getGatewayId());
+	}
+
+	@Test
+	public void testIgnoredFromOtherDevices() {
+		logTestStart("testIgnoredFromOtherDevices");
+		// Nothing is unpacked until a gateway type is trusted
+		client.messageArrived("iot-2/type/gw/id/g1/evt/packed/fmt/packed", pack());
+		assertTrue(events.isEmpty());
+
+		// A device of another type cannot speak for other devices
+		client.setUnpacking("gw", true);
+		client.messageArrived("iot-2/type/pump/id/p9/evt/packed/fmt/packed", pack());
+		assertTrue(events.isEmpty());
+
+		client.setUnpacking("gw", false);
+		client.messageArrived("iot-2/type/gw/id/g1/evt/packed/fmt/packed", pack());
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testDirectEventHasNoGateway() {
+		logTestStart("testDirectEventHasNoGateway");
+		client.messageArrived("iot-2/type/pump/id/p1/evt/status/fmt/utf8", new MqttMessage("running".getBytes(UTF8)));
+		assertEquals(1, events.size());
+		assertNull(events.get(0).getGatewayTypeId());
+		assertNull(events.get(0).getGatewayId());
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.codecs.JsonCodec;
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
+import com.ibm.wiotp.sdk.codecs.Utf8Codec;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class PayloadBufferTest extends AbstractTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testUtf8() {
+		logTestStart("testUtf8");
+		String[] samples = { "plain ascii", "café über", "€ 100", "😀 emoji",
+				"unpaired \ud83d and \ude00", "trailing \ud83d", "€€€ then a long run of plain ascii characters" };
+		Utf8Codec codec = new Utf8Codec();
+		for (String sample : samples) {
+			PayloadBuffer buffer = PayloadBuffer.pooled();
+			codec.encode(sample, null, buffer);
+			assertArrayEquals(sample, sample.getBytes(UTF8), buffer.toByteArray());
+		}
+	}
+
+	@Test
+	public void testJsonMatchesToString() {
+		logTestStart("testJsonMatchesToString");
+		JsonObject data = new JsonObject();
+		data.addProperty("name", "<sensor & \"probe\"> é");
+		data.addProperty("label", "€€€ then a long run of plain ascii characters, 😀 and more");
+		data.addProperty("value", 21.5);
+		data.add("missing", JsonNull.INSTANCE);
+		JsonArray values = new JsonArray();
+		values.add(1);
+		values.add("two");
+		data.add("values", values);
+
+		PayloadBuffer buffer = new PayloadBuffer(16);
+		new JsonCodec().encode(data, null, buffer);
+		assertArrayEquals(data.toString().getBytes(UTF8), buffer.toByteArray());
+		assertEquals(buffer.size(), buffer.asByteBuffer().remaining());
+	}
+
+}
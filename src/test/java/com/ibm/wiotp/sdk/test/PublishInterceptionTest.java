@@ -0,0 +1,140 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.BatchPublishResult;
+import com.ibm.wiotp.sdk.EventPublisher;
+import com.ibm.wiotp.sdk.OutboundEvent;
+import com.ibm.wiotp.sdk.codecs.JsonCodec;
+import com.ibm.wiotp.sdk.device.DeviceClient;
+import com.ibm.wiotp.sdk.device.config.DeviceConfig;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigAuth;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigIdentity;
+import com.ibm.wiotp.sdk.device.config.DeviceConfigOptions;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+/**
+ * Aggregation and deadbands apply to every publish path, checked without a
+ * connection by recording what reaches the outbound path
+ */
+public class PublishInterceptionTest extends AbstractTest {
+
+	private static class RecordingDeviceClient extends DeviceClient {
+		final List<String> topics = Collections.synchronizedList(new ArrayList<String>());
+
+		RecordingDeviceClient() throws Exception {
+			super(new DeviceConfig(new DeviceConfigIdentity("myorg", "pump", "p1"), new DeviceConfigAuth("token"),
+					new DeviceConfigOptions()));
+		}
+
+		@Override
+		protected boolean submit(OutboundMessage message) {
+			topics.add(message.getTopic());
+			return true;
+		}
+	}
+
+	private RecordingDeviceClient client;
+
+	private static JsonObject level(double value) {
+		JsonObject data = new JsonObject();
+		data.addProperty("level", value);
+		return data;
+	}
+
+	@Before
+	public void createClient() throws Exception {
+		client = new RecordingDeviceClient();
+		client.registerCodec(new JsonCodec());
+	}
+
+	@After
+	public void closeClient() throws Exception {
+		client.close();
+	}
+
+	@Test
+	public void testDeadbandOnEveryPath() {
+		logTestStart("testDeadbandOnEveryPath");
+		client.setDeadband("reading", 1.0, 0, 0);
+		assertTrue(client.publishEvent("reading", level(10)));
+		assertEquals(1, client.topics.size());
+
+		CompletableFuture<IMqttToken> future = client.publishEventAsync("reading", level(10.5));
+		assertTrue(future.isDone());
+		assertNull(future.join());
+
+		EventPublisher<JsonObject> publisher = client.getEventPublisher("reading", JsonObject.class, 0);
+		assertTrue(publisher.publish(level(10.2)));
+		assertTrue(publisher.publishAsync(level(10.3)).isDone());
+
+		BatchPublishResult batch = client.publishEvents(
+				Arrays.asList(new OutboundEvent("reading", level(10.4), 0), new OutboundEvent("reading", level(20), 0)));
+		assertTrue(batch.isSuccess(0));
+		assertFalse(batch.isComplete());
+		assertEquals(2, client.topics.size());
+	}
+
+	@Test
+	public void testDeadbandUsesClientClock() {
+		logTestStart("testDeadbandUsesClientClock");
+		Instant start = Instant.parse("2019-06-01T12:00:00Z");
+		client.setClock(Clock.fixed(start, ZoneOffset.UTC));
+		client.setDeadband("reading", 1.0, 0, 1000);
+		client.publishEvent("reading", level(10));
+		client.setClock(Clock.fixed(start.plusMillis(500), ZoneOffset.UTC));
+		client.publishEvent("reading", level(10));
+		assertEquals(1, client.topics.size());
+
+		// Silent for longer than allowed by the client's clock, whatever the system clock says
+		client.setClock(Clock.fixed(start.plusMillis(1500), ZoneOffset.UTC));
+		client.publishEvent("reading", level(10));
+		assertEquals(2, client.topics.size());
+	}
+
+	@Test
+	public void testAggregationOnEveryPath() {
+		logTestStart("testAggregationOnEveryPath");
+		client.setAggregation("reading", 60000, 0);
+		assertTrue(client.publishEventAsync("reading", level(1)).isDone());
+		assertTrue(client.getEventPublisher("reading", JsonObject.class, 0).publish(level(2)));
+		BatchPublishResult batch = client.publishEvents(Arrays.asList(new OutboundEvent("reading", level(3), 0)));
+		assertTrue(batch.isComplete());
+		assertEquals(1, batch.getSuccessCount());
+		assertTrue(client.topics.isEmpty());
+
+		// The summary of all three samples is published when the window closes
+		client.removeAggregation("reading");
+		assertEquals(Arrays.asList("iot-2/evt/reading/fmt/json"), client.topics);
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.SegmentCache;
+import com.ibm.wiotp.sdk.Topic;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class SegmentCacheTest extends AbstractTest {
+
+	@Test
+	public void testSharedInstances() {
+		logTestStart("testSharedInstances");
+		SegmentCache cache = new SegmentCache(1024);
+		String a = cache.intern("iot-2/type/pump/id/p1/evt/alarm/fmt/json", 11, 15);
+		String b = cache.intern("iot-2/type/pump/id/p2/evt/reading/fmt/json", 11, 15);
+		assertEquals("pump", a);
+		assertSame(a, b);
+		assertSame(a, cache.intern(new String("pump")));
+		assertNull(cache.intern(null));
+		assertEquals(1, cache.getMisses());
+		assertEquals(2, cache.getHits());
+		assertEquals(2.0 / 3, cache.getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testBounded() {
+		logTestStart("testBounded");
+		SegmentCache cache = new SegmentCache(1000);
+		assertEquals(1024, cache.getCapacity());
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("d" + i, cache.intern("d" + i));
+		}
+		assertEquals(100000, cache.getMisses());
+
+		// A small working set stays in the table
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 100; i++) {
+				cache.intern("device" + i);
+			}
+		}
+		assertTrue("hit rate " + cache.getHits(), cache.getHits() >= 800);
+	}
+
+	@Test
+	public void testTopics() {
+		logTestStart("testTopics");
+		SegmentCache previous = Topic.getSegmentCache();
+		try {
+			SegmentCache cache = new SegmentCache(1024);
+			Topic.setSegmentCache(cache);
+			Topic first = Topic.parse("iot-2/type/pump/id/p1/evt/alarm/fmt/json");
+			Topic second = Topic.parse("iot-2/type/pump/id/p1/evt/alarm/fmt/json");
+			assertSame(first.getDeviceId(), second.getDeviceId());
+			assertSame(first.getTypeId(), second.getTypeId());
+			assertSame(first.getId(), second.getId());
+			assertSame(first.getFormat(), second.getFormat());
+			assertEquals(4, cache.getMisses());
+			assertEquals(4, cache.getHits());
+
+			Topic.setSegmentCache(null);
+			assertEquals("p1", first.getDeviceId());
+			assertNotSame(first.getDeviceId(), second.getDeviceId());
+		} finally {
+			Topic.setSegmentCache(previous);
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.exceptions.MessageDiscardedException;
+import com.ibm.wiotp.sdk.outbound.DiscardReason;
+import com.ibm.wiotp.sdk.outbound.OutboundMessage;
+import com.ibm.wiotp.sdk.outbound.SegmentStore;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class SegmentStoreTest extends AbstractTest {
+
+	private static OutboundMessage message(String topic, String payload) {
+		MqttMessage msg = new MqttMessage(payload.getBytes());
+		msg.setQos(1);
+		return new OutboundMessage(topic, msg, null, 0);
+	}
+
+	private static class RecordingListener implements IMqttActionListener {
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		int successes = 0;
+
+		@Override
+		public void onSuccess(IMqttToken asyncActionToken) {
+			successes++;
+		}
+
+		@Override
+		public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+			failures.add(exception);
+		}
+	}
+
+	@Test
+	public void testAppendAndRead() throws IOException {
+		logTestStart("testAppendAndRead");
+		File dir = Files.createTempDirectory("wiotp-store").toFile();
+		SegmentStore store = new SegmentStore(dir, 1024, 16);
+		try {
+			assertTrue(store.isEmpty());
+			for (int i = 0; i < 100; i++) {
+				store.append(message("iot-2/evt/test/fmt/json", "{\"n\":" + i + "}"));
+			}
+			assertFalse(store.isEmpty());
+			for (int i = 0; i < 100; i++) {
+				OutboundMessage read = store.read();
+				assertEquals("iot-2/evt/test/fmt/json", read.getTopic());
+				assertEquals(1, read.getMessage().getQos());
+				assertArrayEquals(("{\"n\":" + i + "}").getBytes(), read.getMessage().getPayload());
+			}
+			assertNull(store.read());
+			assertTrue(store.isEmpty());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testRecoverAfterReopen() throws IOException {
+		logTestStart("testRecoverAfterReopen");
+		File dir = Files.createTempDirectory("wiotp-store").toFile();
+		SegmentStore store = new SegmentStore(dir, 1024, 16);
+		for (int i = 0; i < 10; i++) {
+			store.append(message("iot-2/evt/test/fmt/json", "value" + i));
+		}
+		for (int i = 0; i < 4; i++) {
+			store.read().getListener().onSuccess(null);
+		}
+		store.close();
+
+		store = new SegmentStore(dir, 1024, 16);
+		try {
+			for (int i = 4; i < 10; i++) {
+				assertArrayEquals(("value" + i).getBytes(), store.read().getMessage().getPayload());
+			}
+			assertNull(store.read());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testUncommittedReadAgain() throws IOException {
+		logTestStart("testUncommittedReadAgain");
+		File dir = Files.createTempDirectory("wiotp-store").toFile();
+		SegmentStore store = new SegmentStore(dir, 64, 0);
+		for (int i = 0; i < 10; i++) {
+			store.append(message("iot-2/evt/test/fmt/json", "value" + i));
+		}
+		List<OutboundMessage> read = new ArrayList<OutboundMessage>();
+		for (int i = 0; i < 6; i++) {
+			read.add(store.read());
+		}
+		// Completed out of order, only the messages ahead of the first in flight are committed
+		read.get(0).getListener().onSuccess(null);
+		read.get(1).getListener().onFailure(null, new IOException("failed"));
+		read.get(3).getListener().onSuccess(null);
+		read.get(4).getListener().onSuccess(null);
+		store.close();
+		// Completing after the store was closed commits nothing
+		read.get(2).getListener().onSuccess(null);
+
+		store = new SegmentStore(dir, 64, 0);
+		try {
+			for (int i = 2; i < 10; i++) {
+				assertArrayEquals(("value" + i).getBytes(), store.read().getMessage().getPayload());
+			}
+			assertNull(store.read());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testListeners() throws IOException {
+		logTestStart("testListeners");
+		File dir = Files.createTempDirectory("wiotp-store").toFile();
+		// Room for two segments of about eight messages each
+		SegmentStore store = new SegmentStore(dir, 128, 2);
+		RecordingListener listener = new RecordingListener();
+		try {
+			store.append(new OutboundMessage("iot-2/evt/test/fmt/json", new MqttMessage("first".getBytes()), listener,
+					0));
+			for (int i = 0; i < 20; i++) {
+				store.append(message("iot-2/evt/test/fmt/json", "value" + i));
+			}
+			// The segment holding the first message was dropped
+			assertEquals(1, listener.failures.size());
+			assertEquals(DiscardReason.STORE_FULL,
+					((MessageDiscardedException) listener.failures.get(0)).getReason());
+
+			RecordingListener kept = new RecordingListener();
+			store.append(new OutboundMessage("iot-2/evt/test/fmt/json", new MqttMessage("last".getBytes()), kept, 0));
+			OutboundMessage read = store.read();
+			while (!"last".equals(new String(read.getMessage().getPayload()))) {
+				read = store.read();
+			}
+			// The listener is notified once the publish of the stored message completes
+			assertEquals(0, kept.successes);
+			read.getListener().onSuccess(null);
+			assertEquals(1, kept.successes);
+			assertTrue(kept.failures.isEmpty());
+		} finally {
+			store.close();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.app.messages.ApplicationStatus;
+import com.ibm.wiotp.sdk.app.messages.DeviceStatus;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class StatusTest extends AbstractTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testStatusTime() throws Exception {
+		logTestStart("testStatusTime");
+		String payload = "{\"Action\":\"Connect\",\"Time\":\"2019-07-07T06:37:56.494-04:00\",\"ClientID\":\"d:org:type:id\"}";
+		DeviceStatus status = new DeviceStatus("type", "id", new MqttMessage(payload.getBytes(UTF8)));
+
+		long expected = new DateTime("2019-07-07T06:37:56.494-04:00").getMillis();
+		assertEquals(expected, status.getTimeMillis());
+		assertEquals(expected, status.getTime().getMillis());
+		assertTrue(status.toString().contains("d:org:type:id:Connect"));
+	}
+
+	@Test
+	public void testStatusWithoutTime() throws Exception {
+		logTestStart("testStatusWithoutTime");
+		long before = System.currentTimeMillis();
+		DeviceStatus status = new DeviceStatus("type", "id",
+				new MqttMessage("{\"Action\":\"Connect\"}".getBytes(UTF8)));
+		long after = System.currentTimeMillis();
+
+		assertTrue(status.getTimeMillis() >= before && status.getTimeMillis() <= after);
+		assertEquals(status.getTimeMillis(), status.getTime().getMillis());
+	}
+
+	@Test
+	public void testStatusArrivalTime() throws Exception {
+		logTestStart("testStatusArrivalTime");
+		// The client passes the time from its own clock
+		ApplicationStatus status = new ApplicationStatus("app1",
+				new MqttMessage("{\"Action\":\"Connect\"}".getBytes(UTF8)), 1562495876494L);
+		assertEquals(1562495876494L, status.getTimeMillis());
+		assertEquals(1562495876494L, status.getTime().getMillis());
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.inbound.StripedDispatcher;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class StripedDispatcherTest extends AbstractTest {
+
+	@Test
+	public void testPerKeyOrder() throws InterruptedException {
+		logTestStart("testPerKeyOrder");
+		StripedDispatcher dispatcher = new StripedDispatcher(4, 100);
+		final Map<String, List<Integer>> seen = new HashMap<String, List<Integer>>();
+		final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+		for (int d = 0; d < 16; d++) {
+			seen.put("d" + d, Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		for (int i = 0; i < 1000; i++) {
+			for (int d = 0; d < 16; d++) {
+				final List<Integer> list = seen.get("d" + d);
+				final int n = i;
+				dispatcher.execute("d" + d, new Runnable() {
+					@Override
+					public void run() {
+						list.add(n);
+						threads.add(Thread.currentThread().getName());
+					}
+				});
+			}
+		}
+		assertTrue(dispatcher.shutdown(10000));
+
+		for (List<Integer> list : seen.values()) {
+			assertEquals(1000, list.size());
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i, list.get(i).intValue());
+			}
+		}
+		assertTrue("tasks ran on " + threads, threads.size() > 1);
+	}
+
+	@Test
+	public void testBoundedQueue() throws InterruptedException {
+		logTestStart("testBoundedQueue");
+		StripedDispatcher dispatcher = new StripedDispatcher(1, 2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger ran = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		};
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		dispatcher.execute("d1", task);
+		dispatcher.execute("d2", task);
+		assertEquals(2, dispatcher.getQueueDepth());
+		assertEquals(2, dispatcher.getQueueDepth(0));
+
+		// The stripe is full, so the next task waits until the first one finishes
+		final CountDownLatch queued = new CountDownLatch(1);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					dispatcher.execute("d3", new Runnable() {
+						@Override
+						public void run() {
+							ran.incrementAndGet();
+						}
+					});
+					queued.countDown();
+				} catch (InterruptedException e) {
+					// fall through
+				}
+			}
+		};
+		producer.start();
+		assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(queued.await(5, TimeUnit.SECONDS));
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(3, ran.get());
+		assertEquals(0, dispatcher.getQueueDepth());
+	}
+
+	@Test
+	public void testShutdownWithFullStripe() throws InterruptedException {
+		logTestStart("testShutdownWithFullStripe");
+		StripedDispatcher dispatcher = new StripedDispatcher(1, 1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch ran = new CountDownLatch(1);
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		});
+
+		// No room to stop the stalled stripe, so the shutdown gives up at the timeout
+		long start = System.currentTimeMillis();
+		assertFalse(dispatcher.shutdown(200));
+		assertTrue(System.currentTimeMillis() - start < 2000);
+
+		// The stripe still runs what was queued once the stalled task finishes
+		release.countDown();
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailingTask() throws InterruptedException {
+		logTestStart("testFailingTask");
+		StripedDispatcher dispatcher = new StripedDispatcher(1, 10);
+		final AtomicInteger ran = new AtomicInteger();
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("callback failed");
+			}
+		});
+		dispatcher.execute("d1", new Runnable() {
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		});
+		assertTrue(dispatcher.shutdown(5000));
+		assertEquals(1, ran.get());
+
+		try {
+			dispatcher.execute("d1", new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			throw new AssertionError("Accepted a task after shutdown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+}
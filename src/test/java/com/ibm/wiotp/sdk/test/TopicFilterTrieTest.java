@@ -0,0 +1,151 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.Topic;
+import com.ibm.wiotp.sdk.TopicFilterTrie;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class TopicFilterTrieTest extends AbstractTest {
+
+	private static Set<String> match(TopicFilterTrie<String> trie, String topic) {
+		List<String> matches = new ArrayList<String>();
+		trie.match(topic, matches);
+		return new HashSet<String>(matches);
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+
+	@Test
+	public void testWildcards() {
+		logTestStart("testWildcards");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		trie.add("type/pump/id/p1/evt/alarm", "literal");
+		trie.add("type/pump/id/+/evt/alarm", "plus");
+		trie.add("type/+/id/+/evt/+", "allEvents");
+		trie.add("type/pump/#", "pump");
+		trie.add("#", "all");
+
+		assertEquals(set("literal", "plus", "allEvents", "pump", "all"), match(trie, "type/pump/id/p1/evt/alarm"));
+		assertEquals(set("plus", "allEvents", "pump", "all"), match(trie, "type/pump/id/p2/evt/alarm"));
+		assertEquals(set("allEvents", "pump", "all"), match(trie, "type/pump/id/p2/evt/status"));
+		assertEquals(set("allEvents", "all"), match(trie, "type/valve/id/v1/evt/alarm"));
+		assertEquals(set("pump", "all"), match(trie, "type/pump"));
+		assertEquals(set("all"), match(trie, "type/valve/id/v1/cmd/open"));
+		assertEquals(set("pump", "all"), match(trie, "type/pump/id/p1/evt"));
+		assertTrue(match(trie, "").contains("all"));
+	}
+
+	@Test
+	public void testParsedTopic() {
+		logTestStart("testParsedTopic");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		trie.add("type/pump/id/+/evt/alarm", "alarm");
+		trie.add("type/pump/id/+/mon", "status");
+
+		List<String> matches = new ArrayList<String>();
+		trie.match(Topic.parse("iot-2/type/pump/id/p1/evt/alarm/fmt/json"), matches);
+		assertEquals(Arrays.asList("alarm"), matches);
+
+		matches.clear();
+		trie.match(Topic.parse("iot-2/type/pump/id/p1/mon"), matches);
+		assertEquals(Arrays.asList("status"), matches);
+
+		matches.clear();
+		trie.match(Topic.parse("iot-2/type/pump/id/p1/evt/status/fmt/json"), matches);
+		assertTrue(matches.isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		logTestStart("testRemove");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		trie.add("type/pump/id/+/evt/alarm", "a");
+		trie.add("type/pump/id/+/evt/alarm", "b");
+		assertEquals(2, trie.size());
+
+		assertTrue(trie.remove("type/pump/id/+/evt/alarm", "a"));
+		assertFalse(trie.remove("type/pump/id/+/evt/alarm", "a"));
+		assertFalse(trie.remove("type/pump/id/+/evt", "b"));
+		assertFalse(trie.remove("type/valve/id/+/evt/alarm", "b"));
+		assertEquals(set("b"), match(trie, "type/pump/id/p1/evt/alarm"));
+
+		assertTrue(trie.remove("type/pump/id/+/evt/alarm", "b"));
+		assertTrue(trie.isEmpty());
+		assertTrue(match(trie, "type/pump/id/p1/evt/alarm").isEmpty());
+	}
+
+	@Test
+	public void testInvalidFilters() {
+		logTestStart("testInvalidFilters");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		for (String filter : new String[] { "type/pu+/id/+", "type/#/id/p1", "type/pump#" }) {
+			try {
+				trie.add(filter, "x");
+				throw new AssertionError("Accepted invalid filter " + filter);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertTrue(trie.isEmpty());
+	}
+
+	@Test
+	public void testManyFilters() {
+		logTestStart("testManyFilters");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		for (int i = 0; i < 5000; i++) {
+			trie.add("type/pump/id/p" + i + "/evt/alarm", "p" + i);
+			trie.add("type/valve" + i + "/id/+/evt/+", "valve" + i);
+		}
+		assertEquals(10000, trie.size());
+		assertEquals(set("p4321"), match(trie, "type/pump/id/p4321/evt/alarm"));
+		assertEquals(set("valve17"), match(trie, "type/valve17/id/v1/evt/open"));
+		assertTrue(match(trie, "type/pump/id/p5000/evt/alarm").isEmpty());
+	}
+
+	@Test
+	public void testRemovePrunesNodes() {
+		logTestStart("testRemovePrunesNodes");
+		TopicFilterTrie<String> trie = new TopicFilterTrie<String>();
+		trie.add("type/pump/id/+/evt/alarm", "alarm");
+		int nodes = trie.nodeCount();
+		for (int i = 0; i < 1000; i++) {
+			trie.add("type/pump/id/p" + i + "/evt/+", "p" + i);
+			trie.add("type/valve" + i + "/#", "valve" + i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(trie.remove("type/pump/id/p" + i + "/evt/+", "p" + i));
+			assertTrue(trie.remove("type/valve" + i + "/#", "valve" + i));
+		}
+		assertEquals(1, trie.size());
+		assertEquals(nodes, trie.nodeCount());
+		assertEquals(set("alarm"), match(trie, "type/pump/id/p1/evt/alarm"));
+
+		assertTrue(trie.remove("type/pump/id/+/evt/alarm", "alarm"));
+		assertEquals(1, trie.nodeCount());
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.ibm.wiotp.sdk.Topic;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class TopicTest extends AbstractTest {
+
+	@Test
+	public void testDeviceTopics() {
+		logTestStart("testDeviceTopics");
+		Topic event = Topic.parse("iot-2/type/sensor/id/s-01/evt/reading/fmt/json");
+		assertEquals(Topic.Kind.DEVICE_EVENT, event.getKind());
+		assertEquals("sensor", event.getTypeId());
+		assertEquals("s-01", event.getDeviceId());
+		assertEquals("reading", event.getId());
+		assertEquals("json", event.getFormat());
+		assertNull(event.getAppId());
+
+		Topic command = Topic.parse("iot-2/type/sensor/id/s-01/cmd/reboot/fmt/utf8");
+		assertEquals(Topic.Kind.DEVICE_COMMAND, command.getKind());
+		assertEquals("reboot", command.getId());
+		assertEquals("utf8", command.getFormat());
+
+		Topic status = Topic.parse("iot-2/type/sensor/id/s-01/mon");
+		assertEquals(Topic.Kind.DEVICE_STATUS, status.getKind());
+		assertEquals("sensor", status.getTypeId());
+		assertEquals("s-01", status.getDeviceId());
+		assertNull(status.getId());
+		assertNull(status.getFormat());
+	}
+
+	@Test
+	public void testOtherTopics() {
+		logTestStart("testOtherTopics");
+		Topic app = Topic.parse("iot-2/app/myApp/mon");
+		assertEquals(Topic.Kind.APP_STATUS, app.getKind());
+		assertEquals("myApp", app.getAppId());
+		assertNull(app.getTypeId());
+
+		Topic command = Topic.parse("iot-2/cmd/reboot/fmt/json");
+		assertEquals(Topic.Kind.COMMAND, command.getKind());
+		assertEquals("reboot", command.getId());
+		assertEquals("json", command.getFormat());
+		assertNull(command.getDeviceId());
+
+		assertEquals(Topic.Kind.EVENT, Topic.parse("iot-2/evt/reading/fmt/json").getKind());
+	}
+
+	@Test
+	public void testUnknownTopics() {
+		logTestStart("testUnknownTopics");
+		String[] topics = { "", "iot-2/", "iot-3/cmd/reboot/fmt/json", "iot-2/type//id/d/evt/e/fmt/json",
+				"iot-2/type/t/id/d/evt/e/fmt/", "iot-2/type/t/id/d/evt/e/fmt/json/extra",
+				"iot-2/type/t/id/d/evt/e/json", "iot-2/type/t/id/d/mon/extra", "iot-2/type/t/id/d", "iot-2/type/t",
+				"iot-2/app/a/mon/x", "iot-2/app//mon", "iot-2/cmd/reboot", "iot-2/cmd//fmt/json",
+				"iot-2/type/t/id/d/sts/e/fmt/json" };
+		for (String topic : topics) {
+			assertNull(topic, Topic.parse(topic));
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.outbound.WindowAggregator;
+import com.ibm.wiotp.sdk.test.util.AbstractTest;
+
+public class WindowAggregatorTest extends AbstractTest {
+
+	@Test
+	public void testSummary() {
+		logTestStart("testSummary");
+		WindowAggregator aggregator = new WindowAggregator();
+		for (int i = 1; i <= 10; i++) {
+			JsonObject sample = new JsonObject();
+			sample.addProperty("temp", i);
+			sample.addProperty("humidity", 50 - i);
+			sample.addProperty("status", "ok");
+			aggregator.add(sample);
+		}
+
+		JsonObject summary = aggregator.drain();
+		JsonObject temp = summary.getAsJsonObject("temp");
+		assertEquals(1.0, temp.get("min").getAsDouble(), 0);
+		assertEquals(10.0, temp.get("max").getAsDouble(), 0);
+		assertEquals(5.5, temp.get("mean").getAsDouble(), 0);
+		assertEquals(10, temp.get("count").getAsLong());
+		assertEquals(10.0, temp.get("last").getAsDouble(), 0);
+		assertEquals(40.0, summary.getAsJsonObject("humidity").get("min").getAsDouble(), 0);
+		assertFalse(summary.has("status"));
+	}
+
+	@Test
+	public void testTumblingWindows() {
+		logTestStart("testTumblingWindows");
+		WindowAggregator aggregator = new WindowAggregator();
+		for (int i = 0; i < 6; i++) {
+			aggregator.add("v" + i, i);
+		}
+		aggregator.drain();
+		assertNull(aggregator.drain());
+
+		aggregator.add("v3", -1);
+		JsonObject summary = aggregator.drain();
+		assertEquals(1, summary.entrySet().size());
+		assertEquals(1, summary.getAsJsonObject("v3").get("count").getAsLong());
+		assertEquals(-1.0, summary.getAsJsonObject("v3").get("max").getAsDouble(), 0);
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ *****************************************************************************
+ Copyright (c) 2019 IBM Corporation and other Contributors.
+ All rights reserved. This program and the accompanying materials
+ are made available under the terms of the Eclipse Public License v1.0
+ which accompanies this distribution, and is available at
+ http://www.eclipse.org/legal/epl-v10.html
+ *****************************************************************************
+ *
+ */
+package com.ibm.wiotp.sdk.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.ibm.wiotp.sdk.codecs.JsonCodec;
+import com.ibm.wiotp.sdk.codecs.PayloadBuffer;
+
+/**
+ * Compares the time and heap allocation of encoding a typical 1 KB telemetry
+ * payload through a String with streaming it into a pooled
+ * {@link PayloadBuffer}, for a JsonObject and for a POJO. <br>
+ * 
+ * Not part of the test suite, run it with:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.ibm.wiotp.sdk.test.benchmark.JsonEncodeBenchmark
+ * </pre>
+ */
+public class JsonEncodeBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Gson GSON = new Gson();
+
+	private static final int WARMUP = 200000;
+	private static final int ITERATIONS = 1000000;
+
+	/* Roughly 1 KB once encoded */
+	public static class Telemetry {
+		String deviceId = "sensor-0042";
+		String firmware = "2.14.7-release";
+		long timestamp = 1571234567890L;
+		double[] temperature = { 21.5, 21.6, 21.6, 21.7, 21.9, 22.0, 22.1, 22.1, 22.3, 22.2, 22.4, 22.5, 22.5, 22.6,
+				22.8, 22.7, 22.9, 23.0, 23.1, 23.1 };
+		double[] humidity = { 40.1, 40.3, 40.2, 40.8, 41.0, 41.2, 41.1, 41.5, 41.6, 41.4, 41.8, 42.0, 42.1, 42.1, 42.3,
+				42.2, 42.6, 42.7, 42.9, 43.0 };
+		double[] pressure = { 1013.2, 1013.1, 1013.3, 1013.4, 1013.2, 1013.0, 1012.9, 1012.8, 1012.9, 1012.7, 1012.6,
+				1012.8, 1012.5, 1012.4, 1012.6, 1012.3, 1012.2, 1012.4, 1012.1, 1012.0 };
+		int battery = 87;
+		int rssi = -67;
+		boolean charging = false;
+		String location = "building-7/floor-3/room-312";
+		String status = "nominal";
+		String[] alarms = { "none" };
+		String[] tags = { "hvac", "zone-a", "critical-path", "monitored", "calibrated-2019-09" };
+		String gatewayId = "gateway-eu-de-0007";
+		String schemaVersion = "telemetry/v3";
+		String description = "Environmental sensor monitoring temperature, humidity and pressure for the "
+				+ "third floor server room, sampled every 500 ms and reported in batches of twenty readings";
+		long uptime = 8640042;
+		long messagesSent = 123456;
+		long messagesFailed = 12;
+	}
+
+	private interface Encoder {
+		byte[] encode();
+	}
+
+	public static void main(String[] args) {
+		final Telemetry pojo = new Telemetry();
+		final JsonObject tree = GSON.toJsonTree(pojo).getAsJsonObject();
+		final JsonCodec codec = new JsonCodec();
+		System.out.println("Payload size: " + codec.encode(tree, null).length + " bytes");
+
+		run("JsonObject toString().getBytes()", new Encoder() {
+			public byte[] encode() {
+				return tree.toString().getBytes(UTF8);
+			}
+		});
+		run("JsonObject streamed to buffer   ", new Encoder() {
+			public byte[] encode() {
+				PayloadBuffer buffer = PayloadBuffer.pooled();
+				codec.encode(tree, null, buffer);
+				return buffer.toByteArray();
+			}
+		});
+		run("POJO toJsonTree().toString()    ", new Encoder() {
+			public byte[] encode() {
+				return GSON.toJsonTree(pojo).toString().getBytes(UTF8);
+			}
+		});
+		run("POJO streamed to buffer         ", new Encoder() {
+			public byte[] encode() {
+				PayloadBuffer buffer = PayloadBuffer.pooled();
+				JsonCodec.writeJson(pojo, buffer);
+				return buffer.toByteArray();
+			}
+		});
+	}
+
+	private static void run(String name, Encoder encoder) {
+		long sink = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			sink += encoder.encode().length;
+		}
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += encoder.encode().length;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		System.out.println(String.format("%s %8.0f ns/op %8d bytes allocated/op  (%d)", name,
+				(double) elapsed / ITERATIONS, allocated / ITERATIONS, sink));
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
@@ -4,10 +4,42 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.ibm.wiotp.sdk.test.ApplicationStreamTest;
 import com.ibm.wiotp.sdk.test.ApplicationTest;
+import com.ibm.wiotp.sdk.test.BufferedPublisherTest;
+import com.ibm.wiotp.sdk.test.DeadbandFilterTest;
+import com.ibm.wiotp.sdk.test.DuplicateFilterTest;
+import com.ibm.wiotp.sdk.test.EventBatcherTest;
+import com.ibm.wiotp.sdk.test.EventPackerTest;
+import com.ibm.wiotp.sdk.test.GatewayCodecTest;
+import com.ibm.wiotp.sdk.test.InflightWindowTest;
+import com.ibm.wiotp.sdk.test.JsonDeflateCodecTest;
+import com.ibm.wiotp.sdk.test.KeyedDispatcherTest;
+import com.ibm.wiotp.sdk.test.LazyMessageTest;
+import com.ibm.wiotp.sdk.test.MappedFilePersistenceTest;
+import com.ibm.wiotp.sdk.test.OutboundQueueTest;
+import com.ibm.wiotp.sdk.test.PackedEventTest;
+import com.ibm.wiotp.sdk.test.PayloadBufferTest;
+import com.ibm.wiotp.sdk.test.PublishInterceptionTest;
+import com.ibm.wiotp.sdk.test.SegmentCacheTest;
+import com.ibm.wiotp.sdk.test.SegmentStoreTest;
+import com.ibm.wiotp.sdk.test.StatusTest;
+import com.ibm.wiotp.sdk.test.StripedDispatcherTest;
+import com.ibm.wiotp.sdk.test.TopicFilterTrieTest;
+import com.ibm.wiotp.sdk.test.TopicTest;
+import com.ibm.wiotp.sdk.test.WindowAggregatorTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ ApplicationTest.class })
+@SuiteClasses({ ApplicationTest.class, OutboundQueueTest.class, SegmentStoreTest.class,
+		MappedFilePersistenceTest.class, InflightWindowTest.class, WindowAggregatorTest.class,
+		DeadbandFilterTest.class, JsonDeflateCodecTest.class, PayloadBufferTest.class,
+		EventPackerTest.class, StatusTest.class,
+		TopicTest.class, TopicFilterTrieTest.class, StripedDispatcherTest.class,
+		KeyedDispatcherTest.class, BufferedPublisherTest.class, LazyMessageTest.class,
+		EventBatcherTest.class, DuplicateFilterTest.class,
+		SegmentCacheTest.class, PublishInterceptionTest.class,
+		GatewayCodecTest.class, PackedEventTest.class,
+		ApplicationStreamTest.class })
 public class AllTestSuite {
 
 }